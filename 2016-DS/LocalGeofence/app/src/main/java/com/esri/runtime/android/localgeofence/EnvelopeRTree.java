@@ -0,0 +1,189 @@
+/* Copyright 2016 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * A copy of the license is available in the repository's
+ * https://github.com/Esri/arcgis-runtime-demos-android/blob/master/license.txt
+ *
+ * For information about licensing your deployed app, see
+ * https://developers.arcgis.com/android/guide/license-your-app.htm
+ *
+ */
+
+package com.esri.runtime.android.localgeofence;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A read-only, in-memory R-tree of envelopes, bulk loaded using the
+ * Sort-Tile-Recursive (STR) algorithm. Each envelope is identified by its
+ * index in the arrays passed to the constructor. Used to find the few fences
+ * whose envelope contains a location, without testing every fence.
+ */
+public class EnvelopeRTree {
+
+  // Maximum number of children of each node.
+  private static final int NODE_CAPACITY = 16;
+
+  // Bounds of the entries at each level, as xmin, ymin, xmax, ymax. Level 0
+  // holds the envelopes themselves, the last level holds the root node.
+  private final double[][] mBounds;
+
+  // For levels above 0, the range of child indexes in the level below.
+  private final int[][] mChildFrom;
+  private final int[][] mChildTo;
+
+  // For level 0, the envelope index of each entry.
+  private final int[] mIds;
+
+  /**
+   * Build the tree from arrays of envelope coordinates, all of the same length.
+   */
+  public EnvelopeRTree(double[] xmin, double[] ymin, double[] xmax, double[] ymax) {
+    int count = xmin.length;
+
+    // Work out how many levels are needed.
+    int levels = 1;
+    for (int n = count; n > 1; n = (n + NODE_CAPACITY - 1) / NODE_CAPACITY) {
+      levels++;
+    }
+    mBounds = new double[levels][];
+    mChildFrom = new int[levels][];
+    mChildTo = new int[levels][];
+
+    // Level 0 - the envelopes, in STR order.
+    double[] bounds = new double[count * 4];
+    for (int i = 0; i < count; i++) {
+      bounds[i * 4] = xmin[i];
+      bounds[i * 4 + 1] = ymin[i];
+      bounds[i * 4 + 2] = xmax[i];
+      bounds[i * 4 + 3] = ymax[i];
+    }
+    Integer[] order = strOrder(bounds, count);
+    mIds = new int[count];
+    mBounds[0] = new double[count * 4];
+    for (int i = 0; i < count; i++) {
+      mIds[i] = order[i];
+      System.arraycopy(bounds, order[i] * 4, mBounds[0], i * 4, 4);
+    }
+
+    // Upper levels - group consecutive entries of the level below into nodes,
+    // then sort the nodes into STR order ready for the next level.
+    for (int level = 1; level < levels; level++) {
+      double[] below = mBounds[level - 1];
+      int belowCount = below.length / 4;
+      int nodeCount = (belowCount + NODE_CAPACITY - 1) / NODE_CAPACITY;
+      double[] nodeBounds = new double[nodeCount * 4];
+      int[] from = new int[nodeCount];
+      int[] to = new int[nodeCount];
+      for (int n = 0; n < nodeCount; n++) {
+        from[n] = n * NODE_CAPACITY;
+        to[n] = Math.min(from[n] + NODE_CAPACITY, belowCount);
+        nodeBounds[n * 4] = Double.POSITIVE_INFINITY;
+        nodeBounds[n * 4 + 1] = Double.POSITIVE_INFINITY;
+        nodeBounds[n * 4 + 2] = Double.NEGATIVE_INFINITY;
+        nodeBounds[n * 4 + 3] = Double.NEGATIVE_INFINITY;
+        for (int c = from[n]; c < to[n]; c++) {
+          nodeBounds[n * 4] = Math.min(nodeBounds[n * 4], below[c * 4]);
+          nodeBounds[n * 4 + 1] = Math.min(nodeBounds[n * 4 + 1], below[c * 4 + 1]);
+          nodeBounds[n * 4 + 2] = Math.max(nodeBounds[n * 4 + 2], below[c * 4 + 2]);
+          nodeBounds[n * 4 + 3] = Math.max(nodeBounds[n * 4 + 3], below[c * 4 + 3]);
+        }
+      }
+
+      Integer[] nodeOrder = strOrder(nodeBounds, nodeCount);
+      mBounds[level] = new double[nodeCount * 4];
+      mChildFrom[level] = new int[nodeCount];
+      mChildTo[level] = new int[nodeCount];
+      for (int n = 0; n < nodeCount; n++) {
+        System.arraycopy(nodeBounds, nodeOrder[n] * 4, mBounds[level], n * 4, 4);
+        mChildFrom[level][n] = from[nodeOrder[n]];
+        mChildTo[level][n] = to[nodeOrder[n]];
+      }
+    }
+  }
+
+  /**
+   * @return the number of envelopes in the tree.
+   */
+  public int size() {
+    return mIds.length;
+  }
+
+  /**
+   * Find all envelopes containing a location.
+   *
+   * @param x  x coordinate of the location
+   * @param y  y coordinate of the location
+   * @param results  list to add the index of each matching envelope to
+   */
+  public void search(double x, double y, List<Integer> results) {
+    int top = mBounds.length - 1;
+    for (int n = 0; n < mBounds[top].length / 4; n++) {
+      search(top, n, x, y, results);
+    }
+  }
+
+  private void search(int level, int entry, double x, double y, List<Integer> results) {
+    double[] bounds = mBounds[level];
+    if (x < bounds[entry * 4] || y < bounds[entry * 4 + 1]
+        || x > bounds[entry * 4 + 2] || y > bounds[entry * 4 + 3]) {
+      return;
+    }
+    if (level == 0) {
+      results.add(mIds[entry]);
+      return;
+    }
+    for (int c = mChildFrom[level][entry]; c < mChildTo[level][entry]; c++) {
+      search(level - 1, c, x, y, results);
+    }
+  }
+
+  /**
+   * Sort entries into Sort-Tile-Recursive order - sorted by x into vertical
+   * slices, then by y within each slice - so that consecutive runs of
+   * NODE_CAPACITY entries are spatially close together.
+   */
+  private static Integer[] strOrder(final double[] bounds, int count) {
+    Integer[] order = new Integer[count];
+    for (int i = 0; i < count; i++) {
+      order[i] = i;
+    }
+    if (count == 0) {
+      return order;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Double.compare(bounds[a * 4] + bounds[a * 4 + 2],
+            bounds[b * 4] + bounds[b * 4 + 2]);
+      }
+    });
+
+    // Slice size is a multiple of the node capacity, so nodes never span slices.
+    int nodeCount = (count + NODE_CAPACITY - 1) / NODE_CAPACITY;
+    int sliceCount = (int) Math.ceil(Math.sqrt(nodeCount));
+    int sliceSize = ((nodeCount + sliceCount - 1) / sliceCount) * NODE_CAPACITY;
+    Comparator<Integer> byY = new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Double.compare(bounds[a * 4 + 1] + bounds[a * 4 + 3],
+            bounds[b * 4 + 1] + bounds[b * 4 + 3]);
+      }
+    };
+    for (int start = 0; start < count; start += sliceSize) {
+      Arrays.sort(order, start, Math.min(start + sliceSize, count), byY);
+    }
+    return order;
+  }
+}
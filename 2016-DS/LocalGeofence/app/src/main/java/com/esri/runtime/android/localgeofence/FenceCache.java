@@ -0,0 +1,221 @@
+/* Copyright 2016 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * A copy of the license is available in the repository's
+ * https://github.com/Esri/arcgis-runtime-demos-android/blob/master/license.txt
+ *
+ * For information about licensing your deployed app, see
+ * https://developers.arcgis.com/android/guide/license-your-app.htm
+ *
+ */
+
+package com.esri.runtime.android.localgeofence;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Keeps the active fence in app-private storage, already projected to WGS84
+ * and prepared, so that when Android restarts a geofence service in a new
+ * process the fence can be restored without querying the geodatabase or
+ * projecting the fence again.
+ * <p>
+ * The file holds only the prepared fence and its generalized fence, which
+ * are all that is needed to check locations. It is memory-mapped when read, and the restored fence
+ * reads its coordinates straight from the mapping, so they are never copied
+ * onto the Java heap. The restored fence has no fence geometry.
+ */
+public class FenceCache {
+
+  private static final String TAG = FenceCache.class.getSimpleName();
+
+  private static final String CACHE_FILE_NAME = "active_fence.bin";
+
+  // Identifies the file format; change the version when the format changes.
+  private static final int MAGIC = 0x46454e43; // "FENC"
+  private static final int VERSION = 3;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * Get the fence watched by the geofence services, restoring it from the
+   * cache if it has been lost since it was set.
+   *
+   * @param context  context used to find app-private storage
+   * @return the active fence, or null if no fence has been set
+   */
+  public static LocalGeofence getActiveFence(Context context) {
+    return getActiveFence(getCacheFile(context));
+  }
+
+  /**
+   * Get the fence watched by the geofence services, restoring it from a
+   * cache file if it has been lost since it was set.
+   */
+  static LocalGeofence getActiveFence(File cacheFile) {
+    LocalGeofence fence = LocalGeofence.getActiveFence();
+    if (fence == null) {
+      fence = read(cacheFile);
+      if (fence != null) {
+        Log.i(TAG, "Restored active fence from cache: " + fence.getFeatureName());
+        LocalGeofence.setActiveFence(fence);
+      }
+    }
+    return fence;
+  }
+
+  /**
+   * Set the fence watched by the geofence services, and cache it. This writes
+   * to storage, so should not be called on the UI thread for large fences.
+   *
+   * @param context  context used to find app-private storage
+   * @param fence  the fence to watch
+   */
+  public static void setActiveFence(Context context, LocalGeofence fence) {
+    setActiveFence(getCacheFile(context), fence);
+  }
+
+  /**
+   * Set the fence watched by the geofence services, and cache it in a file.
+   */
+  static void setActiveFence(File cacheFile, LocalGeofence fence) {
+    LocalGeofence.setActiveFence(fence);
+    write(cacheFile, fence);
+  }
+
+  private static File getCacheFile(Context context) {
+    return new File(context.getFilesDir(), CACHE_FILE_NAME);
+  }
+
+  /**
+   * Write a fence to a cache file. The file is written alongside and then
+   * renamed, so a restarted service never reads a partly written file.
+   *
+   * @return true if the fence was written, otherwise false.
+   */
+  static boolean write(File file, LocalGeofence fence) {
+    File tempFile = new File(file.getPath() + ".tmp");
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(tempFile)));
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(fence.getFeatureOid());
+        writeString(out, fence.getFeatureName());
+        writeString(out, fence.getSubtitle());
+
+        // Align the prepared fences, so their coordinates can be read in place.
+        align(out);
+        fence.getPreparedFence().writeTo(out);
+        PreparedFence coarseFence = fence.getCoarseFence();
+        out.writeBoolean(coarseFence != null);
+        if (coarseFence != null) {
+          align(out);
+          coarseFence.writeTo(out);
+        }
+      } finally {
+        out.close();
+      }
+      if (!tempFile.renameTo(file)) {
+        throw new IOException("Could not rename " + tempFile);
+      }
+      return true;
+    } catch (IOException e) {
+      Log.w(TAG, "Could not cache fence", e);
+      tempFile.delete();
+      return false;
+    }
+  }
+
+  /**
+   * Read a fence from a cache file.
+   *
+   * @return the fence, or null if there is no usable cache file.
+   */
+  static LocalGeofence read(File file) {
+    if (!file.exists()) {
+      return null;
+    }
+    try {
+      RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+      try {
+        FileChannel channel = randomAccessFile.getChannel();
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+          Log.w(TAG, "Ignoring fence cache in an unknown format");
+          return null;
+        }
+        long oid = buffer.getLong();
+        String name = readString(buffer);
+        String subtitle = readString(buffer);
+
+        align(buffer);
+        PreparedFence preparedFence = new PreparedFence(buffer);
+        PreparedFence coarseFence = null;
+        if (buffer.get() != 0) {
+          align(buffer);
+          coarseFence = new PreparedFence(buffer);
+        }
+        return new LocalGeofence(oid, name, subtitle, null, preparedFence, coarseFence);
+      } finally {
+        randomAccessFile.close();
+      }
+    } catch (IOException | BufferUnderflowException | IllegalArgumentException
+        | NegativeArraySizeException e) {
+      Log.w(TAG, "Could not read fence cache", e);
+      return null;
+    }
+  }
+
+  private static void align(DataOutputStream out) throws IOException {
+    while (out.size() % 8 != 0) {
+      out.writeByte(0);
+    }
+  }
+
+  private static void align(ByteBuffer buffer) {
+    buffer.position((buffer.position() + 7) & ~7);
+  }
+
+  static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(UTF8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static String readString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, UTF8);
+  }
+}
@@ -0,0 +1,167 @@
+/* Copyright 2016 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * A copy of the license is available in the repository's
+ * https://github.com/Esri/arcgis-runtime-demos-android/blob/master/license.txt
+ *
+ * For information about licensing your deployed app, see
+ * https://developers.arcgis.com/android/guide/license-your-app.htm
+ *
+ */
+
+package com.esri.runtime.android.localgeofence;
+
+import com.esri.core.geometry.Envelope;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Polygon;
+
+/**
+ * Generalizes a WGS84 fence for a coarse, cheap first look at how far a
+ * location is from the fence boundary.
+ * <p>
+ * Each ring is simplified with the Douglas-Peucker algorithm, which keeps
+ * every part of the original ring within the tolerance of the simplified
+ * ring, and every part of the simplified ring within the tolerance of the
+ * original. So the distance from any location to the simplified boundary is
+ * within the tolerance of the distance to the full boundary. The simplified
+ * rings may cross each other, so are only used for distances, not to test
+ * whether a location is inside the fence.
+ */
+public class FenceGeneralizer {
+
+  /**
+   * Generalize a WGS84 fence.
+   *
+   * @param fence  the fence geometry, in WGS84
+   * @param toleranceMeters  furthest the generalized boundary may be from the
+   *                         full boundary, in meters
+   * @return the generalized fence.
+   */
+  public static Polygon generalize(Polygon fence, double toleranceMeters) {
+    // Work in degrees, with longitude scaled by the largest meters per degree
+    // anywhere in the fence, so distances are never underestimated.
+    Envelope envelope = new Envelope();
+    fence.queryEnvelope(envelope);
+    double minLatitude = (envelope.getYMin() <= 0 && envelope.getYMax() >= 0)
+        ? 0 : Math.min(Math.abs(envelope.getYMin()), Math.abs(envelope.getYMax()));
+    double xScale = Math.cos(Math.toRadians(Math.min(90, minLatitude)));
+    double tolerance = toleranceMeters / PreparedFence.METERS_PER_DEGREE;
+
+    Polygon generalized = new Polygon();
+    for (int path = 0; path < fence.getPathCount(); path++) {
+      int start = fence.getPathStart(path);
+      int count = fence.getPathEnd(path) - start;
+      if (count == 0) {
+        continue;
+      }
+      double[] x = new double[count];
+      double[] y = new double[count];
+      for (int i = 0; i < count; i++) {
+        Point point = fence.getPoint(start + i);
+        x[i] = point.getX();
+        y[i] = point.getY();
+      }
+
+      boolean[] keep = simplifyRing(x, y, xScale, tolerance);
+      boolean first = true;
+      for (int i = 0; i < count; i++) {
+        if (!keep[i]) {
+          continue;
+        }
+        if (first) {
+          generalized.startPath(x[i], y[i]);
+          first = false;
+        }
+        else {
+          generalized.lineTo(x[i], y[i]);
+        }
+      }
+    }
+    return generalized;
+  }
+
+  /**
+   * Simplify a closed ring. The ring is split at its first vertex and the
+   * vertex furthest from it, and each half simplified.
+   *
+   * @return which vertices to keep.
+   */
+  static boolean[] simplifyRing(double[] x, double[] y, double xScale, double tolerance) {
+    int count = x.length;
+    boolean[] keep = new boolean[count];
+    keep[0] = true;
+    if (count < 3) {
+      keep[count - 1] = true;
+      return keep;
+    }
+
+    int furthest = 0;
+    double furthestDistance = -1;
+    for (int i = 1; i < count; i++) {
+      double d = Math.hypot((x[i] - x[0]) * xScale, y[i] - y[0]);
+      if (d > furthestDistance) {
+        furthest = i;
+        furthestDistance = d;
+      }
+    }
+    keep[furthest] = true;
+    simplify(x, y, xScale, tolerance, 0, furthest, keep);
+    simplify(x, y, xScale, tolerance, furthest, count, keep);
+    return keep;
+  }
+
+  /**
+   * Douglas-Peucker simplification of the chain from vertex first to vertex
+   * last, where last may be the vertex count to close the ring back to vertex
+   * 0. Uses a stack rather than recursion, as rings can be very long.
+   */
+  private static void simplify(double[] x, double[] y, double xScale, double tolerance,
+                               int first, int last, boolean[] keep) {
+    int count = x.length;
+    int[] stack = new int[64];
+    int top = 0;
+    stack[top++] = first;
+    stack[top++] = last;
+    while (top > 0) {
+      int b = stack[--top];
+      int a = stack[--top];
+      if (b - a < 2) {
+        continue;
+      }
+      double ax = x[a] * xScale, ay = y[a];
+      double bx = x[b % count] * xScale, by = y[b % count];
+      int furthest = -1;
+      double furthestDistance = tolerance;
+      for (int i = a + 1; i < b; i++) {
+        double d = PreparedFence.segmentDistance(ax - x[i] * xScale, ay - y[i],
+            bx - x[i] * xScale, by - y[i]);
+        if (d > furthestDistance) {
+          furthest = i;
+          furthestDistance = d;
+        }
+      }
+      if (furthest < 0) {
+        continue;
+      }
+      keep[furthest] = true;
+      if (top + 4 > stack.length) {
+        int[] grown = new int[stack.length * 2];
+        System.arraycopy(stack, 0, grown, 0, top);
+        stack = grown;
+      }
+      stack[top++] = a;
+      stack[top++] = furthest;
+      stack[top++] = furthest;
+      stack[top++] = b;
+    }
+  }
+}
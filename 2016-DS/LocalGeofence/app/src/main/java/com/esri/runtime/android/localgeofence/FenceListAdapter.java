@@ -0,0 +1,313 @@
+/* Copyright 2016 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * A copy of the license is available in the repository's
+ * https://github.com/Esri/arcgis-runtime-demos-android/blob/master/license.txt
+ *
+ * For information about licensing your deployed app, see
+ * https://developers.arcgis.com/android/guide/license-your-app.htm
+ *
+ */
+
+package com.esri.runtime.android.localgeofence;
+
+import android.app.Activity;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import com.esri.core.geodatabase.GeodatabaseFeatureTable;
+import com.esri.core.map.Feature;
+import com.esri.core.map.FeatureResult;
+import com.esri.core.tasks.query.QueryParameters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Lists the names of the fence features in a feature table, loading them a
+ * page at a time as the list is scrolled, so the first rows show as soon as
+ * the first page is read, however many fences there are.
+ * <p>
+ * Each page is a query for the name and ObjectID of the fences after the
+ * last ObjectID already loaded, in ObjectID order, with no geometry. Only as
+ * many rows as fit in a page are read from the result. Queries run on the
+ * FenceLoader thread, and each page is added to the list on the UI thread.
+ * The item ID of each row is the ObjectID of its fence.
+ * <p>
+ * The list can be filtered to the fences whose names start with a prefix.
+ * Loaded names are also kept in a FenceNameIndex, and while a filter is set
+ * the remaining pages are loaded in turn, so the filtered rows fill in with
+ * every matching fence.
+ * <p>
+ * Once the FenceSearchIndex of every fence name has been opened, the filter
+ * is a full-text search of it instead, listing the best matches first. While
+ * the index is being opened, the filter only covers the pages already
+ * loaded, and switches to the index as soon as it is open.
+ */
+public class FenceListAdapter extends BaseAdapter {
+
+  private static final String TAG = FenceListAdapter.class.getSimpleName();
+
+  // Rows read by each query, and how close to the end of the loaded rows the
+  // list may be scrolled before the next page is asked for.
+  protected static int PAGE_SIZE = 200;
+  protected static int PREFETCH_ROWS = 50;
+
+  // Most search matches listed.
+  protected static int MAX_SEARCH_RESULTS = 500;
+
+  private final Activity mActivity;
+  private final GeodatabaseFeatureTable mFeatureTable;
+  private final LayoutInflater mInflater;
+
+  // Loaded rows, in ObjectID order, and indexed by name. Only changed on the
+  // UI thread.
+  private long[] mOids = new long[PAGE_SIZE];
+  private final List<String> mNames = new ArrayList<String>();
+  private final FenceNameIndex mIndex = new FenceNameIndex();
+
+  // Prefix the rows are filtered by, or null to show every row, and the
+  // range of the index that matches it.
+  private String mFilter = null;
+  private int mFilterStart = 0;
+  private int mFilterEnd = 0;
+
+  // Index searched by the filter, or null if it was not open when the filter
+  // was set, and the positions in it of the matches, best first.
+  private FenceSearchIndex mSearchIndex = null;
+  private int[] mSearchResults = null;
+  private int mSearchCount = 0;
+
+  // Switches the filter to the search index once it has been opened.
+  private final FenceSearchIndex.Listener mSearchIndexListener = new FenceSearchIndex.Listener() {
+    @Override
+    public void onSearchIndexOpened(FenceSearchIndex index) {
+      mActivity.runOnUiThread(new Runnable() {
+        @Override
+        public void run() {
+          if (mFilter != null) {
+            setFilter(mFilter);
+          }
+        }
+      });
+    }
+  };
+
+  // Whether a page is being loaded, and whether every fence has been loaded.
+  // Only used on the UI thread.
+  private boolean mLoading = false;
+  private boolean mComplete = false;
+
+  /**
+   * Create an adapter, and start loading the first page.
+   *
+   * @param activity  activity showing the list
+   * @param featureTable  table containing the fence features, or null if
+   *                      there is no table, in which case the list is empty
+   */
+  public FenceListAdapter(Activity activity, GeodatabaseFeatureTable featureTable) {
+    mActivity = activity;
+    mFeatureTable = featureTable;
+    mInflater = LayoutInflater.from(activity);
+    mComplete = (featureTable == null);
+    FenceSearchIndex.addListener(mSearchIndexListener);
+    loadNextPage();
+  }
+
+  /**
+   * Stop listening for the search index, when the list is finished with.
+   */
+  public void close() {
+    FenceSearchIndex.removeListener(mSearchIndexListener);
+  }
+
+  @Override
+  public int getCount() {
+    if (mSearchIndex != null) {
+      return mSearchCount;
+    }
+    return (mFilter != null) ? mFilterEnd - mFilterStart : mNames.size();
+  }
+
+  @Override
+  public String getItem(int position) {
+    if (mSearchIndex != null) {
+      return mSearchIndex.getName(mSearchResults[position]);
+    }
+    return (mFilter != null) ? mIndex.getName(mFilterStart + position) : mNames.get(position);
+  }
+
+  @Override
+  public long getItemId(int position) {
+    if (mSearchIndex != null) {
+      return mSearchIndex.getOid(mSearchResults[position]);
+    }
+    return (mFilter != null) ? mIndex.getOid(mFilterStart + position) : mOids[position];
+  }
+
+  @Override
+  public boolean hasStableIds() {
+    return true;
+  }
+
+  @Override
+  public View getView(int position, View convertView, ViewGroup parent) {
+    if (mFilter == null && position >= mNames.size() - PREFETCH_ROWS) {
+      loadNextPage();
+    }
+    TextView view = (TextView) convertView;
+    if (view == null) {
+      view = (TextView) mInflater.inflate(android.R.layout.simple_list_item_1, parent, false);
+    }
+    view.setText(getItem(position));
+    return view;
+  }
+
+  /**
+   * Show only the fences matching a filter, ignoring case: those with a word
+   * starting with each word of the filter if the search index is open,
+   * otherwise those whose names start with the filter.
+   *
+   * @param filter  the filter, or null or empty to show every fence
+   */
+  public void setFilter(String filter) {
+    mFilter = (filter == null || filter.isEmpty()) ? null : filter;
+    FenceSearchIndex searchIndex = FenceSearchIndex.getOpened();
+    if (mFilter != null && searchIndex != null) {
+      if (mSearchResults == null) {
+        mSearchResults = new int[MAX_SEARCH_RESULTS];
+      }
+      mSearchIndex = searchIndex;
+      mSearchCount = searchIndex.search(mFilter, mSearchResults);
+      notifyDataSetChanged();
+      return;
+    }
+    mSearchIndex = null;
+    updateFilterRange();
+    notifyDataSetChanged();
+    if (isPagingForFilter()) {
+      loadNextPage();
+    }
+  }
+
+  private void updateFilterRange() {
+    if (mFilter != null) {
+      mFilterStart = mIndex.startOf(mFilter);
+      mFilterEnd = mIndex.endOf(mFilter);
+    }
+  }
+
+  /**
+   * @return true if every fence has been loaded.
+   */
+  public boolean isComplete() {
+    return mComplete;
+  }
+
+  /**
+   * Load the next page of fences in the background, unless one is already
+   * being loaded or there are no more.
+   */
+  private void loadNextPage() {
+    if (mLoading || mComplete) {
+      return;
+    }
+    mLoading = true;
+    final long afterOid = mNames.isEmpty() ? -1 : mOids[mNames.size() - 1];
+    FenceLoader.submit(new Runnable() {
+      @Override
+      public void run() {
+        final long[] oids = new long[PAGE_SIZE];
+        final String[] names = new String[PAGE_SIZE];
+        final int count = queryPage(mFeatureTable, afterOid, oids, names);
+        mActivity.runOnUiThread(new Runnable() {
+          @Override
+          public void run() {
+            addPage(oids, names, count);
+          }
+        });
+      }
+    });
+  }
+
+  private void addPage(long[] oids, String[] names, int count) {
+    if (mNames.size() + count > mOids.length) {
+      mOids = Arrays.copyOf(mOids, Math.max(mOids.length * 2, mNames.size() + count));
+    }
+    System.arraycopy(oids, 0, mOids, mNames.size(), count);
+    mNames.addAll(Arrays.asList(names).subList(0, count));
+    mIndex.addAll(oids, names, count);
+    mLoading = false;
+    mComplete = (count < PAGE_SIZE);
+    if (count > 0) {
+      updateFilterRange();
+      notifyDataSetChanged();
+    }
+    // Keep loading while filtered, so every matching fence is found.
+    if (isPagingForFilter()) {
+      loadNextPage();
+    }
+  }
+
+  /**
+   * @return true if every page should be loaded to find the fences matching
+   * the filter, because there is no search index and none is being opened.
+   */
+  private boolean isPagingForFilter() {
+    return mFilter != null && mSearchIndex == null && !FenceSearchIndex.isOpening();
+  }
+
+  /**
+   * Read the next page of fences from a feature table.
+   *
+   * @param afterOid  only fences with a greater ObjectID are read
+   * @param oids  receives the ObjectID of each fence read
+   * @param names  receives the name of each fence read
+   * @return the number of fences read, less than the page size if there are
+   * no more.
+   */
+  private static int queryPage(GeodatabaseFeatureTable featureTable, long afterOid,
+                               long[] oids, String[] names) {
+    QueryParameters queryParams = new QueryParameters();
+    queryParams.setOutFields(new String[]{MainActivity.FENCE_NAME_FIELD,
+        MainActivity.FENCE_OBJECTID_FIELD});
+    queryParams.setReturnGeometry(false);
+    queryParams.setWhere(MainActivity.FENCE_OBJECTID_FIELD + " > " + afterOid);
+    queryParams.setOrderByFields(new String[]{MainActivity.FENCE_OBJECTID_FIELD});
+
+    int count = 0;
+    try {
+      FeatureResult result = featureTable.queryFeatures(queryParams, null).get();
+      if (result != null) {
+        // Only read as far as the end of the page.
+        Iterator<Object> features = result.iterator();
+        while (count < oids.length && features.hasNext()) {
+          Feature feature = (Feature) features.next();
+          Object name = feature.getAttributeValue(MainActivity.FENCE_NAME_FIELD);
+          oids[count] = feature.getId();
+          names[count] = (name != null) ? name.toString() : "";
+          count++;
+        }
+      }
+    } catch (InterruptedException | ExecutionException e) {
+      Log.w(TAG, "Could not query fence names", e);
+    }
+    return count;
+  }
+}
@@ -0,0 +1,164 @@
+/* Copyright 2016 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * A copy of the license is available in the repository's
+ * https://github.com/Esri/arcgis-runtime-demos-android/blob/master/license.txt
+ *
+ * For information about licensing your deployed app, see
+ * https://developers.arcgis.com/android/guide/license-your-app.htm
+ *
+ */
+
+package com.esri.runtime.android.localgeofence;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.esri.core.geodatabase.GeodatabaseFeatureTable;
+import com.esri.core.geometry.Polygon;
+import com.esri.core.geometry.SpatialReference;
+import com.esri.core.map.Feature;
+import com.esri.core.map.FeatureResult;
+import com.esri.core.tasks.query.QueryParameters;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Loads fences from the geodatabase off the UI thread. All the fences wanted
+ * are fetched with a single query, rather than one feature at a time, and
+ * each fence is projected and prepared as its feature is read from the
+ * result, so the first fences are ready before the last have been read.
+ * <p>
+ * Loads run one at a time, in the order they were asked for, on a single
+ * background thread.
+ */
+public class FenceLoader {
+
+  private static final String TAG = FenceLoader.class.getSimpleName();
+
+  private static final ExecutorService sExecutor =
+      Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, TAG);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  /**
+   * Receives fences as they are loaded. Both methods are called on the
+   * loader thread.
+   */
+  public interface Listener {
+    /**
+     * A fence has been loaded and prepared.
+     */
+    void onFenceLoaded(LocalGeofence fence);
+
+    /**
+     * The load has finished.
+     *
+     * @param loaded  number of fences loaded
+     * @param complete  false if the query failed or the load was cancelled
+     */
+    void onLoadFinished(int loaded, boolean complete);
+  }
+
+  /**
+   * Load fences from a feature table in the background.
+   *
+   * @param featureTable  table containing the fence features
+   * @param oids  object IDs of the fences to load, or null to load every fence
+   * @param listener  receives each fence as it is loaded
+   * @return a future giving the number of fences loaded; cancel it to stop
+   * the load after the fence being prepared.
+   */
+  public static Future<Integer> load(final GeodatabaseFeatureTable featureTable,
+                                     final long[] oids, final Listener listener) {
+    return sExecutor.submit(new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        return loadNow(featureTable, oids, listener);
+      }
+    });
+  }
+
+  /**
+   * Run a task on the loader thread, once any loads already asked for have
+   * finished. Use this to act on loaded fences in order with the loads.
+   */
+  public static Future<?> submit(Runnable task) {
+    return sExecutor.submit(task);
+  }
+
+  /**
+   * Load fences from a feature table, blocking until the load finishes.
+   */
+  private static int loadNow(GeodatabaseFeatureTable featureTable, long[] oids,
+                             Listener listener) {
+    if (oids != null && oids.length == 0) {
+      listener.onLoadFinished(0, true);
+      return 0;
+    }
+    long startTime = SystemClock.elapsedRealtime();
+
+    // Prepare one query for all the fences. The fences are projected to WGS84
+    // once they are read, after densifying, so ask for them unprojected.
+    QueryParameters queryParams = new QueryParameters();
+    queryParams.setOutFields(new String[]{MainActivity.FENCE_NAME_FIELD,
+        MainActivity.FENCE_OBJECTID_FIELD});
+    queryParams.setReturnGeometry(true);
+    if (oids != null) {
+      queryParams.setObjectIds(oids);
+    }
+    else {
+      queryParams.setWhere("1 > 0"); // Select all features.
+    }
+
+    SpatialReference fenceSr = featureTable.getSpatialReference();
+    int loaded = 0;
+    boolean complete = false;
+    try {
+      FeatureResult result = featureTable.queryFeatures(queryParams, null).get();
+      complete = true;
+      if (result != null) {
+        for (Object objFeature : result) {
+          if (Thread.currentThread().isInterrupted()) {
+            complete = false;
+            break;
+          }
+          Feature feature = (Feature) objFeature;
+          Object name = feature.getAttributeValue(MainActivity.FENCE_NAME_FIELD);
+          listener.onFenceLoaded(new LocalGeofence(feature.getId(),
+              (name != null) ? name.toString() : "", null, (Polygon) feature.getGeometry(),
+              fenceSr));
+          loaded++;
+        }
+      }
+    } catch (InterruptedException e) {
+      complete = false;
+    } catch (ExecutionException e) {
+      Log.w(TAG, "Could not query fences", e);
+      complete = false;
+    }
+    Log.i(TAG, String.format("Loaded %d fences in %d ms", loaded,
+        SystemClock.elapsedRealtime() - startTime));
+    listener.onLoadFinished(loaded, complete);
+    return loaded;
+  }
+}
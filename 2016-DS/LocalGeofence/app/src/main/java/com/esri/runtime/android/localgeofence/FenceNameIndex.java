@@ -0,0 +1,178 @@
+/* Copyright 2016 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * A copy of the license is available in the repository's
+ * https://github.com/Esri/arcgis-runtime-demos-android/blob/master/license.txt
+ *
+ * For information about licensing your deployed app, see
+ * https://developers.arcgis.com/android/guide/license-your-app.htm
+ *
+ */
+
+package com.esri.runtime.android.localgeofence;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Fence names sorted for prefix search, each with the ObjectID of its fence.
+ * Names are compared ignoring case, and fences with the same name are kept
+ * in ObjectID order, so every fence can be told apart.
+ * <p>
+ * The fences matching a prefix are always a contiguous range of the index,
+ * found by two binary searches, so a search takes microseconds however many
+ * fences there are. Fences are added in batches, each merged into the sorted
+ * arrays in a single pass.
+ * <p>
+ * Not thread-safe; use from one thread, such as the UI thread.
+ */
+public class FenceNameIndex {
+
+  // Folded names, in sorted order, with the name and ObjectID of each.
+  private String[] mKeys = new String[0];
+  private String[] mNames = new String[0];
+  private long[] mOids = new long[0];
+  private int mSize = 0;
+
+  /**
+   * Add a batch of fences.
+   *
+   * @param oids  ObjectID of each fence
+   * @param names  name of each fence
+   * @param count  number of fences in the batch
+   */
+  public void addAll(long[] oids, String[] names, int count) {
+    // Sort the batch, then merge it into the index from the back.
+    final String[] keys = new String[count];
+    Integer[] order = new Integer[count];
+    for (int i = 0; i < count; i++) {
+      keys[i] = fold(names[i]);
+      order[i] = i;
+    }
+    final long[] batchOids = oids;
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer lhs, Integer rhs) {
+        return compareEntries(keys[lhs], batchOids[lhs], keys[rhs], batchOids[rhs]);
+      }
+    });
+
+    int size = mSize + count;
+    if (size > mKeys.length) {
+      int capacity = Math.max(size, mKeys.length * 2);
+      mKeys = Arrays.copyOf(mKeys, capacity);
+      mNames = Arrays.copyOf(mNames, capacity);
+      mOids = Arrays.copyOf(mOids, capacity);
+    }
+    int i = mSize - 1;
+    int j = count - 1;
+    for (int to = size - 1; j >= 0; to--) {
+      int b = order[j];
+      if (i >= 0 && compareEntries(mKeys[i], mOids[i], keys[b], oids[b]) > 0) {
+        mKeys[to] = mKeys[i];
+        mNames[to] = mNames[i];
+        mOids[to] = mOids[i];
+        i--;
+      }
+      else {
+        mKeys[to] = keys[b];
+        mNames[to] = names[b];
+        mOids[to] = oids[b];
+        j--;
+      }
+    }
+    mSize = size;
+  }
+
+  /**
+   * Remove every fence.
+   */
+  public void clear() {
+    Arrays.fill(mKeys, 0, mSize, null);
+    Arrays.fill(mNames, 0, mSize, null);
+    mSize = 0;
+  }
+
+  /**
+   * @return the number of fences in the index.
+   */
+  public int size() {
+    return mSize;
+  }
+
+  /**
+   * @return the ObjectID of the fence at a position in the index.
+   */
+  public long getOid(int position) {
+    return mOids[position];
+  }
+
+  /**
+   * @return the name of the fence at a position in the index.
+   */
+  public String getName(int position) {
+    return mNames[position];
+  }
+
+  /**
+   * @return the position of the first fence whose name starts with a prefix,
+   * or of the first fence after where it would be if there is none.
+   */
+  public int startOf(String prefix) {
+    String key = fold(prefix);
+    int lo = 0, hi = mSize;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (mKeys[mid].compareTo(key) < 0) {
+        lo = mid + 1;
+      }
+      else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * @return the position after the last fence whose name starts with a prefix.
+   */
+  public int endOf(String prefix) {
+    String key = fold(prefix);
+    int lo = startOf(prefix), hi = mSize;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (mKeys[mid].startsWith(key)) {
+        lo = mid + 1;
+      }
+      else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Fold a name or prefix for searching.
+   */
+  static String fold(String name) {
+    return (name == null) ? "" : name.toLowerCase(Locale.ROOT);
+  }
+
+  private static int compareEntries(String key1, long oid1, String key2, long oid2) {
+    int compare = key1.compareTo(key2);
+    if (compare != 0) {
+      return compare;
+    }
+    return (oid1 < oid2) ? -1 : ((oid1 == oid2) ? 0 : 1);
+  }
+}
@@ -0,0 +1,646 @@
+/* Copyright 2016 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * A copy of the license is available in the repository's
+ * https://github.com/Esri/arcgis-runtime-demos-android/blob/master/license.txt
+ *
+ * For information about licensing your deployed app, see
+ * https://developers.arcgis.com/android/guide/license-your-app.htm
+ *
+ */
+
+package com.esri.runtime.android.localgeofence;
+
+import android.util.Log;
+
+import com.esri.core.geodatabase.GeodatabaseFeatureTable;
+import com.esri.core.map.Feature;
+import com.esri.core.map.FeatureResult;
+import com.esri.core.tasks.query.QueryParameters;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A full-text index of the names of every fence in a feature table, for
+ * searching fences by name as the user types.
+ * <p>
+ * Every word of every name is indexed by where it starts. The word starts
+ * are sorted by the rest of the name from that point on, so the words
+ * starting with a search term - or the runs of words starting with a phrase -
+ * are a contiguous range, found by two binary searches. A search takes the
+ * matches of its rarest term, keeps those whose names also have words
+ * starting with every other term, and ranks them: names starting with the
+ * whole search first, then names with a word starting with it, then the
+ * rest, shorter names first and otherwise alphabetically.
+ * <p>
+ * Building the index needs a query of every fence name, so it is built once,
+ * in the background, and saved in a file next to the geodatabase. The file
+ * is rebuilt if the geodatabase changes. The index is opened on its own
+ * low-priority thread, so queries on the FenceLoader thread, such as the
+ * pages of the fence picker, never wait for it to be built.
+ * <p>
+ * Searches are not thread-safe; search from one thread, such as the UI
+ * thread.
+ */
+public class FenceSearchIndex {
+
+  private static final String TAG = FenceSearchIndex.class.getSimpleName();
+
+  // Added to the geodatabase file name to name the index file.
+  private static final String INDEX_FILE_SUFFIX = ".names";
+
+  // Identifies the file format; change the version when the format changes.
+  private static final int MAGIC = 0x464e4458; // "FNDX"
+  private static final int VERSION = 1;
+
+  // Ranks of search matches, best first.
+  private static final int RANK_NAME_PREFIX = 0;
+  private static final int RANK_WORD_PREFIX = 1;
+  private static final int RANK_ALL_WORDS = 2;
+
+  // Words starting further into a name than this are not indexed.
+  private static final int MAX_WORD_OFFSET = 0xffff;
+
+  private static final ExecutorService sExecutor =
+      Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, TAG);
+          thread.setDaemon(true);
+          thread.setPriority(Thread.MIN_PRIORITY);
+          return thread;
+        }
+      });
+
+  /**
+   * Told when opening the index in the background has finished. Called on
+   * the index thread.
+   */
+  public interface Listener {
+    /**
+     * @param index  the index, or null if it could not be opened
+     */
+    void onSearchIndexOpened(FenceSearchIndex index);
+  }
+
+  // The index opened in the background, the open under way, and how many
+  // opens have been started, so an open that has been closed is ignored.
+  private static FenceSearchIndex sIndex = null;
+  private static Future<?> sOpening = null;
+  private static int sOpenCount = 0;
+  private static final List<Listener> sListeners = new ArrayList<Listener>();
+
+  // Fences, sorted by folded name, then ObjectID.
+  private final long[] mOids;
+  private final String[] mNames;
+  private final String[] mKeys;
+
+  // Word starts, each packed as fence position << 16 | offset into its key,
+  // sorted by the key from that offset on.
+  private final long[] mWords;
+
+  // Reused by searches: the search in which each fence was last seen, and the
+  // ranking keys of the matches.
+  private final int[] mSeen;
+  private int mSearch = 0;
+  private long[] mMatches = new long[64];
+
+  /**
+   * Index a set of fences.
+   *
+   * @param oids  ObjectID of each fence
+   * @param names  name of each fence
+   * @param count  number of fences
+   */
+  public FenceSearchIndex(long[] oids, String[] names, int count) {
+    final String[] keys = new String[count];
+    Integer[] order = new Integer[count];
+    for (int i = 0; i < count; i++) {
+      keys[i] = FenceNameIndex.fold(names[i]);
+      order[i] = i;
+    }
+    final long[] unsortedOids = oids;
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer lhs, Integer rhs) {
+        int compare = keys[lhs].compareTo(keys[rhs]);
+        if (compare != 0) {
+          return compare;
+        }
+        return (unsortedOids[lhs] < unsortedOids[rhs]) ? -1
+            : ((unsortedOids[lhs] == unsortedOids[rhs]) ? 0 : 1);
+      }
+    });
+
+    mOids = new long[count];
+    mNames = new String[count];
+    mKeys = new String[count];
+    for (int i = 0; i < count; i++) {
+      int from = order[i];
+      mOids[i] = oids[from];
+      mNames[i] = (names[from] != null) ? names[from] : "";
+      mKeys[i] = keys[from];
+    }
+    mWords = sortWords(mKeys);
+    mSeen = new int[count];
+  }
+
+  /**
+   * Restore an index read from a file.
+   */
+  private FenceSearchIndex(long[] oids, String[] names, long[] words) {
+    mOids = oids;
+    mNames = names;
+    mKeys = new String[names.length];
+    for (int i = 0; i < names.length; i++) {
+      mKeys[i] = FenceNameIndex.fold(names[i]);
+    }
+    mWords = words;
+    mSeen = new int[names.length];
+  }
+
+  /**
+   * Get the index of the fences in a geodatabase, reading it from the file
+   * next to the geodatabase, or building and saving it if there is no file
+   * for the geodatabase as it is now. Building queries the feature table, so
+   * call this off the UI thread; openInBackground does.
+   *
+   * @param geodatabaseFile  the geodatabase file
+   * @param featureTable  table containing the fence features
+   * @return the index, or null if it could not be built.
+   */
+  public static FenceSearchIndex open(File geodatabaseFile, GeodatabaseFeatureTable featureTable) {
+    File indexFile = new File(geodatabaseFile.getPath() + INDEX_FILE_SUFFIX);
+    long length = geodatabaseFile.length();
+    long lastModified = geodatabaseFile.lastModified();
+    FenceSearchIndex index = read(indexFile, length, lastModified);
+    if (index != null) {
+      return index;
+    }
+    index = build(featureTable);
+    if (index != null) {
+      write(indexFile, index, length, lastModified);
+    }
+    return index;
+  }
+
+  /**
+   * Start opening the index of the fences in a geodatabase in the
+   * background, unless it is already open or being opened. Listeners are
+   * told when it has been.
+   *
+   * @param geodatabaseFile  the geodatabase file
+   * @param featureTable  table containing the fence features
+   */
+  public static synchronized void openInBackground(final File geodatabaseFile,
+                                                   final GeodatabaseFeatureTable featureTable) {
+    if (sIndex != null || sOpening != null) {
+      return;
+    }
+    final int openCount = ++sOpenCount;
+    sOpening = sExecutor.submit(new Runnable() {
+      @Override
+      public void run() {
+        opened(openCount, open(geodatabaseFile, featureTable));
+      }
+    });
+  }
+
+  private static void opened(int openCount, FenceSearchIndex index) {
+    List<Listener> listeners;
+    synchronized (FenceSearchIndex.class) {
+      if (openCount != sOpenCount) {
+        return;
+      }
+      sIndex = index;
+      sOpening = null;
+      listeners = new ArrayList<Listener>(sListeners);
+    }
+    for (Listener listener : listeners) {
+      listener.onSearchIndexOpened(index);
+    }
+  }
+
+  /**
+   * Stop opening the index, and forget it, so the geodatabase can be
+   * disposed. Blocks until any query of the geodatabase has stopped, so call
+   * this off the UI thread.
+   */
+  public static void close() {
+    Future<?> opening;
+    synchronized (FenceSearchIndex.class) {
+      opening = sOpening;
+      sOpening = null;
+      sIndex = null;
+      sOpenCount++;
+    }
+    if (opening != null) {
+      opening.cancel(true);
+    }
+    try {
+      // Wait for the index thread to finish whatever it was doing.
+      sExecutor.submit(new Runnable() {
+        @Override
+        public void run() {
+        }
+      }).get();
+    } catch (InterruptedException | ExecutionException e) {
+      Log.w(TAG, "Interrupted closing fence name index", e);
+    }
+  }
+
+  /**
+   * Wait for the index being opened in the background, if any, to be opened,
+   * so the geodatabase it is built from can be disposed without closing the
+   * index. Blocks, so call this off the UI thread.
+   */
+  public static void awaitOpened() {
+    Future<?> opening;
+    synchronized (FenceSearchIndex.class) {
+      opening = sOpening;
+    }
+    if (opening == null) {
+      return;
+    }
+    try {
+      opening.get();
+    } catch (CancellationException e) {
+      // Closed meanwhile.
+    } catch (InterruptedException | ExecutionException e) {
+      Log.w(TAG, "Interrupted waiting for fence name index", e);
+    }
+  }
+
+  /**
+   * @return the index opened in the background, or null if it has not been
+   * opened.
+   */
+  public static synchronized FenceSearchIndex getOpened() {
+    return sIndex;
+  }
+
+  /**
+   * @return true if the index is being opened in the background.
+   */
+  public static synchronized boolean isOpening() {
+    return sOpening != null;
+  }
+
+  public static synchronized void addListener(Listener listener) {
+    sListeners.add(listener);
+  }
+
+  public static synchronized void removeListener(Listener listener) {
+    sListeners.remove(listener);
+  }
+
+  /**
+   * @return the number of fences in the index.
+   */
+  public int size() {
+    return mOids.length;
+  }
+
+  /**
+   * @return the ObjectID of the fence at a position in the index.
+   */
+  public long getOid(int position) {
+    return mOids[position];
+  }
+
+  /**
+   * @return the name of the fence at a position in the index.
+   */
+  public String getName(int position) {
+    return mNames[position];
+  }
+
+  /**
+   * Find the fences whose names have a word starting with each word of a
+   * search, best matches first.
+   *
+   * @param query  the search, as typed
+   * @param results  receives the position in the index of each match, up to
+   *                 the length of the array
+   * @return the number of matches put in results.
+   */
+  public int search(String query, int[] results) {
+    String phrase = FenceNameIndex.fold(query).trim();
+    String[] terms = splitWords(phrase);
+    if (terms.length == 0) {
+      return 0;
+    }
+
+    // Take the matches of the term with fewest of them.
+    int bestStart = 0, bestEnd = mWords.length;
+    for (String term : terms) {
+      int start = lowerBound(term, 0);
+      int end = lowerBound(term, 1);
+      if (end - start < bestEnd - bestStart) {
+        bestStart = start;
+        bestEnd = end;
+      }
+    }
+
+    if (++mSearch == 0) {
+      Arrays.fill(mSeen, 0);
+      mSearch = 1;
+    }
+    int count = 0;
+    for (int w = bestStart; w < bestEnd; w++) {
+      int fence = (int) (mWords[w] >>> 16);
+      if (mSeen[fence] == mSearch) {
+        continue;
+      }
+      mSeen[fence] = mSearch;
+      String key = mKeys[fence];
+      if (!hasEveryTerm(key, terms)) {
+        continue;
+      }
+      int rank = key.startsWith(phrase) ? RANK_NAME_PREFIX
+          : (hasWordStartingWith(key, phrase) ? RANK_WORD_PREFIX : RANK_ALL_WORDS);
+      if (count == mMatches.length) {
+        mMatches = Arrays.copyOf(mMatches, count * 2);
+      }
+      mMatches[count++] = ((long) rank << 52) | ((long) Math.min(key.length(), 0xfffff) << 32)
+          | fence;
+    }
+    Arrays.sort(mMatches, 0, count);
+
+    int found = Math.min(count, results.length);
+    for (int i = 0; i < found; i++) {
+      results[i] = (int) mMatches[i];
+    }
+    return found;
+  }
+
+  /**
+   * Read every fence name from a feature table, in one query with no
+   * geometry, and index them.
+   *
+   * @return the index, or null if the query failed.
+   */
+  static FenceSearchIndex build(GeodatabaseFeatureTable featureTable) {
+    QueryParameters queryParams = new QueryParameters();
+    queryParams.setOutFields(new String[]{MainActivity.FENCE_NAME_FIELD,
+        MainActivity.FENCE_OBJECTID_FIELD});
+    queryParams.setReturnGeometry(false);
+    queryParams.setWhere("1 > 0");
+
+    long[] oids = new long[256];
+    String[] names = new String[256];
+    int count = 0;
+    try {
+      FeatureResult result = featureTable.queryFeatures(queryParams, null).get();
+      if (result == null) {
+        return null;
+      }
+      for (Object element : result) {
+        if (Thread.currentThread().isInterrupted()) {
+          return null;
+        }
+        Feature feature = (Feature) element;
+        if (count == oids.length) {
+          oids = Arrays.copyOf(oids, count * 2);
+          names = Arrays.copyOf(names, count * 2);
+        }
+        Object name = feature.getAttributeValue(MainActivity.FENCE_NAME_FIELD);
+        oids[count] = feature.getId();
+        names[count] = (name != null) ? name.toString() : "";
+        count++;
+      }
+    } catch (InterruptedException | ExecutionException e) {
+      Log.w(TAG, "Could not query fence names", e);
+      return null;
+    }
+    Log.i(TAG, "Indexed " + count + " fence names");
+    return new FenceSearchIndex(oids, names, count);
+  }
+
+  /**
+   * Write an index to a file, stamped with the size and modification time of
+   * the geodatabase it indexes. The file is written alongside and then
+   * renamed, so a partly written file is never read.
+   *
+   * @return true if the index was written, otherwise false.
+   */
+  static boolean write(File file, FenceSearchIndex index, long length, long lastModified) {
+    File tempFile = new File(file.getPath() + ".tmp");
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(tempFile)));
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(length);
+        out.writeLong(lastModified);
+        out.writeInt(index.mOids.length);
+        for (int i = 0; i < index.mOids.length; i++) {
+          out.writeLong(index.mOids[i]);
+          FenceCache.writeString(out, index.mNames[i]);
+        }
+        out.writeInt(index.mWords.length);
+        for (long word : index.mWords) {
+          out.writeLong(word);
+        }
+      } finally {
+        out.close();
+      }
+      if (!tempFile.renameTo(file)) {
+        throw new IOException("Could not rename " + tempFile);
+      }
+      return true;
+    } catch (IOException e) {
+      Log.w(TAG, "Could not save fence name index", e);
+      tempFile.delete();
+      return false;
+    }
+  }
+
+  /**
+   * Read an index from a file.
+   *
+   * @return the index, or null if there is no usable file for the
+   * geodatabase with the given size and modification time.
+   */
+  static FenceSearchIndex read(File file, long length, long lastModified) {
+    if (!file.exists()) {
+      return null;
+    }
+    try {
+      RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+      try {
+        FileChannel channel = randomAccessFile.getChannel();
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+          Log.w(TAG, "Ignoring fence name index in an unknown format");
+          return null;
+        }
+        if (buffer.getLong() != length || buffer.getLong() != lastModified) {
+          Log.i(TAG, "Fence name index is out of date");
+          return null;
+        }
+        int count = buffer.getInt();
+        long[] oids = new long[count];
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+          oids[i] = buffer.getLong();
+          names[i] = FenceCache.readString(buffer);
+        }
+        long[] words = new long[buffer.getInt()];
+        buffer.asLongBuffer().get(words);
+        return new FenceSearchIndex(oids, names, words);
+      } finally {
+        randomAccessFile.close();
+      }
+    } catch (IOException | BufferUnderflowException | IllegalArgumentException
+        | NegativeArraySizeException e) {
+      Log.w(TAG, "Could not read fence name index", e);
+      return null;
+    }
+  }
+
+  /**
+   * Find the first word start whose key, from the start on, is not less than
+   * a term - or with after set to 1, the first that is greater than it and
+   * does not start with it.
+   */
+  private int lowerBound(String term, int after) {
+    int lo = 0, hi = mWords.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      long word = mWords[mid];
+      if (comparePrefix(mKeys[(int) (word >>> 16)], (int) (word & 0xffff), term) < after) {
+        lo = mid + 1;
+      }
+      else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Compare the part of a key from an offset on with a term, as far as the
+   * length of the term, so that 0 means the key starts with the term there.
+   */
+  private static int comparePrefix(String key, int offset, String term) {
+    int length = Math.min(key.length() - offset, term.length());
+    for (int i = 0; i < length; i++) {
+      int compare = key.charAt(offset + i) - term.charAt(i);
+      if (compare != 0) {
+        return compare;
+      }
+    }
+    return (length < term.length()) ? -1 : 0;
+  }
+
+  private static boolean hasEveryTerm(String key, String[] terms) {
+    for (String term : terms) {
+      if (!hasWordStartingWith(key, term)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean hasWordStartingWith(String key, String term) {
+    for (int i = 0; i < key.length(); i++) {
+      if (isWordStart(key, i) && key.startsWith(term, i)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isWordStart(String key, int offset) {
+    return Character.isLetterOrDigit(key.charAt(offset))
+        && (offset == 0 || !Character.isLetterOrDigit(key.charAt(offset - 1)));
+  }
+
+  private static String[] splitWords(String phrase) {
+    String[] words = phrase.split("[^\\p{L}\\p{N}]+");
+    int count = 0;
+    for (String word : words) {
+      if (!word.isEmpty()) {
+        words[count++] = word;
+      }
+    }
+    return Arrays.copyOf(words, count);
+  }
+
+  /**
+   * Find the start of every word of every key, and sort them by the rest of
+   * the key from the start on.
+   */
+  private static long[] sortWords(final String[] keys) {
+    int count = 0;
+    for (String key : keys) {
+      for (int i = 0; i < Math.min(key.length(), MAX_WORD_OFFSET + 1); i++) {
+        if (isWordStart(key, i)) {
+          count++;
+        }
+      }
+    }
+    Long[] words = new Long[count];
+    count = 0;
+    for (int fence = 0; fence < keys.length; fence++) {
+      String key = keys[fence];
+      for (int i = 0; i < Math.min(key.length(), MAX_WORD_OFFSET + 1); i++) {
+        if (isWordStart(key, i)) {
+          words[count++] = ((long) fence << 16) | i;
+        }
+      }
+    }
+    Arrays.sort(words, new Comparator<Long>() {
+      @Override
+      public int compare(Long lhs, Long rhs) {
+        String key1 = keys[(int) (lhs >>> 16)];
+        String key2 = keys[(int) (rhs >>> 16)];
+        int offset1 = (int) (lhs & 0xffff);
+        int offset2 = (int) (rhs & 0xffff);
+        int length = Math.min(key1.length() - offset1, key2.length() - offset2);
+        for (int i = 0; i < length; i++) {
+          int compare = key1.charAt(offset1 + i) - key2.charAt(offset2 + i);
+          if (compare != 0) {
+            return compare;
+          }
+        }
+        int compare = (key1.length() - offset1) - (key2.length() - offset2);
+        return (compare != 0) ? compare : lhs.compareTo(rhs);
+      }
+    });
+    long[] sorted = new long[count];
+    for (int i = 0; i < count; i++) {
+      sorted[i] = words[i];
+    }
+    return sorted;
+  }
+}
@@ -0,0 +1,96 @@
+/* Copyright 2016 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * A copy of the license is available in the repository's
+ * https://github.com/Esri/arcgis-runtime-demos-android/blob/master/license.txt
+ *
+ * For information about licensing your deployed app, see
+ * https://developers.arcgis.com/android/guide/license-your-app.htm
+ *
+ */
+
+package com.esri.runtime.android.localgeofence;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the coordinates and grids of many prepared fences outside the Java
+ * heap, in direct buffers. Large fence sets would otherwise keep millions of
+ * coordinates on the heap, as arrays or as Polygon objects, which the garbage
+ * collector has to keep walking over.
+ * <p>
+ * Fences are packed one after another into large chunks, each fence starting
+ * on an 8 byte boundary. A fence added to the store is replaced by a view of
+ * its copy in the chunk; the views are small, and act as the on-heap index
+ * into the chunks.
+ */
+public class FenceStore {
+
+  // Size of each chunk; a fence larger than this gets a chunk of its own.
+  protected static int CHUNK_BYTES = 4 * 1024 * 1024;
+
+  private final List<ByteBuffer> mChunks = new ArrayList<ByteBuffer>();
+  private ByteBuffer mChunk = null;
+  private long mByteCount = 0;
+
+  /**
+   * Copy a prepared fence into the store.
+   *
+   * @param fence  the prepared fence
+   * @return a prepared fence reading from the copy in the store.
+   */
+  public synchronized PreparedFence add(PreparedFence fence) {
+    int size = fence.byteSize();
+    if (mChunk == null || mChunk.remaining() < size) {
+      mChunk = ByteBuffer.allocateDirect(Math.max(CHUNK_BYTES, size))
+          .order(ByteOrder.nativeOrder());
+      mChunks.add(mChunk);
+    }
+    int start = mChunk.position();
+    fence.writeTo(mChunk);
+    mByteCount += mChunk.position() - start;
+
+    // Keep the next fence aligned.
+    mChunk.position(Math.min(mChunk.limit(), (mChunk.position() + 7) & ~7));
+
+    ByteBuffer view = mChunk.duplicate().order(mChunk.order());
+    view.position(start);
+    return new PreparedFence(view);
+  }
+
+  /**
+   * Drop all fences from the store. Fences already returned by add still work,
+   * and their chunks are freed once they are no longer used.
+   */
+  public synchronized void clear() {
+    mChunks.clear();
+    mChunk = null;
+    mByteCount = 0;
+  }
+
+  /**
+   * @return the number of bytes used by the fences in the store.
+   */
+  public synchronized long getByteCount() {
+    return mByteCount;
+  }
+
+  /**
+   * @return the number of chunks allocated.
+   */
+  public synchronized int getChunkCount() {
+    return mChunks.size();
+  }
+}
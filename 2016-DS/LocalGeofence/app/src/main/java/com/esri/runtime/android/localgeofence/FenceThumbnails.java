@@ -0,0 +1,399 @@
+/* Copyright 2016 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * A copy of the license is available in the repository's
+ * https://github.com/Esri/arcgis-runtime-demos-android/blob/master/license.txt
+ *
+ * For information about licensing your deployed app, see
+ * https://developers.arcgis.com/android/guide/license-your-app.htm
+ *
+ */
+
+package com.esri.runtime.android.localgeofence;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.esri.core.geometry.Envelope;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Draws thumbnails of fences for the alert cards, at the size they are
+ * shown, on a background thread.
+ * <p>
+ * Thumbnails are kept in an LRU memory cache bounded by the bytes of its
+ * bitmaps, backed by PNG files in a disk cache bounded the same way. Both are
+ * keyed by fence ObjectID and geometry version, so a thumbnail is drawn again
+ * only when its fence changes. A bitmap evicted from memory is recycled as
+ * soon as no card is showing it.
+ * <p>
+ * Use from the UI thread.
+ */
+public class FenceThumbnails {
+
+  private static final String TAG = FenceThumbnails.class.getSimpleName();
+
+  private static final String DISK_CACHE_DIR_NAME = "fence_thumbnails";
+
+  // Bytes of bitmaps kept in memory, as a fraction of the maximum heap, and
+  // bytes of files kept on disk.
+  private static final int MEMORY_CACHE_HEAP_FRACTION = 16;
+  private static final long DISK_CACHE_MAX_BYTES = 8 * 1024 * 1024;
+
+  // Fraction of the thumbnail left as a margin around the fence.
+  private static final float MARGIN_FRACTION = 0.08f;
+
+  private static FenceThumbnails sInstance = null;
+
+  private final int mSize;
+  private final File mDiskCacheDir;
+  private final LruCache<String, Bitmap> mMemoryCache;
+  private final ExecutorService mExecutor;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+  // Number of views showing each cached bitmap, and the bitmaps evicted from
+  // the memory cache while still shown, to recycle when they no longer are.
+  private final Map<Bitmap, Integer> mShown = new IdentityHashMap<Bitmap, Integer>();
+  private final Set<Bitmap> mEvicted =
+      Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+
+  // Views waiting for each thumbnail being loaded or drawn.
+  private final Map<String, List<ImageView>> mPending = new HashMap<String, List<ImageView>>();
+
+  /**
+   * The thumbnail a view has been bound to, kept as the tag of the view.
+   */
+  private static class Binding {
+    final String key;
+    Bitmap bitmap;
+
+    Binding(String key) {
+      this.key = key;
+    }
+  }
+
+  /**
+   * Get the thumbnails for the alert cards, creating them the first time.
+   *
+   * @param context  context used to find the card size and the cache directory
+   */
+  public static synchronized FenceThumbnails getInstance(Context context) {
+    if (sInstance == null) {
+      Context appContext = context.getApplicationContext();
+      int size = appContext.getResources().getDimensionPixelSize(R.dimen.alert_thumbnail_size);
+      sInstance = new FenceThumbnails(new File(appContext.getCacheDir(), DISK_CACHE_DIR_NAME),
+          size);
+    }
+    return sInstance;
+  }
+
+  private FenceThumbnails(File diskCacheDir, int size) {
+    mDiskCacheDir = diskCacheDir;
+    mSize = size;
+    int maxBytes = (int) (Runtime.getRuntime().maxMemory() / MEMORY_CACHE_HEAP_FRACTION);
+    mMemoryCache = new LruCache<String, Bitmap>(maxBytes) {
+      @Override
+      protected int sizeOf(String key, Bitmap bitmap) {
+        return bitmap.getByteCount();
+      }
+
+      @Override
+      protected void entryRemoved(boolean evicted, String key, Bitmap oldBitmap,
+                                  Bitmap newBitmap) {
+        if (mShown.containsKey(oldBitmap)) {
+          mEvicted.add(oldBitmap);
+        }
+        else {
+          oldBitmap.recycle();
+        }
+      }
+    };
+    mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, TAG);
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Show the thumbnail of a fence in a view, showing a placeholder until it
+   * has been loaded or drawn.
+   *
+   * @param view  view to show the thumbnail in
+   * @param fence  the fence, or null to show only the placeholder
+   * @param placeholderResId  drawable resource to show until the thumbnail is ready
+   */
+  public void bind(ImageView view, final LocalGeofence fence, int placeholderResId) {
+    unbind(view);
+    if (fence == null) {
+      view.setImageResource(placeholderResId);
+      return;
+    }
+
+    final String key = fence.getFeatureOid() + "_" + Long.toHexString(fence.getGeometryVersion());
+    Binding binding = new Binding(key);
+    view.setTag(binding);
+    Bitmap bitmap = mMemoryCache.get(key);
+    if (bitmap != null) {
+      show(view, binding, bitmap);
+      return;
+    }
+
+    view.setImageResource(placeholderResId);
+    List<ImageView> waiting = mPending.get(key);
+    if (waiting != null) {
+      waiting.add(view);
+      return;
+    }
+    waiting = new ArrayList<ImageView>();
+    waiting.add(view);
+    mPending.put(key, waiting);
+    mExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        final Bitmap bitmap = loadOrDraw(key, fence);
+        mHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            thumbnailReady(key, bitmap);
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Stop showing a thumbnail in a view, for example when its card is
+   * recycled, so the bitmap can be recycled if it is evicted.
+   */
+  public void unbind(ImageView view) {
+    Object tag = view.getTag();
+    if (tag instanceof Binding) {
+      Binding binding = (Binding) tag;
+      if (binding.bitmap != null) {
+        view.setImageDrawable(null);
+        release(binding.bitmap);
+        binding.bitmap = null;
+      }
+      view.setTag(null);
+    }
+  }
+
+  private void thumbnailReady(String key, Bitmap bitmap) {
+    List<ImageView> waiting = mPending.remove(key);
+    if (bitmap == null) {
+      return;
+    }
+    mMemoryCache.put(key, bitmap);
+    if (waiting == null) {
+      return;
+    }
+    for (ImageView view : waiting) {
+      Object tag = view.getTag();
+      if (tag instanceof Binding && ((Binding) tag).key.equals(key)
+          && ((Binding) tag).bitmap == null) {
+        show(view, (Binding) tag, bitmap);
+      }
+    }
+  }
+
+  private void show(ImageView view, Binding binding, Bitmap bitmap) {
+    binding.bitmap = bitmap;
+    Integer count = mShown.get(bitmap);
+    mShown.put(bitmap, (count == null) ? 1 : count + 1);
+    view.setImageBitmap(bitmap);
+  }
+
+  private void release(Bitmap bitmap) {
+    Integer count = mShown.get(bitmap);
+    if (count == null) {
+      return;
+    }
+    if (count > 1) {
+      mShown.put(bitmap, count - 1);
+      return;
+    }
+    mShown.remove(bitmap);
+    if (mEvicted.remove(bitmap)) {
+      bitmap.recycle();
+    }
+  }
+
+  /**
+   * Read a thumbnail from the disk cache, or draw it and add it to the disk
+   * cache. Called on the thumbnail thread.
+   *
+   * @return the thumbnail, or null if it could not be drawn.
+   */
+  private Bitmap loadOrDraw(String key, LocalGeofence fence) {
+    File file = new File(mDiskCacheDir, key + ".png");
+    if (file.exists()) {
+      Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+      if (bitmap != null) {
+        // Mark the file as recently used.
+        file.setLastModified(System.currentTimeMillis());
+        return bitmap;
+      }
+      file.delete();
+    }
+
+    PreparedFence preparedFence = (fence.getCoarseFence() != null)
+        ? fence.getCoarseFence() : fence.getPreparedFence();
+    Bitmap bitmap = draw(preparedFence, mSize);
+    write(file, bitmap);
+    return bitmap;
+  }
+
+  /**
+   * Draw a fence filling a square bitmap, keeping its shape by scaling
+   * longitudes by the cosine of the latitude. Vertices less than a pixel
+   * apart are joined into one, so large fences draw quickly.
+   */
+  private static Bitmap draw(PreparedFence fence, int size) {
+    Envelope envelope = new Envelope();
+    fence.queryEnvelope(envelope);
+    double xScale = Math.cos(Math.toRadians(envelope.getCenterY()));
+    double width = Math.max(envelope.getWidth() * xScale, 1e-9);
+    double height = Math.max(envelope.getHeight(), 1e-9);
+    float margin = size * MARGIN_FRACTION;
+    double scale = (size - 2 * margin) / Math.max(width, height);
+    double left = margin + (size - 2 * margin - width * scale) / 2;
+    double top = margin + (size - 2 * margin - height * scale) / 2;
+
+    Path path = new Path();
+    path.setFillType(Path.FillType.EVEN_ODD);
+    DoubleBuffer edges = fence.mEdges;
+    float lastX = Float.NaN, lastY = Float.NaN;
+    double endX = Double.NaN, endY = Double.NaN;
+    for (int e = 0; e < fence.getEdgeCount() * 4; e += 4) {
+      double ax = edges.get(e), ay = edges.get(e + 1);
+      if (ax != endX || ay != endY) {
+        // Start of a ring.
+        lastX = (float) (left + (ax - envelope.getXMin()) * xScale * scale);
+        lastY = (float) (top + (envelope.getYMax() - ay) * scale);
+        path.moveTo(lastX, lastY);
+      }
+      endX = edges.get(e + 2);
+      endY = edges.get(e + 3);
+      float x = (float) (left + (endX - envelope.getXMin()) * xScale * scale);
+      float y = (float) (top + (envelope.getYMax() - endY) * scale);
+      boolean ringEnd = (e + 4 >= fence.getEdgeCount() * 4)
+          || edges.get(e + 4) != endX || edges.get(e + 5) != endY;
+      if (ringEnd || Math.abs(x - lastX) >= 1 || Math.abs(y - lastY) >= 1) {
+        path.lineTo(x, y);
+        lastX = x;
+        lastY = y;
+      }
+      if (ringEnd) {
+        path.close();
+      }
+    }
+
+    Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+    Canvas canvas = new Canvas(bitmap);
+    Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    paint.setStyle(Paint.Style.FILL);
+    paint.setColor(Color.argb(96, 0, 121, 193));
+    canvas.drawPath(path, paint);
+    paint.setStyle(Paint.Style.STROKE);
+    paint.setStrokeWidth(Math.max(1, size / 48f));
+    paint.setColor(Color.rgb(0, 121, 193));
+    canvas.drawPath(path, paint);
+    return bitmap;
+  }
+
+  /**
+   * Add a thumbnail to the disk cache, then delete the least recently used
+   * files until the cache is within its bound. The file is written alongside
+   * and then renamed, so a partly written file is never read.
+   */
+  private void write(File file, Bitmap bitmap) {
+    if (!mDiskCacheDir.isDirectory() && !mDiskCacheDir.mkdirs()) {
+      Log.w(TAG, "Could not create " + mDiskCacheDir);
+      return;
+    }
+    File tempFile = new File(file.getPath() + ".tmp");
+    try {
+      OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile));
+      try {
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+      } finally {
+        out.close();
+      }
+      if (!tempFile.renameTo(file)) {
+        throw new IOException("Could not rename " + tempFile);
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Could not cache thumbnail", e);
+      tempFile.delete();
+      return;
+    }
+
+    File[] files = mDiskCacheDir.listFiles();
+    if (files == null) {
+      return;
+    }
+    long bytes = 0;
+    for (File cached : files) {
+      bytes += cached.length();
+    }
+    if (bytes <= DISK_CACHE_MAX_BYTES) {
+      return;
+    }
+    Arrays.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File lhs, File rhs) {
+        long lhsModified = lhs.lastModified();
+        long rhsModified = rhs.lastModified();
+        return (lhsModified < rhsModified) ? -1 : ((lhsModified == rhsModified) ? 0 : 1);
+      }
+    });
+    for (int i = 0; i < files.length && bytes > DISK_CACHE_MAX_BYTES; i++) {
+      if (!files[i].equals(file)) {
+        bytes -= files[i].length();
+        files[i].delete();
+      }
+    }
+  }
+}
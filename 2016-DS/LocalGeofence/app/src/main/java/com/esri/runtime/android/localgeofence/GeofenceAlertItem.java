@@ -1,24 +1,20 @@
 package com.esri.runtime.android.localgeofence;
 
-
-import android.graphics.Bitmap;
-
 /**
- * Defines the AlertItems and its properties in the cardview
+ * Defines the AlertItems and its properties in the cardview. The thumbnail
+ * of the fence is drawn from the fence itself, by FenceThumbnails.
  */
 public class GeofenceAlertItem {
   String title;
   String featureName;
   String featureId;
-  Bitmap thumbnail;
 
   boolean fetchingLocationUpdates = false;
 
-  public GeofenceAlertItem(String title, String featureName, String featureId,Bitmap thumbnail,boolean fetchingLocationUpdates){
+  public GeofenceAlertItem(String title, String featureName, String featureId,boolean fetchingLocationUpdates){
     this.title = title;
     this.featureName =  featureName;
     this.featureId = featureId;
-    this.thumbnail = thumbnail;
     this.fetchingLocationUpdates = fetchingLocationUpdates;
   }
 
@@ -0,0 +1,457 @@
+/* Copyright 2016 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * A copy of the license is available in the repository's
+ * https://github.com/Esri/arcgis-runtime-demos-android/blob/master/license.txt
+ *
+ * For information about licensing your deployed app, see
+ * https://developers.arcgis.com/android/guide/license-your-app.htm
+ *
+ */
+
+package com.esri.runtime.android.localgeofence;
+
+import android.util.Log;
+
+import com.esri.core.geodatabase.GeodatabaseFeatureTable;
+import com.esri.core.geometry.Envelope;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Polygon;
+import com.esri.core.geometry.SpatialReference;
+import com.esri.core.map.Feature;
+import com.esri.core.map.FeatureResult;
+import com.esri.core.tasks.query.QueryParameters;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Watches many geofences at once. The WGS84 envelope of each fence, expanded
+ * by the distance considered 'CLOSE', is held in an R-tree, so that for each
+ * location update only the few fences whose envelope contains the location
+ * need to be checked.
+ * <p>
+ * Each fence is prepared as it is added, and kept in a FenceStore outside the
+ * Java heap; the fence geometry itself is not kept.
+ * <p>
+ * Fences are only added or removed under a lock; location updates work on an
+ * immutable snapshot of the fences and their index, and each fence updates
+ * its own status atomically, so updates can be checked from any thread.
+ * <p>
+ * MainActivity loads every fence in the geodatabase into the watched engine,
+ * which the geofence services check each location update against as well as
+ * the active fence.
+ */
+public class GeofenceEngine {
+
+  private static final String TAG = GeofenceEngine.class.getSimpleName();
+
+  // Lower bound of the length of one degree of latitude, so fence envelopes
+  // are always expanded by at least the 'CLOSE' distance.
+  private static final double METERS_PER_DEGREE = 110000;
+
+  // Fewest fences to check for a location update before the checks are shared
+  // out across the worker pool; fewer than this are checked on the calling
+  // thread, as handing off to the pool would cost more than it saves.
+  protected static int PARALLEL_THRESHOLD = 16;
+
+  // Engine watched by the geofence services, or null if the fences have not
+  // been loaded in this process.
+  private static final AtomicReference<GeofenceEngine> sWatchedEngine =
+      new AtomicReference<GeofenceEngine>();
+
+  /**
+   * The fences watched by the engine, and the index of their envelopes. Never
+   * changed once published, other than the unknown fences being settled once.
+   */
+  private static class Snapshot {
+    final List<LocalGeofence> fences;
+    final EnvelopeRTree index;
+
+    // Fences that have not yet been given a status by a location update.
+    final List<Integer> unknownFences;
+    final AtomicBoolean unknownSettled = new AtomicBoolean(false);
+
+    Snapshot(List<LocalGeofence> fences, EnvelopeRTree index, List<Integer> unknownFences) {
+      this.fences = fences;
+      this.index = index;
+      this.unknownFences = unknownFences;
+    }
+  }
+
+  private final Object mLock = new Object();
+
+  // Prepared fence coordinates and grids, outside the Java heap.
+  private final FenceStore mStore = new FenceStore();
+
+  // Fences being added, published as a new snapshot on the next update.
+  private final List<LocalGeofence> mFences = new ArrayList<LocalGeofence>();
+  private final List<Integer> mUnknownFences = new ArrayList<Integer>();
+  private volatile Snapshot mSnapshot = null;
+
+  // Fences that were INSIDE or CLOSE at the last update; these must be checked
+  // again even when the location is no longer within their envelope.
+  private final Set<Integer> mActiveFences =
+      Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+  // Worker pool for checking many fences at once, or null to check every
+  // fence on the calling thread.
+  private volatile ExecutorService mExecutor = null;
+  private volatile int mParallelism = 1;
+
+  /**
+   * @return the engine watched by the geofence services, or null if the
+   * fences have not been loaded in this process.
+   */
+  public static GeofenceEngine getWatchedEngine() {
+    return sWatchedEngine.get();
+  }
+
+  /**
+   * Set the engine watched by the geofence services.
+   */
+  public static void setWatchedEngine(GeofenceEngine engine) {
+    sWatchedEngine.set(engine);
+  }
+
+  /**
+   * Check fences for each location update across a bounded pool of worker
+   * threads, when there are at least PARALLEL_THRESHOLD fences to check.
+   *
+   * @param threads  number of threads to use, including the calling thread;
+   *                 1 or less checks every fence on the calling thread.
+   */
+  public void setParallelism(int threads) {
+    synchronized (mLock) {
+      if (mExecutor != null) {
+        mExecutor.shutdown();
+        mExecutor = null;
+      }
+      mParallelism = Math.max(1, threads);
+      if (mParallelism > 1) {
+        // The calling thread checks one share of the fences itself.
+        mExecutor = Executors.newFixedThreadPool(mParallelism - 1, new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * @return number of threads used to check fences, including the calling thread.
+   */
+  public int getParallelism() {
+    return mParallelism;
+  }
+
+  /**
+   * Add a fence to the engine. The fence is projected to WGS84 and prepared,
+   * then only the prepared fence and its generalized fence are kept, so
+   * getFence and getFenceWgs84 return null for fences in the engine.
+   *
+   * @param oid  object ID of the fence feature
+   * @param name  display name of the fence feature
+   * @param fence  the fence geometry
+   * @param fenceSpatialReference  spatial reference of the fence geometry
+   */
+  public void addFence(long oid, String name, Polygon fence,
+                       SpatialReference fenceSpatialReference) {
+    Polygon fenceWgs84 = LocalGeofence.toWgs84(fence, fenceSpatialReference);
+    PreparedFence preparedFence = new PreparedFence(fenceWgs84);
+    PreparedFence coarseFence = LocalGeofence.prepareCoarse(fenceWgs84, preparedFence);
+    LocalGeofence localGeofence = new LocalGeofence(oid, name, null, null,
+        mStore.add(preparedFence), (coarseFence != null) ? mStore.add(coarseFence) : null);
+    synchronized (mLock) {
+      mUnknownFences.add(mFences.size());
+      mFences.add(localGeofence);
+      mSnapshot = null;
+    }
+  }
+
+  /**
+   * Remove all fences from the engine.
+   */
+  public void clear() {
+    synchronized (mLock) {
+      mFences.clear();
+      mStore.clear();
+      mUnknownFences.clear();
+      mActiveFences.clear();
+      mSnapshot = null;
+    }
+  }
+
+  /**
+   * @return the number of bytes of fence coordinates and grids held outside
+   * the Java heap.
+   */
+  public long getStoreByteCount() {
+    return mStore.getByteCount();
+  }
+
+  /**
+   * @return the number of fences watched by the engine.
+   */
+  public int getFenceCount() {
+    synchronized (mLock) {
+      return mFences.size();
+    }
+  }
+
+  /**
+   * Load every fence feature in a feature table. This blocks until the query
+   * completes, so should not be called on the UI thread.
+   *
+   * @param featureTable  table containing the fence features
+   * @return  the number of fences loaded
+   */
+  public int loadFences(GeodatabaseFeatureTable featureTable) {
+    QueryParameters queryParams = new QueryParameters();
+    queryParams.setOutFields(new String[]{MainActivity.FENCE_NAME_FIELD,
+        MainActivity.FENCE_OBJECTID_FIELD});
+    queryParams.setWhere("1 > 0"); // Select all features.
+
+    SpatialReference fenceSr = featureTable.getSpatialReference();
+    Future<FeatureResult> featureTableFuture = featureTable.queryFeatures(queryParams, null);
+    int loaded = 0;
+    try {
+      FeatureResult result = featureTableFuture.get();
+      if (result != null) {
+        for (Object objFeature : result) {
+          Feature feature = (Feature) objFeature;
+          addFence(feature.getId(),
+              feature.getAttributeValue(MainActivity.FENCE_NAME_FIELD).toString(),
+              (Polygon) feature.getGeometry(), fenceSr);
+          loaded++;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      Log.w(TAG, "Interrupted loading fences, loaded " + loaded);
+    } catch (ExecutionException e) {
+      Log.e(TAG, "Could not query fences, loaded " + loaded, e);
+    }
+    Log.i(TAG, "Loaded fences: " + loaded);
+    return loaded;
+  }
+
+  /**
+   * For the latest location update, calculate the status and change of each
+   * fence that the location is inside or close to, or was at the last update.
+   *
+   * @param latestLocation  the latest location update, in WGS84
+   * @return  FenceInformation for each fence checked
+   */
+  public List<LocalGeofence.FenceInformation> latestLocation(Point latestLocation) {
+    List<LocalGeofence.FenceInformation> infos = new ArrayList<LocalGeofence.FenceInformation>();
+    if (latestLocation == null) {
+      return infos;
+    }
+    Snapshot snapshot = getSnapshot();
+
+    // Fences whose envelope contains the location, plus those the location
+    // may just have left.
+    List<Integer> found = new ArrayList<Integer>();
+    snapshot.index.search(latestLocation.getX(), latestLocation.getY(), found);
+    Set<Integer> candidates = new HashSet<Integer>(found);
+    Set<Integer> toCheck = new HashSet<Integer>(candidates);
+    toCheck.addAll(mActiveFences);
+
+    List<Integer> ids = new ArrayList<Integer>(toCheck);
+    ExecutorService executor = mExecutor;
+    if (executor == null || ids.size() < PARALLEL_THRESHOLD) {
+      checkFences(snapshot, ids, candidates, latestLocation, infos);
+    }
+    else {
+      checkFencesInParallel(executor, snapshot, ids, candidates, latestLocation, infos);
+    }
+
+    // Any other fence is now known to be outside.
+    if (snapshot.unknownSettled.compareAndSet(false, true)) {
+      for (Integer id : snapshot.unknownFences) {
+        if (!toCheck.contains(id)) {
+          snapshot.fences.get(id).updateStatus(LocalGeofence.Status.OUTSIDE, 0);
+        }
+      }
+    }
+    return infos;
+  }
+
+  /**
+   * Check some fences against a location update.
+   */
+  private void checkFences(Snapshot snapshot, List<Integer> ids, Set<Integer> candidates,
+                           Point latestLocation, List<LocalGeofence.FenceInformation> infos) {
+    for (Integer id : ids) {
+      infos.add(checkFence(snapshot, id, candidates, latestLocation));
+    }
+  }
+
+  private LocalGeofence.FenceInformation checkFence(Snapshot snapshot, Integer id,
+                                                    Set<Integer> candidates, Point latestLocation) {
+    LocalGeofence fence = snapshot.fences.get(id);
+    LocalGeofence.FenceInformation info = candidates.contains(id)
+        ? fence.latestLocation(latestLocation)
+        : fence.updateStatus(LocalGeofence.Status.OUTSIDE, fence.boundaryDistance(latestLocation));
+    updateActive(id, fence);
+    return info;
+  }
+
+  /**
+   * Split the fences to check into one share per thread, check all but the
+   * first share on the worker pool and the first on the calling thread, then
+   * merge the results in share order.
+   * <p>
+   * Workers publish the result for each fence as soon as it is checked. If a
+   * worker fails, only the fences it had not finished are checked again on
+   * the calling thread, as checking a fence moves its status on, so checking
+   * it twice would lose its transition. For the same reason, a worker is
+   * never cancelled; an interrupted wait for it carries on, and the interrupt
+   * is passed on once every fence has been checked.
+   */
+  private void checkFencesInParallel(ExecutorService executor, final Snapshot snapshot,
+                                     final List<Integer> ids, final Set<Integer> candidates,
+                                     final Point latestLocation,
+                                     List<LocalGeofence.FenceInformation> infos) {
+    int shares = Math.min(mParallelism, ids.size());
+    int shareSize = (ids.size() + shares - 1) / shares;
+    final AtomicReferenceArray<LocalGeofence.FenceInformation> results =
+        new AtomicReferenceArray<LocalGeofence.FenceInformation>(ids.size());
+    List<Future<?>> futures = new ArrayList<Future<?>>(shares - 1);
+    int notSubmitted = ids.size();
+    for (int from = shareSize; from < ids.size(); from += shareSize) {
+      final int shareFrom = from;
+      final int shareTo = Math.min(ids.size(), from + shareSize);
+      try {
+        futures.add(executor.submit(new Runnable() {
+          @Override
+          public void run() {
+            for (int i = shareFrom; i < shareTo; i++) {
+              results.set(i, checkFence(snapshot, ids.get(i), candidates, latestLocation));
+            }
+          }
+        }));
+      } catch (RejectedExecutionException e) {
+        // The pool was shut down by setParallelism; check the rest here instead.
+        Log.w(TAG, "Worker pool unavailable, checking fences on calling thread");
+        notSubmitted = from;
+        break;
+      }
+    }
+
+    checkFences(snapshot, ids.subList(0, shareSize), candidates, latestLocation, infos);
+    boolean interrupted = false;
+    for (Future<?> future : futures) {
+      while (true) {
+        try {
+          future.get();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          Log.w(TAG, "Worker failed, checking its unfinished fences on calling thread",
+              e.getCause());
+          break;
+        }
+      }
+    }
+    for (int i = shareSize; i < notSubmitted; i++) {
+      LocalGeofence.FenceInformation info = results.get(i);
+      infos.add((info != null) ? info : checkFence(snapshot, ids.get(i), candidates, latestLocation));
+    }
+    checkFences(snapshot, ids.subList(notSubmitted, ids.size()), candidates, latestLocation, infos);
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Keep the set of active fences in step with the status of a fence. The
+   * status is checked again after removing, so that a concurrent update that
+   * made the fence active is not lost.
+   */
+  private void updateActive(Integer id, LocalGeofence fence) {
+    if (fence.getLastStatus() == LocalGeofence.Status.OUTSIDE) {
+      mActiveFences.remove(id);
+      if (fence.getLastStatus() == LocalGeofence.Status.OUTSIDE) {
+        return;
+      }
+    }
+    mActiveFences.add(id);
+  }
+
+  /**
+   * @return the current snapshot of the fences, building it if fences have
+   * been added or removed since the last update.
+   */
+  private Snapshot getSnapshot() {
+    Snapshot snapshot = mSnapshot;
+    if (snapshot != null) {
+      return snapshot;
+    }
+    synchronized (mLock) {
+      if (mSnapshot == null) {
+        mSnapshot = new Snapshot(new ArrayList<LocalGeofence>(mFences), buildIndex(mFences),
+            new ArrayList<Integer>(mUnknownFences));
+        mUnknownFences.clear();
+      }
+      return mSnapshot;
+    }
+  }
+
+  /**
+   * Index the envelope of every fence, expanded by the 'CLOSE' distance.
+   */
+  private static EnvelopeRTree buildIndex(List<LocalGeofence> fences) {
+    int count = fences.size();
+    double[] xmin = new double[count];
+    double[] ymin = new double[count];
+    double[] xmax = new double[count];
+    double[] ymax = new double[count];
+    Envelope envelope = new Envelope();
+    for (int i = 0; i < count; i++) {
+      fences.get(i).getPreparedFence().queryEnvelope(envelope);
+
+      // Degrees of longitude get shorter towards the poles, so expand using the
+      // latitude furthest from the equator.
+      // A fence stays CLOSE out to the furthest close distance, so use that.
+      double dy = LocalGeofence.closeDistance(LocalGeofence.Status.CLOSE) / METERS_PER_DEGREE;
+      double maxLat = Math.min(89, Math.max(Math.abs(envelope.getYMin()),
+          Math.abs(envelope.getYMax())) + dy);
+      double dx = dy / Math.cos(Math.toRadians(maxLat));
+
+      xmin[i] = envelope.getXMin() - dx;
+      ymin[i] = envelope.getYMin() - dy;
+      xmax[i] = envelope.getXMax() + dx;
+      ymax[i] = envelope.getYMax() + dy;
+    }
+    return new EnvelopeRTree(xmin, ymin, xmax, ymax);
+  }
+}
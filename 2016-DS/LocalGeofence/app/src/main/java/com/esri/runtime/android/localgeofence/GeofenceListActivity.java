@@ -23,116 +23,67 @@ package com.esri.runtime.android.localgeofence;
 import android.app.ListActivity;
 import android.content.Intent;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.ArrayAdapter;
+import android.widget.EditText;
 import android.widget.ListView;
 
-import com.esri.core.map.Feature;
-import com.esri.core.map.FeatureResult;
-import com.esri.core.tasks.query.QueryParameters;
-
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.TreeMap;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-
 /**
  * A ListActivity to show the display field names of all the features in the
  * opened GeodatabaseFeatureTable, and return as an Activity result the
- * object ID of the selected feature.
+ * object ID of the selected feature. Names are loaded a page at a time in
+ * the background, as the list is scrolled, and can be filtered by typing
+ * the start of a name.
  */
 public class GeofenceListActivity extends ListActivity {
 
   private static final String TAG = GeofenceListActivity.class.getSimpleName();
 
-  String[] mFeatureNames = null;
-
-  // A sorted TreeMap sorts features by name on the client.
-  TreeMap<Long,String> mFeatures = new TreeMap<Long,String>();
-
+  private FenceListAdapter mAdapter;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
     setContentView(R.layout.activity_list);
 
-    mFeatureNames = getFeatures();
-  }
+    final FenceListAdapter adapter = new FenceListAdapter(this, MainActivity.mGdbFeatureTable);
+    mAdapter = adapter;
+    setListAdapter(adapter);
 
-  public String[] getFeatures() {
-
-    // Prepare a query to get features from the geodatabase.
-    QueryParameters queryParams = new QueryParameters();
-    queryParams.setOutFields(new String[]{MainActivity.FENCE_NAME_FIELD,
-        MainActivity.FENCE_OBJECTID_FIELD});
-    queryParams.setWhere("1 > 0"); // Select all features.
-
-    // Perform the query.
-    Future<FeatureResult> featureTableFuture = MainActivity.mGdbFeatureTable.
-        queryFeatures(queryParams, null);
-    FeatureResult result = null;
-    try {
-      result = featureTableFuture.get();
-      if ( (result != null) && (result.featureCount() > 1) ) {
-        // Iterate the results.
-        for (Object objFeature : result) {
-          Feature feature = (Feature) objFeature;
-          // Get display field values to display in the list.
-          String fName = feature.getAttributeValue(MainActivity.FENCE_NAME_FIELD).toString();
-          Long fOid = feature.getId();
-          mFeatures.put(fOid, fName);
-        }
+    EditText filterText = (EditText) findViewById(R.id.editTextFenceFilter);
+    filterText.addTextChangedListener(new TextWatcher() {
+      @Override
+      public void beforeTextChanged(CharSequence s, int start, int count, int after) {
       }
-    } catch (InterruptedException | ExecutionException e) {
-      e.printStackTrace();
-    }
 
-    // Get all values and keys from the map.
-    String[] valuesAsArray = new String[mFeatures.size()];
-    mFeatures.values().toArray(valuesAsArray);
-    Long[] keysAsArray = new Long[mFeatures.size()];
-    mFeatures.keySet().toArray(keysAsArray);
-
-    // Set the array adapter to show the values.
-    ArrayAdapter<String> arrayAdapter =
-        new ArrayAdapter<String>(this,android.R.layout.simple_list_item_1, valuesAsArray);
-    setListAdapter(arrayAdapter);
+      @Override
+      public void onTextChanged(CharSequence s, int start, int before, int count) {
+        adapter.setFilter(s.toString());
+      }
 
-    return valuesAsArray;
+      @Override
+      public void afterTextChanged(Editable s) {
+      }
+    });
+  }
 
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    mAdapter.close();
   }
 
   @Override
   protected void onListItemClick(ListView l, View v, int position, long id) {
-    // Get the tapped item.
-    String selectedItem = l.getItemAtPosition(position).toString();
-
-    // Get ObjectID key for the string value...
-    Set<Long> keys = new HashSet<Long>();
-    Long objectId = -1L;
-    if (mFeatures.containsValue(selectedItem)) {
-
-      for (Map.Entry<Long, String> entry : mFeatures.entrySet()) {
-        if (entry.getValue().equals(selectedItem)) {
-          keys.add(entry.getKey());
-        }
-      }
-      for (Long key : keys) {
-        objectId = key;
-      }
-    }
-
-    // Return the selected feature ID as an activity result.
-    if (objectId > -1) {
-      Intent resultIntent = new Intent();
-      resultIntent.putExtra(MainActivity.GEOFENCE_FEATURE_OBJECTID_EXTRA_ID, objectId);
-      setResult(RESULT_OK, resultIntent);
-      finish();
-    }
+    // The item ID is the ObjectID of the tapped feature; return it as an
+    // activity result.
+    Intent resultIntent = new Intent();
+    resultIntent.putExtra(MainActivity.GEOFENCE_FEATURE_OBJECTID_EXTRA_ID, id);
+    setResult(RESULT_OK, resultIntent);
+    finish();
   }
 
 
@@ -25,9 +25,12 @@ public class GeofenceListViewerAdapter extends  RecyclerView.Adapter<GeofenceLis
   GeofenceAlertItemHolder geofenceAlertItemHolder;
   OnAlertItemClickListener mItemClickListener;
   OnAlertItemLongClickListener mItemLongClickListener;
+  FenceThumbnails mThumbnails;
 
-  public GeofenceListViewerAdapter(List<GeofenceAlertItem> geofenceAlertItemList) {
+  public GeofenceListViewerAdapter(List<GeofenceAlertItem> geofenceAlertItemList,
+                                   FenceThumbnails thumbnails) {
     this.geofenceAlertItemList = geofenceAlertItemList;
+    this.mThumbnails = thumbnails;
   }
 
   @Override
@@ -43,7 +46,10 @@ public class GeofenceListViewerAdapter extends  RecyclerView.Adapter<GeofenceLis
     GeofenceAlertItem alertItem = geofenceAlertItemList.get(i);
     geofenceAlertItemHolder.alertItemTitle.setText(geofenceAlertItemList.get(i).title);
     geofenceAlertItemHolder.alertItemFeatureName.setText("County: " + geofenceAlertItemList.get(i).featureName);
-    geofenceAlertItemHolder.alertItemThumbnail.setImageBitmap(geofenceAlertItemList.get(i).thumbnail);
+    // Thumbnails are drawn in the background once the fence has loaded.
+    mThumbnails.bind(geofenceAlertItemHolder.alertItemThumbnail,
+        MainActivity.getLoadedFence(Long.valueOf(alertItem.featureId)),
+        R.drawable.ic_notifications_black_48dp);
     //geofenceAlertItemHolder.alertItemFetchLocationUpdates.setChecked(geofenceAlertItemList.get(i).fetchingLocationUpdates());
     geofenceAlertItemHolder.alertItemFetchLocationUpdates.setChecked(geofenceAlertItemList.get(i).fetchingLocationUpdates);
 
@@ -75,6 +81,12 @@ public class GeofenceListViewerAdapter extends  RecyclerView.Adapter<GeofenceLis
 
   }
 
+  @Override
+  public void onViewRecycled(GeofenceAlertItemHolder geofenceAlertItemHolder) {
+    super.onViewRecycled(geofenceAlertItemHolder);
+    mThumbnails.unbind(geofenceAlertItemHolder.alertItemThumbnail);
+  }
+
   @Override
   public int getItemCount() {
     return geofenceAlertItemList.size();
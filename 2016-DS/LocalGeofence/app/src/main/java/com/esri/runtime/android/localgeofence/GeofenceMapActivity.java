@@ -24,23 +24,45 @@ package com.esri.runtime.android.localgeofence;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
+import android.graphics.Color;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.Handler;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.esri.android.map.FeatureLayer;
+import com.esri.android.map.GraphicsLayer;
 import com.esri.android.map.MapView;
 import com.esri.android.map.ags.ArcGISLocalTiledLayer;
 import com.esri.android.map.ags.ArcGISTiledMapServiceLayer;
+import com.esri.android.map.event.OnPanListener;
 import com.esri.android.map.event.OnSingleTapListener;
 import com.esri.android.map.event.OnStatusChangedListener;
+import com.esri.android.map.event.OnZoomListener;
+import com.esri.core.geometry.Envelope;
+import com.esri.core.geometry.Geometry;
 import com.esri.core.geometry.SpatialReference;
+import com.esri.core.map.Graphic;
+import com.esri.core.symbol.SimpleFillSymbol;
+import com.esri.core.symbol.SimpleLineSymbol;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 
+/**
+ * Shows the fence features on a map, and returns as an Activity result the
+ * object ID of the tapped feature.
+ * <p>
+ * With USE_VIEWPORT_LOADING set, only the fences in and around the map
+ * extent are loaded and drawn, by a ViewportFenceLoader, and loaded again as
+ * the map is panned and zoomed, so the map stays responsive however many
+ * fences there are. Otherwise the whole feature table is shown in a
+ * FeatureLayer.
+ */
 public class GeofenceMapActivity extends Activity {
 
 
@@ -48,10 +70,32 @@ public class GeofenceMapActivity extends Activity {
 
   private final int SELECT_TOLERANCE = 10;
 
+  // Draw only the fences in view, rather than the whole feature table.
+  protected static boolean USE_VIEWPORT_LOADING = true;
+
+  // How long the map must stop moving before the fences in view are loaded.
+  private static final long VIEWPORT_LOAD_DELAY_MS = 150;
+
+  // Colours of the fences drawn in viewport mode.
+  private static final int FENCE_FILL_COLOR = Color.argb(64, 0, 121, 193);
+  private static final int FENCE_OUTLINE_COLOR = Color.rgb(0, 121, 193);
+
   MapView mMapView;
   FeatureLayer mGeofenceFeatureLayer = null;
   SpatialReference mGeofenceSpatialReference = null;
 
+  // Fences drawn in viewport mode, and the loader that finds them.
+  GraphicsLayer mFenceGraphicsLayer = null;
+  ViewportFenceLoader mViewportLoader = null;
+  private final Handler mHandler = new Handler();
+
+  // Counts viewport loads, so batches from a cancelled load are dropped, and
+  // the latest load whose first batch has replaced the fences drawn. Only
+  // used on the UI thread.
+  private int mLoadGeneration = 0;
+  private int mDrawnGeneration = 0;
+  private boolean mTruncatedToastShown = false;
+
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -66,6 +110,9 @@ public class GeofenceMapActivity extends Activity {
           // When map is initialized, allow user to select a feature to use
           // as the geofence.
           mMapView.setOnSingleTapListener(mapSingleTapListener);
+          if (mFenceGraphicsLayer != null && mViewportLoader == null) {
+            startViewportLoading();
+          }
         }
       }
     });
@@ -101,8 +148,25 @@ public class GeofenceMapActivity extends Activity {
   }
 
 
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    mHandler.removeCallbacks(mViewportLoadTask);
+    if (mViewportLoader != null) {
+      mViewportLoader.shutdown();
+    }
+  }
+
   private void addGeofenceFeatureLayer() {
-    if (MainActivity.mGdbFeatureTable != null) {
+    if (MainActivity.mGdbFeatureTable != null && USE_VIEWPORT_LOADING) {
+      // Fences are loaded once the map is initialized and its extent known.
+      mFenceGraphicsLayer = new GraphicsLayer();
+      mFenceGraphicsLayer.setSelectionColor(Color.YELLOW);
+      mGeofenceSpatialReference = MainActivity.mGdbFeatureTable.getSpatialReference();
+      mMapView.addLayer(mFenceGraphicsLayer);
+      mMapView.setExtent(MainActivity.mGdbFeatureTable.getExtent());
+    }
+    else if (MainActivity.mGdbFeatureTable != null) {
       mGeofenceFeatureLayer = new FeatureLayer(MainActivity.mGdbFeatureTable);
       mGeofenceSpatialReference = mGeofenceFeatureLayer.getSpatialReference();
       mMapView.addLayer(mGeofenceFeatureLayer);
@@ -114,6 +178,133 @@ public class GeofenceMapActivity extends Activity {
     }
   }
 
+  /**
+   * Load the fences in view, and again whenever the map stops moving.
+   */
+  private void startViewportLoading() {
+    mViewportLoader = new ViewportFenceLoader(MainActivity.mGdbFeatureTable,
+        mMapView.getSpatialReference());
+    mMapView.setOnPanListener(new OnPanListener() {
+      @Override
+      public void prePointerMove(float fromx, float fromy, float tox, float toy) {
+      }
+
+      @Override
+      public void postPointerMove(float fromx, float fromy, float tox, float toy) {
+      }
+
+      @Override
+      public void prePointerUp(float fromx, float fromy, float tox, float toy) {
+      }
+
+      @Override
+      public void postPointerUp(float fromx, float fromy, float tox, float toy) {
+        extentChanged();
+      }
+    });
+    mMapView.setOnZoomListener(new OnZoomListener() {
+      @Override
+      public void preAction(float pivotX, float pivotY, double factor) {
+      }
+
+      @Override
+      public void postAction(float pivotX, float pivotY, double factor) {
+        extentChanged();
+      }
+    });
+    loadViewport();
+  }
+
+  /**
+   * Called when the map extent changes. If the fences loaded no longer cover
+   * the map, the load under way is cancelled at once, and the fences in view
+   * are loaded once the map stops moving.
+   */
+  private void extentChanged() {
+    if (mViewportLoader.needsLoad(getViewport(), mMapView.getScale(),
+        mMapView.getResolution())) {
+      mViewportLoader.cancel();
+      mLoadGeneration++;
+    }
+    mHandler.removeCallbacks(mViewportLoadTask);
+    mHandler.postDelayed(mViewportLoadTask, VIEWPORT_LOAD_DELAY_MS);
+  }
+
+  private final Runnable mViewportLoadTask = new Runnable() {
+    @Override
+    public void run() {
+      loadViewport();
+    }
+  };
+
+  private Envelope getViewport() {
+    Envelope viewport = new Envelope();
+    mMapView.getExtent().queryEnvelope(viewport);
+    return viewport;
+  }
+
+  /**
+   * Load the fences in view, unless those already drawn cover it. The fences
+   * drawn are kept until the first batch of the new load replaces them.
+   */
+  private void loadViewport() {
+    Envelope viewport = getViewport();
+    double scale = mMapView.getScale();
+    double resolution = mMapView.getResolution();
+    if (!mViewportLoader.needsLoad(viewport, scale, resolution)) {
+      return;
+    }
+    final int generation = ++mLoadGeneration;
+    final SimpleFillSymbol symbol = new SimpleFillSymbol(FENCE_FILL_COLOR);
+    symbol.setOutline(new SimpleLineSymbol(FENCE_OUTLINE_COLOR, 1));
+    mViewportLoader.load(viewport, scale, resolution, new ViewportFenceLoader.Listener() {
+      @Override
+      public void onFencesLoaded(long[] oids, Geometry[] geometries, int count) {
+        // Make the graphics here, off the UI thread.
+        final Graphic[] graphics = new Graphic[count];
+        for (int i = 0; i < count; i++) {
+          Map<String, Object> attributes = new HashMap<String, Object>();
+          attributes.put(MainActivity.FENCE_OBJECTID_FIELD, oids[i]);
+          graphics[i] = new Graphic(geometries[i], symbol, attributes);
+        }
+        runOnUiThread(new Runnable() {
+          @Override
+          public void run() {
+            if (generation != mLoadGeneration) {
+              return;
+            }
+            if (mDrawnGeneration != generation) {
+              mFenceGraphicsLayer.removeAll();
+              mDrawnGeneration = generation;
+            }
+            mFenceGraphicsLayer.addGraphics(graphics);
+          }
+        });
+      }
+
+      @Override
+      public void onLoadFinished(final int loaded, final boolean truncated) {
+        runOnUiThread(new Runnable() {
+          @Override
+          public void run() {
+            if (generation != mLoadGeneration) {
+              return;
+            }
+            if (loaded == 0) {
+              mFenceGraphicsLayer.removeAll();
+              mDrawnGeneration = generation;
+            }
+            if (truncated && !mTruncatedToastShown) {
+              mTruncatedToastShown = true;
+              Toast.makeText(GeofenceMapActivity.this, R.string.zoom_in_for_fences_message,
+                  Toast.LENGTH_SHORT).show();
+            }
+          }
+        });
+      }
+    });
+  }
+
   private boolean isOffline() {
     ConnectivityManager cm =
         (ConnectivityManager)this.getSystemService(Context.CONNECTIVITY_SERVICE);
@@ -130,6 +321,10 @@ public class GeofenceMapActivity extends Activity {
   final OnSingleTapListener mapSingleTapListener = new OnSingleTapListener() {
     @Override
     public void onSingleTap(float x, float y) {
+      if (mFenceGraphicsLayer != null) {
+        selectFenceGraphic(x, y);
+        return;
+      }
 
       if (mGeofenceSpatialReference == null) {
         mGeofenceSpatialReference = mGeofenceFeatureLayer.getSpatialReference();
@@ -156,4 +351,27 @@ public class GeofenceMapActivity extends Activity {
     }
   };
 
+  /**
+   * Select the tapped fence drawn in viewport mode, and return its object
+   * ID as an Activity result.
+   */
+  private void selectFenceGraphic(float x, float y) {
+    int[] graphicIds = mFenceGraphicsLayer.getGraphicIDs(x, y, SELECT_TOLERANCE);
+    if (graphicIds.length > 0) {
+      mFenceGraphicsLayer.clearSelection();
+      mFenceGraphicsLayer.setSelectedGraphics(graphicIds, true);
+
+      // Get the feature object ID.
+      Long objectId = -1L;
+      if (graphicIds.length == 1) {
+        Graphic graphic = mFenceGraphicsLayer.getGraphic(graphicIds[0]);
+        objectId = (Long) graphic.getAttributeValue(MainActivity.FENCE_OBJECTID_FIELD);
+      }
+
+      Intent resultIntent = new Intent();
+      resultIntent.putExtra(MainActivity.GEOFENCE_FEATURE_OBJECTID_EXTRA_ID, objectId);
+      setResult(RESULT_OK, resultIntent);
+    }
+  }
+
 }
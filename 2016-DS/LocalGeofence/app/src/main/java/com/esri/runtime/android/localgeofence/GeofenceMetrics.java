@@ -0,0 +1,304 @@
+/* Copyright 2016 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * A copy of the license is available in the repository's
+ * https://github.com/Esri/arcgis-runtime-demos-android/blob/master/license.txt
+ *
+ * For information about licensing your deployed app, see
+ * https://developers.arcgis.com/android/guide/license-your-app.htm
+ *
+ */
+
+package com.esri.runtime.android.localgeofence;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A registry of counters and latency histograms for the geofence checks,
+ * kept in memory for the life of the process. Metrics are looked up by name,
+ * and can be dumped as text to a file to attach to bug reports.
+ * <p>
+ * Recording a value never allocates or locks, so metrics can be recorded for
+ * every location update, from any thread.
+ */
+public class GeofenceMetrics {
+
+  private static final String TAG = GeofenceMetrics.class.getSimpleName();
+
+  private static final String DUMP_FILE_NAME = "geofence_metrics.txt";
+
+  private static final ConcurrentMap<String, Counter> sCounters =
+      new ConcurrentHashMap<String, Counter>();
+  private static final ConcurrentMap<String, Histogram> sHistograms =
+      new ConcurrentHashMap<String, Histogram>();
+
+  // Location updates received by the geofence services, and those skipped
+  // because the device could not have reached the fence boundary.
+  public static final Counter SERVICE_FIXES = counter("service.fixes");
+  public static final Counter SERVICE_SKIPPED = counter("service.skipped");
+
+  // Location updates checked against a fence, the containment and proximity
+  // checks made, how many proximity checks needed the full fence rather than
+  // the generalized one, and how many needed the exact check.
+  public static final Counter FENCE_EVALUATIONS = counter("fence.evaluations");
+  public static final Counter FENCE_WITHIN = counter("fence.within");
+  public static final Counter FENCE_WITHIN_EXACT = counter("fence.within_exact");
+  public static final Counter FENCE_PROXIMITY = counter("fence.proximity");
+  public static final Counter FENCE_PROXIMITY_FULL = counter("fence.proximity_full");
+  public static final Counter FENCE_PROXIMITY_EXACT = counter("fence.proximity_exact");
+
+  // Distances to the boundary found from the full fence, rather than from
+  // the generalized fence.
+  public static final Counter FENCE_DISTANCE_FULL = counter("fence.distance_full");
+
+  // Changes of fence status.
+  public static final Counter FENCE_TRANSITIONS = counter("fence.transitions");
+
+  // Time taken to check a location update against a fence.
+  public static final Histogram FENCE_EVALUATION_NANOS = histogram("fence.evaluation_nanos");
+
+  // Location update rate changes, and those that moved updates to the other service.
+  public static final Counter UPDATES_RATE_CHANGES = counter("updates.rate_changes");
+  public static final Counter UPDATES_SERVICE_SWITCHES = counter("updates.service_switches");
+
+  /**
+   * A count that only goes up.
+   */
+  public static class Counter {
+    private final AtomicLong mCount = new AtomicLong();
+
+    public void increment() {
+      mCount.incrementAndGet();
+    }
+
+    public void add(long delta) {
+      mCount.addAndGet(delta);
+    }
+
+    public long get() {
+      return mCount.get();
+    }
+
+    void reset() {
+      mCount.set(0);
+    }
+  }
+
+  /**
+   * A histogram of non-negative values, such as latencies in nanoseconds. As
+   * in an HDR histogram, values are counted in buckets whose width grows with
+   * the value, so every value up to Long.MAX_VALUE is held to within about 6%
+   * in a fixed, small number of buckets.
+   */
+  public static class Histogram {
+    // Each power of two is split into SUB_BUCKETS / 2 linear buckets.
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * HALF_SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Record a value; negative values are recorded as 0.
+     */
+    public void record(long value) {
+      value = Math.max(0, value);
+      mCounts.incrementAndGet(bucketOf(value));
+      mCount.incrementAndGet();
+      mSum.addAndGet(value);
+      long max;
+      do {
+        max = mMax.get();
+      } while (value > max && !mMax.compareAndSet(max, value));
+    }
+
+    public long getCount() {
+      return mCount.get();
+    }
+
+    public long getMax() {
+      return mMax.get();
+    }
+
+    public double getMean() {
+      long count = mCount.get();
+      return (count == 0) ? 0 : (double) mSum.get() / count;
+    }
+
+    /**
+     * @param percentile  percentile wanted, from 0 to 100
+     * @return the highest value that could be in the bucket holding the
+     * percentile, or 0 if nothing has been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+      long count = mCount.get();
+      if (count == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+      long seen = 0;
+      for (int bucket = 0; bucket < BUCKETS; bucket++) {
+        seen += mCounts.get(bucket);
+        if (seen >= rank) {
+          return Math.min(highestValueIn(bucket), getMax());
+        }
+      }
+      return getMax();
+    }
+
+    void reset() {
+      for (int bucket = 0; bucket < BUCKETS; bucket++) {
+        mCounts.set(bucket, 0);
+      }
+      mCount.set(0);
+      mSum.set(0);
+      mMax.set(0);
+    }
+
+    static int bucketOf(long value) {
+      if (value < SUB_BUCKETS) {
+        return (int) value;
+      }
+      int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+      return (shift + 1) * HALF_SUB_BUCKETS + (int) (value >>> shift) - HALF_SUB_BUCKETS;
+    }
+
+    static long highestValueIn(int bucket) {
+      if (bucket < SUB_BUCKETS) {
+        return bucket;
+      }
+      int shift = bucket / HALF_SUB_BUCKETS - 1;
+      long lowest = (long) (bucket - shift * HALF_SUB_BUCKETS) << shift;
+      long highest = lowest + (1L << shift) - 1;
+      return (highest < lowest) ? Long.MAX_VALUE : highest;
+    }
+  }
+
+  /**
+   * Get a counter, creating it if needed.
+   */
+  public static Counter counter(String name) {
+    Counter counter = sCounters.get(name);
+    if (counter == null) {
+      sCounters.putIfAbsent(name, new Counter());
+      counter = sCounters.get(name);
+    }
+    return counter;
+  }
+
+  /**
+   * Get a histogram, creating it if needed.
+   */
+  public static Histogram histogram(String name) {
+    Histogram histogram = sHistograms.get(name);
+    if (histogram == null) {
+      sHistograms.putIfAbsent(name, new Histogram());
+      histogram = sHistograms.get(name);
+    }
+    return histogram;
+  }
+
+  /**
+   * @return the value of every counter, by name.
+   */
+  public static Map<String, Long> getCounts() {
+    Map<String, Long> counts = new TreeMap<String, Long>();
+    for (Map.Entry<String, Counter> entry : sCounters.entrySet()) {
+      counts.put(entry.getKey(), entry.getValue().get());
+    }
+    return counts;
+  }
+
+  /**
+   * Set every counter and histogram back to zero.
+   */
+  public static void reset() {
+    for (Counter counter : sCounters.values()) {
+      counter.reset();
+    }
+    for (Histogram histogram : sHistograms.values()) {
+      histogram.reset();
+    }
+  }
+
+  /**
+   * Write every metric as text, one per line, sorted by name.
+   */
+  public static void dump(Writer writer) {
+    PrintWriter out = new PrintWriter(writer);
+    for (Map.Entry<String, Long> entry : getCounts().entrySet()) {
+      out.println(String.format("%s %d", entry.getKey(), entry.getValue()));
+    }
+    for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(sHistograms).entrySet()) {
+      Histogram histogram = entry.getValue();
+      out.println(String.format("%s count=%d mean=%.0f p50=%d p90=%d p99=%d p99.9=%d max=%d",
+          entry.getKey(), histogram.getCount(), histogram.getMean(),
+          histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+          histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9),
+          histogram.getMax()));
+    }
+    out.flush();
+  }
+
+  /**
+   * Dump every metric to a file.
+   *
+   * @return true if the file was written, otherwise false.
+   */
+  public static boolean dump(File file) {
+    try {
+      FileWriter writer = new FileWriter(file);
+      try {
+        dump(writer);
+      } finally {
+        writer.close();
+      }
+      return true;
+    } catch (IOException e) {
+      Log.w(TAG, "Could not dump metrics", e);
+      return false;
+    }
+  }
+
+  /**
+   * Dump every metric to a file in the app's external files directory, where
+   * it can be collected for a bug report, or to app-private storage if there
+   * is no external storage.
+   *
+   * @return the file written, or null if it could not be written.
+   */
+  public static File dump(Context context) {
+    File directory = context.getExternalFilesDir(null);
+    if (directory == null) {
+      directory = context.getFilesDir();
+    }
+    File file = new File(directory, DUMP_FILE_NAME);
+    return dump(file) ? file : null;
+  }
+}
@@ -0,0 +1,141 @@
+/* Copyright 2016 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * A copy of the license is available in the repository's
+ * https://github.com/Esri/arcgis-runtime-demos-android/blob/master/license.txt
+ *
+ * For information about licensing your deployed app, see
+ * https://developers.arcgis.com/android/guide/license-your-app.htm
+ *
+ */
+
+package com.esri.runtime.android.localgeofence;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.provider.Settings;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.NotificationManagerCompat;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Posts notifications of fence transitions for both geofence services.
+ * Transitions are coalesced by a NotificationCoalescer, so that a jittery
+ * boundary does not produce a burst of notifications; each fence has its own
+ * notification, which is replaced by the latest transition. The large icon
+ * is decoded once, and kept for the life of the process.
+ */
+public class GeofenceNotifier {
+
+  private static final String TAG = GeofenceNotifier.class.getSimpleName();
+
+  // Shortest time between notifications for the same fence.
+  protected static long COALESCE_WINDOW = 30000; // 30 seconds
+
+  private static final NotificationCoalescer sCoalescer = new NotificationCoalescer(COALESCE_WINDOW);
+
+  private static Bitmap sLargeIcon = null;
+
+  /**
+   * Notify the user of a transition, unless another has been notified for
+   * the same fence within the coalescing window.
+   *
+   * @param context  context used to post the notification
+   * @param fence  the fence
+   * @param change  the transition, ENTERED or EXITED
+   * @param time  time of the location update, in milliseconds
+   */
+  public static void transition(Context context, LocalGeofence fence, LocalGeofence.Change change,
+                                long time) {
+    String title = (change == LocalGeofence.Change.ENTERED)
+        ? String.format("Alert! Entered %s", fence.getFeatureName())
+        : String.format("Exited %s", fence.getFeatureName());
+    NotificationCoalescer.Notice notice = sCoalescer.offer(fence.getFeatureOid(), change, title,
+        fence.getSubtitle(), time);
+    if (notice != null) {
+      post(context, notice);
+    }
+  }
+
+  /**
+   * Post the latest transitions held back for fences whose coalescing window
+   * has passed. Call after each batch of location updates.
+   *
+   * @param context  context used to post the notifications
+   * @param time  time of the latest location update, in milliseconds
+   */
+  public static void flush(Context context, long time) {
+    List<NotificationCoalescer.Notice> due = sCoalescer.takeDue(time);
+    for (NotificationCoalescer.Notice notice : due) {
+      post(context, notice);
+    }
+  }
+
+  /**
+   * @return the total number of transitions that were not notified.
+   */
+  public static long getSuppressedCount() {
+    return sCoalescer.getSuppressedCount();
+  }
+
+  private static void post(Context context, NotificationCoalescer.Notice notice) {
+    try {
+      NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
+
+      String text = notice.text;
+      if (notice.suppressedCount > 0) {
+        String suppressed = String.format("%d earlier alerts not shown", notice.suppressedCount);
+        text = (text != null) ? text + " - " + suppressed : suppressed;
+        Log.i(TAG, String.format("Suppressed %d alerts for fence %d, %d in total",
+            notice.suppressedCount, notice.featureOid, sCoalescer.getSuppressedCount()));
+      }
+
+      // Build a notification.
+      NotificationCompat.Builder notificationBuilder = new NotificationCompat.Builder(context);
+      notificationBuilder.setContentTitle(notice.title);
+      notificationBuilder.setContentText(text);
+      notificationBuilder.setSmallIcon(R.drawable.ic_fence_simple);
+      notificationBuilder.setLargeIcon(getLargeIcon(context));
+      if (Build.VERSION.SDK_INT >= 21) {
+        // API 21 and over -
+        notificationBuilder.setColor(context.getResources().getColor(R.color.material_blue_700));
+      }
+      notificationBuilder.setSound(Settings.System.DEFAULT_NOTIFICATION_URI);
+
+      // One notification for each fence, replaced by the latest transition.
+      int id = (int) (notice.featureOid ^ (notice.featureOid >>> 32));
+
+      // Notification API was introduced at v11, but there were some additional changes from v16.
+      // We only need to deal with changes since v14.
+      if (Build.VERSION.SDK_INT < 16) {
+        notificationManager.notify(id, notificationBuilder.getNotification());
+      } else {
+        notificationManager.notify(id, notificationBuilder.build());
+      }
+    }
+    catch (Exception ex) {
+      Log.i(TAG, ex.getMessage());
+    }
+  }
+
+  private static synchronized Bitmap getLargeIcon(Context context) {
+    if (sLargeIcon == null) {
+      sLargeIcon = BitmapFactory.decodeResource(context.getResources(),
+          R.drawable.ic_geofence_bright);
+    }
+    return sLargeIcon;
+  }
+}
@@ -0,0 +1,218 @@
+/* Copyright 2016 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * A copy of the license is available in the repository's
+ * https://github.com/Esri/arcgis-runtime-demos-android/blob/master/license.txt
+ *
+ * For information about licensing your deployed app, see
+ * https://developers.arcgis.com/android/guide/license-your-app.htm
+ *
+ */
+
+package com.esri.runtime.android.localgeofence;
+
+import android.location.Location;
+
+/**
+ * Decides when a location update needs to be checked against the geofence.
+ * After each check, the distance to the fence boundary is used to work out
+ * how long it would take the device, at its maximum plausible speed, to get
+ * to where the fence status could change. Updates arriving before then are
+ * skipped.
+ * <p>
+ * It also decides when to change the location update rate, using an
+ * UpdateRateController. A switch between high accuracy updates and less
+ * accurate ones is only made once the device has stayed near to, or away
+ * from, the fence for a minimum dwell time, so that brief changes in status
+ * do not keep re-registering location requests.
+ */
+public class GeofenceScheduler {
+
+  // Minimum time the device must stay near the fence before switching to high
+  // accuracy updates, and away from the fence before switching back.
+  protected static long MIN_NEAR_DWELL_TIME = 0;
+  protected static long MIN_OUTSIDE_DWELL_TIME = 60000; // 1 minute
+
+  // The status, distance to the boundary, and time of the last check.
+  private static LocalGeofence.Status mLastStatus = LocalGeofence.Status.UNKNOWN;
+  private static double mLastDistanceMeters = 0;
+  private static long mLastTime = 0;
+  private static float mLastPlausibleSpeed = UpdateRateController.MAX_PLAUSIBLE_SPEED;
+
+  // Works out the update rate from the checks.
+  private static final UpdateRateController mRateController = new UpdateRateController();
+
+  // The update rate last switched to, whether the last check called for high
+  // accuracy and since when, and how many switches between high accuracy and
+  // less accurate updates were made, and avoided by waiting.
+  private static UpdateRateController.Rate mRate = null;
+  private static Boolean mWantHighAccuracy = null;
+  private static long mWantedSince = 0;
+  private static int mSwitches = 0;
+  private static int mAvoidedSwitches = 0;
+
+  /**
+   * Forget the last check, for example when the fence is changed.
+   */
+  public static synchronized void reset() {
+    mLastStatus = LocalGeofence.Status.UNKNOWN;
+    mLastDistanceMeters = 0;
+    mLastTime = 0;
+    mLastPlausibleSpeed = UpdateRateController.MAX_PLAUSIBLE_SPEED;
+    mRateController.reset();
+    mRate = null;
+    mWantHighAccuracy = null;
+    mWantedSince = 0;
+  }
+
+  /**
+   * Find out if a location update needs to be checked against the fence.
+   *
+   * @param location  the latest location update
+   * @return  false if the device cannot have moved far enough since the last
+   * check to change its status, otherwise true.
+   */
+  public static boolean shouldEvaluate(Location location) {
+    return shouldEvaluate(location.getTime(), location.getAccuracy());
+  }
+
+  /**
+   * Find out if a location update needs to be checked against the fence.
+   *
+   * @param time  time of the location update, in milliseconds
+   * @param accuracy  accuracy of the location update, in meters
+   */
+  static synchronized boolean shouldEvaluate(long time, float accuracy) {
+    if (mLastStatus == LocalGeofence.Status.UNKNOWN) {
+      return true;
+    }
+    double elapsedSeconds = (time - mLastTime) / 1000.0;
+    double reachable = elapsedSeconds * mLastPlausibleSpeed + accuracy;
+    return reachable >= slackMeters();
+  }
+
+  /**
+   * Record the result of checking a location update against the fence.
+   *
+   * @param info  information returned from LocalGeofence.latestLocation
+   * @param location  the location update that was checked
+   */
+  public static void evaluated(LocalGeofence.FenceInformation info, Location location) {
+    evaluated(info, location.getTime(), location.getAccuracy(),
+        location.hasSpeed() ? location.getSpeed() : -1);
+  }
+
+  /**
+   * Record the result of checking a location update against the fence.
+   *
+   * @param info  information returned from LocalGeofence.latestLocation
+   * @param time  time of the location update, in milliseconds
+   * @param accuracy  accuracy of the location update, in meters
+   * @param speed  speed of the device in meters per second, or negative if
+   *               not known
+   */
+  static synchronized void evaluated(LocalGeofence.FenceInformation info, long time,
+                                     float accuracy, float speed) {
+    if (info == null) {
+      reset();
+      return;
+    }
+    mLastStatus = info.status;
+    // The distance is approximate, so allow for the error in it.
+    mLastDistanceMeters = info.distanceMeters * (1 - LocalGeofence.PROXIMITY_MARGIN) - accuracy;
+    mLastTime = time;
+    mLastPlausibleSpeed = (speed >= 0)
+        ? Math.max(UpdateRateController.MIN_PLAUSIBLE_SPEED,
+            Math.min(UpdateRateController.MAX_PLAUSIBLE_SPEED,
+            speed * UpdateRateController.SPEED_SAFETY_FACTOR))
+        : UpdateRateController.MAX_PLAUSIBLE_SPEED;
+    mRateController.update(info.status, Math.max(0, mLastDistanceMeters), mLastTime, speed);
+
+    boolean wantHighAccuracy = mRateController.isHighAccuracy();
+    if (mWantHighAccuracy == null || wantHighAccuracy != mWantHighAccuracy) {
+      if (mWantHighAccuracy != null && mRate != null
+          && mWantHighAccuracy != mRate.isHighAccuracy()) {
+        // Back to the current accuracy before the dwell time was up.
+        mAvoidedSwitches++;
+      }
+      mWantHighAccuracy = wantHighAccuracy;
+      mWantedSince = time;
+    }
+  }
+
+  /**
+   * Find out if the location update rate should be changed. A switch between
+   * high accuracy and less accurate updates is only made once the device has
+   * stayed near to, or away from, the fence for the minimum dwell time; the
+   * first switch after a reset is made at once. Otherwise the rate is only
+   * changed when the interval has changed significantly.
+   *
+   * @param time  time of the latest location update, in milliseconds
+   * @return  the rate to change to now, or null to keep the current rate.
+   * The change is assumed to be made.
+   */
+  public static synchronized UpdateRateController.Rate takeUpdateRate(long time) {
+    if (mWantHighAccuracy == null) {
+      return null;
+    }
+    UpdateRateController.Rate rate = mRateController.getRate();
+    boolean isSwitch = mRate != null && rate.isHighAccuracy() != mRate.isHighAccuracy();
+    if (isSwitch) {
+      long dwellTime = rate.isHighAccuracy() ? MIN_NEAR_DWELL_TIME : MIN_OUTSIDE_DWELL_TIME;
+      if (time - mWantedSince < dwellTime) {
+        return null;
+      }
+    }
+    if (!UpdateRateController.isSignificantChange(mRate, rate)) {
+      return null;
+    }
+    if (isSwitch) {
+      mSwitches++;
+    }
+    mRate = rate;
+    return rate;
+  }
+
+  /**
+   * @return how many switches between high accuracy and less accurate updates
+   * have been made.
+   */
+  public static synchronized int getSwitchCount() {
+    return mSwitches;
+  }
+
+  /**
+   * @return how many update rate switches were avoided because the device did
+   * not stay near to, or away from, the fence for the minimum dwell time.
+   */
+  public static synchronized int getAvoidedSwitchCount() {
+    return mAvoidedSwitches;
+  }
+
+  /**
+   * @return how far the device could move from where it was at the last check
+   * before its status could change.
+   */
+  private static double slackMeters() {
+    switch (mLastStatus) {
+      case OUTSIDE:
+        // Status changes to CLOSE within the close distance of the boundary.
+        return mLastDistanceMeters - LocalGeofence.closeDistance(LocalGeofence.Status.OUTSIDE);
+      case INSIDE:
+        // Status changes when crossing the boundary.
+        return mLastDistanceMeters;
+      default:
+        // CLOSE can change either way, so always check.
+        return 0;
+    }
+  }
+}
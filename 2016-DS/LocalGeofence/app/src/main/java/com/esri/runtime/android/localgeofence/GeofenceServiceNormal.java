@@ -21,31 +21,11 @@
 package com.esri.runtime.android.localgeofence;
 
 import android.app.IntentService;
-import android.app.Notification;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
-import android.content.Context;
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.location.Location;
-import android.os.Build;
-import android.os.Bundle;
-import android.provider.Settings;
-import android.support.v4.app.NotificationCompat;
-import android.support.v4.app.NotificationManagerCompat;
-import android.util.Log;
 
-import com.esri.core.geometry.Point;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.PendingResult;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.common.api.Status;
 import com.google.android.gms.location.FusedLocationProviderApi;
-import com.google.android.gms.location.LocationRequest;
-import com.google.android.gms.location.LocationServices;
-
-import java.util.Random;
+import com.google.android.gms.location.LocationResult;
 
 /**
  * An IntentService to receive updates from the Google Fusion API at a less
@@ -57,7 +37,9 @@ public class GeofenceServiceNormal extends IntentService {
 
   private static final String TAG = GeofenceServiceNormal.class.getSimpleName();
 
-  GoogleApiClient mGoogleApiClient = null;
+  // Checks location updates against the fence; only used on the service's
+  // worker thread.
+  private final LocationBatchChecker mChecker = new LocationBatchChecker(TAG);
 
   public GeofenceServiceNormal() {
     super(TAG);
@@ -69,12 +51,18 @@ public class GeofenceServiceNormal extends IntentService {
       final String action = intent.getAction();
 
       if (MainActivity.ACTION_CHECK_LOCATION.equals(action)) {
-        final Location location = intent.getParcelableExtra(
-            FusedLocationProviderApi.KEY_LOCATION_CHANGED);
-        handleActionCheckLocation(location);
+        if (LocationResult.hasResult(intent)) {
+          // Batched location updates.
+          mChecker.check(this, LocationResult.extractResult(intent).getLocations());
+        }
+        else {
+          final Location location = intent.getParcelableExtra(
+              FusedLocationProviderApi.KEY_LOCATION_CHANGED);
+          handleActionCheckLocation(location);
+        }
       }
       else if (MainActivity.ACTION_START_NORMAL_UPDATES.equals(action)) {
-          handleActionStartNormalUpdates();
+        handleActionStartNormalUpdates();
       }
       else if (MainActivity.ACTION_START_FAST_UPDATES.equals(action)) {
         handleActionChangeToFastUpdates();
@@ -83,200 +71,30 @@ public class GeofenceServiceNormal extends IntentService {
   }
 
   /**
-   * Start receiving location updates, by connecting to the Google API client,
-   * and registering to receive location updates at a less frequent rate,
-   * using balanced power and accuracy location settings.
-   * If this is called, then we assume that the Fast updates service is not
-   * running already.
+   * Start receiving location updates at a less frequent rate, using balanced
+   * power and accuracy location settings. The shared location client replaces
+   * any fast update request, so the Fast updates service stops receiving them.
    */
   private void handleActionStartNormalUpdates() {
-
-    // Connect to the Google API client.
-    mGoogleApiClient = new GoogleApiClient.Builder(this)
-        .addApi(LocationServices.API)
-        .addConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
-
-          @Override
-          public void onConnected(Bundle bundle) {
-
-            // Define settings for Google Fusion API location updates. Use balanced power
-            // and accuracy, and ensure updates are not requested too frequently, but
-            // allow updates to be sent when other apps request data updates.
-            LocationRequest balancedRequest = LocationRequest.create()
-                .setPriority(LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY)
-                .setFastestInterval(MainActivity.NORMAL_FASTEST_UPDATE_INTERVAL)
-                .setInterval(MainActivity.NORMAL_UPDATE_INTERVAL)
-                .setSmallestDisplacement(MainActivity.NORMAL_MIN_DISPLACEMENT);
-
-            // Create a PendingIntent for this service, and send this to the
-            // requestLocationUpdates method.
-            Intent serviceIntent = new Intent(MainActivity.ACTION_CHECK_LOCATION,
-                null, getApplicationContext(), GeofenceServiceNormal.class);
-
-            PendingIntent pendingIntent = PendingIntent.getService(
-                GeofenceServiceNormal.this, 0, serviceIntent,
-                PendingIntent.FLAG_UPDATE_CURRENT);
-
-            // Start the request for location updates.
-            LocationServices.FusedLocationApi.requestLocationUpdates(
-                mGoogleApiClient, balancedRequest, pendingIntent);
-
-            // Disconnect the client, not required until next change.
-            mGoogleApiClient.disconnect();
-            mGoogleApiClient = null;
-          }
-
-          @Override
-          public void onConnectionSuspended(int i) {
-
-          }
-        })
-        .build();
-
-    mGoogleApiClient.connect();
+    LocationUpdatesManager.requestNormalUpdates(this);
   }
 
   /**
-   * Stop this service, and register the other normal update service to receive
-   * location updates instead.
+   * Stop this service receiving location updates, and register the other
+   * fast update service to receive location updates instead.
    */
   private void handleActionChangeToFastUpdates() {
-    // Connect to the Google API client.
-    mGoogleApiClient = new GoogleApiClient.Builder(this)
-        .addApi(LocationServices.API)
-        .addConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
-
-          @Override
-          public void onConnected(Bundle bundle) {
-            Intent selfIntent = new Intent(MainActivity.ACTION_CHECK_LOCATION,
-                null, getApplicationContext(), GeofenceServiceNormal.class);
-            PendingIntent selfPendingIntent = PendingIntent.getService(
-                getApplicationContext(), 0, selfIntent, 0);
-            final PendingResult<Status> cancelFastResult =
-                LocationServices.FusedLocationApi.removeLocationUpdates(
-                mGoogleApiClient, selfPendingIntent);
-            cancelFastResult.setResultCallback(new ResultCallback<Status>() {
-              @Override
-              public void onResult(Status status) {
-                Log.i(TAG, "handleActionChangeToFastUpdates PendingResult Status:" + status);
-              }
-            });
-
-            LocationRequest accurateRequest = LocationRequest.create()
-                .setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY)
-                .setFastestInterval(MainActivity.FAST_FASTEST_UPDATE_INTERVAL)
-                .setInterval(MainActivity.FAST_UPDATE_INTERVAL)
-                .setSmallestDisplacement(MainActivity.FAST_MIN_DISPLACEMENT);
-
-            // Create a PendingIntent to start the GeofenceServiceFast.
-            Intent serviceIntent = new Intent(MainActivity.ACTION_CHECK_LOCATION,
-                null, getApplicationContext(), GeofenceServiceFast.class);
-
-            PendingIntent pendingIntent = PendingIntent.getService(
-                getApplicationContext(), 0, serviceIntent, 0);
-
-            // Register the PendingIntent to receive location updates.
-            LocationServices.FusedLocationApi.requestLocationUpdates(
-                mGoogleApiClient, accurateRequest, pendingIntent);
-
-            // Disconnect the client, not required until next change.
-            mGoogleApiClient.disconnect();
-            mGoogleApiClient = null;
-          }
-
-          @Override
-          public void onConnectionSuspended(int i) {
-
-          }
-        })
-        .build();
-
-    mGoogleApiClient.connect();
+    LocationUpdatesManager.requestFastUpdates(this);
   }
 
-
   /**
    * This action is handled in the provided background thread. It is called
    * when this service receives a location update from Google fusion API;
    * therefore no connection to the Google API client is required.
    */
   private void handleActionCheckLocation(Location newLocation) {
-
     if(newLocation !=null) {
-      // The incoming location is the current device location, in geographic coordinates.
-      Point locationPoint = new Point(newLocation.getLongitude(), newLocation.getLatitude());
-      LocalGeofence.FenceInformation info = LocalGeofence.latestLocation(locationPoint);
-      Log.i(TAG, String.format("GeofenceServiceNormal Status: %s, UpdateChange: %s, Change: %s", info.status, info.updateChange, info.change));
-
-      if (info.change == LocalGeofence.Change.ENTERED) {
-        sendNotification(String.format("Alert! Entered %s", LocalGeofence.getFeatureName()));
-      }
-      else if (info.change == LocalGeofence.Change.EXITED) {
-        sendNotification(String.format("Exited %s", LocalGeofence.getFeatureName()));
-      }
-
-      if (LocalGeofence.UpdateChange.FASTER == info.updateChange) {
-        // Ensure we are receiving updates frequently.
-        handleActionChangeToFastUpdates();
-      }
-      else if (LocalGeofence.UpdateChange.SLOWER == info.updateChange) {
-        // Ensure we are receiving updates less frequently.
-        handleActionStartNormalUpdates();
-      }
+      mChecker.check(this, newLocation);
     }
   }
-
-  public void sendNotification(String title) {
-    try {
-
-      NotificationManagerCompat notificationManager = null;
-
-      Context ctx = getApplicationContext();
-      notificationManager = NotificationManagerCompat.from(getApplicationContext());
-      /*if (ctx != null)
-      {
-        notificationManager = (NotificationManagerCompat) ctx.getSystemService(NOTIFICATION_SERVICE);
-      }
-      else {
-        notificationManager = (NotificationManagerCompat) getSystemService(NOTIFICATION_SERVICE);
-      }*/
-
-
-      // Build a notification.
-      NotificationCompat.Builder notificationBuilder = new NotificationCompat.Builder(this);
-      notificationBuilder.setContentTitle(title);
-      notificationBuilder.setContentText(LocalGeofence.getSubtitle());
-      notificationBuilder.setSmallIcon(R.drawable.ic_fence_simple);
-      Bitmap largeIcon = BitmapFactory.decodeResource(getResources(), R.drawable.ic_geofence_bright);
-      notificationBuilder.setLargeIcon(largeIcon);
-      if (Build.VERSION.SDK_INT >= 21) {
-        // API 21 and over -
-        notificationBuilder.setColor(getResources().getColor(R.color.material_blue_700));
-      }
-      notificationBuilder.setSound(Settings.System.DEFAULT_NOTIFICATION_URI);
-
-      /*Intent intent = new Intent(this, MainActivity.class);
-      intent.putExtra("Notification", "FromNotification");
-      intent.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
-      PendingIntent pIntent = PendingIntent.getActivity(this, 3, intent,
-          PendingIntent.FLAG_UPDATE_CURRENT);
-      notificationBuilder.addAction(R.drawable.ic_pause_circle_outline_black_48dp, "Stop", pIntent);
-      notificationBuilder.setContentIntent(pIntent);*/
-
-      // Notification API was introduced at v11, but there were some additional changes from v16.
-      // We only need to deal with changes since v14.
-      Random r = new Random();
-      int id = r.nextInt();
-      if (Build.VERSION.SDK_INT < 16) {
-        notificationManager.notify(id, notificationBuilder.getNotification());
-      } else {
-        notificationManager.notify(id, notificationBuilder.build());
-      }
-    }
-    catch (Exception ex) {
-      Log.i(TAG, ex.getMessage());
-    }
-  }
-
-
 }
@@ -22,14 +22,17 @@ package com.esri.runtime.android.localgeofence;
 
 import android.util.Log;
 
+import com.esri.core.geometry.Envelope;
 import com.esri.core.geometry.Geometry;
 import com.esri.core.geometry.GeometryEngine;
 import com.esri.core.geometry.LinearUnit;
 import com.esri.core.geometry.Point;
 import com.esri.core.geometry.Polygon;
-import com.esri.core.geometry.Proximity2DResult;
 import com.esri.core.geometry.SpatialReference;
 
+import java.nio.DoubleBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
 public class LocalGeofence {
 
   // Location status relative to geofence
@@ -60,89 +63,335 @@ public class LocalGeofence {
     public Status status;
     public Change change;
     public UpdateChange updateChange;
+    public Long featureOid;
+    public String featureName;
+
+    // Approximate distance from the location to the fence boundary. If the
+    // boundary is further away than the search distance, this is a lower bound.
+    public double distanceMeters;
   }
 
   private static final String TAG = LocalGeofence.class.getSimpleName();
 
-  // The geofence geometry, and its spatial reference.
-  protected static Polygon mFence = null;
-  protected static SpatialReference mFenceSr = null;
-
-  // Fence geometry projected to WGS84.
-  protected static Polygon mFenceWgs84 = null;
-
   // Proximity calculation units, and the distance that is considered 'CLOSE'.
   // Set for demo purposes, should be adjusted for specific usage.
   protected static LinearUnit mProximityUnits = new LinearUnit(LinearUnit.Code.METER);
   protected static double IS_CLOSE_DISTANCE_METERS = 400;
 
+  // Hysteresis around IS_CLOSE_DISTANCE_METERS. A location must come this much
+  // nearer than IS_CLOSE_DISTANCE_METERS to become CLOSE, and go this much
+  // further away to stop being CLOSE, so that moving along the edge of the
+  // band does not keep flipping the status between CLOSE and OUTSIDE.
+  protected static double CLOSE_ENTRY_HYSTERESIS_METERS = 0;
+  protected static double CLOSE_EXIT_HYSTERESIS_METERS = 100;
+
+  // Fraction of IS_CLOSE_DISTANCE_METERS either side of the threshold within
+  // which the approximate distance from the prepared fence is not trusted, and
+  // the exact geodesic distance is calculated instead.
+  protected static final double PROXIMITY_MARGIN = 0.02;
+
+  // Furthest the generalized fence boundary may be from the full boundary.
+  // Distances to the boundary are found from the generalized fence first, and
+  // only from the full fence when that is not enough to decide.
+  protected static double GENERALIZE_TOLERANCE_METERS = 10;
+
+  // A generalized fence is only kept if it has at most this fraction of the
+  // edges of the full fence.
+  protected static double GENERALIZE_MAX_EDGE_FRACTION = 0.5;
+
+  // Measure distances for the exact proximity check on a transverse Mercator
+  // projection centred on the fence, rather than along geodesics. Fences
+  // reaching further than LOCAL_PROJECTION_MAX_METERS east or west of their
+  // center always use geodesics.
+  protected static boolean USE_LOCAL_PROJECTION = true;
+  protected static double LOCAL_PROJECTION_MAX_METERS = 500000;
+
+  // How far to search for the fence boundary, and the maximum number of grid
+  // cells to search across, when working out the distance to the boundary.
+  protected static final double BOUNDARY_SEARCH_METERS = 5000;
+  protected static final int BOUNDARY_SEARCH_CELLS = 32;
+
   // Location updates are always geographic coordinates.
   protected static SpatialReference mWgs84Sr = SpatialReference.create(SpatialReference.WKID_WGS84);
 
+  // Scratch objects for the exact proximity check, and counts of the checks
+  // made, one set for each thread checking locations, so that checking a
+  // location does not allocate.
+  private static final ThreadLocal<ProximityScratch> sProximityScratch =
+      new ThreadLocal<ProximityScratch>() {
+        @Override
+        protected ProximityScratch initialValue() {
+          return new ProximityScratch();
+        }
+      };
+
+  private static class ProjectedFence {
+    // Null if distances are measured along geodesics.
+    final LocalProjection projection;
+    final DoubleBuffer edges;
+
+    ProjectedFence(LocalProjection projection, DoubleBuffer edges) {
+      this.projection = projection;
+      this.edges = edges;
+    }
+  }
+
+  private static class ProximityScratch {
+    final double[] nearest = new double[2];
+    final double[] projected = new double[2];
+    final Point location = new Point();
+    final Point nearestPoint = new Point();
+
+    // Checks made for the status being worked out, only added to the metrics
+    // once that status is kept.
+    int within;
+    int withinExact;
+    int proximity;
+    int proximityFull;
+    int proximityExact;
+
+    void clearCounts() {
+      within = 0;
+      withinExact = 0;
+      proximity = 0;
+      proximityFull = 0;
+      proximityExact = 0;
+    }
+
+    void publishCounts() {
+      publish(GeofenceMetrics.FENCE_WITHIN, within);
+      publish(GeofenceMetrics.FENCE_WITHIN_EXACT, withinExact);
+      publish(GeofenceMetrics.FENCE_PROXIMITY, proximity);
+      publish(GeofenceMetrics.FENCE_PROXIMITY_FULL, proximityFull);
+      publish(GeofenceMetrics.FENCE_PROXIMITY_EXACT, proximityExact);
+    }
+
+    private static void publish(GeofenceMetrics.Counter counter, int count) {
+      if (count != 0) {
+        counter.add(count);
+      }
+    }
+  }
+
+  // The fence currently watched by the geofence services.
+  private static final AtomicReference<LocalGeofence> sActiveFence =
+      new AtomicReference<LocalGeofence>();
+
+  // The geofence geometry, and its spatial reference.
+  private final Polygon mFence;
+  private final SpatialReference mFenceSr;
+
+  // Fence geometry projected to WGS84, and prepared for fast containment tests.
+  private final Polygon mFenceWgs84;
+  private final PreparedFence mPreparedFence;
+
+  // Generalized fence, prepared for fast distance checks, or null if
+  // generalizing would not remove enough edges to be worthwhile.
+  private final PreparedFence mCoarseFence;
+
+  // Projection centred on the fence and the fence edges projected onto it,
+  // made the first time they are needed.
+  private volatile ProjectedFence mProjectedFence = null;
+
+  // Hash of the prepared fence coordinates, identifying the version of the
+  // fence geometry. Worked out with the prepared fence, off the UI thread, so
+  // reading it is always cheap.
+  private final long mGeometryVersion;
+
   // The feature name, object ID, and caption relating to this geofence.
-  protected static String mFeatureName = null;
-  protected static String mFenceSubtitle = null;
-  protected static Long mFeatureObjectId = -1L;
+  private final String mFeatureName;
+  private final String mFenceSubtitle;
+  private final long mFeatureObjectId;
 
-  // Information about the last location update.
-  protected static Status mLastStatus = Status.OUTSIDE;
-  protected static Change mLastChange = Change.REMAINED_OUT;
-  protected static UpdateChange mLastUpdateChange = UpdateChange.NO_CHANGE;
+  // Status at the last location update. Updated atomically, so that location
+  // updates can be checked against the fence from any thread.
+  private final AtomicReference<Status> mLastStatus = new AtomicReference<Status>(Status.UNKNOWN);
 
-  public static Polygon getFence() {
-    return mFence;
+  /**
+   * Create a geofence from a fence feature. The fence is projected to WGS84 and
+   * prepared once, here; it is never changed afterwards.
+   *
+   * @param featureOid  object ID of the fence feature
+   * @param featureName  display name of the fence feature
+   * @param subtitle  caption to show in notifications, may be null
+   * @param fence  the fence geometry
+   * @param fenceSpatialReference  spatial reference of the fence geometry
+   */
+  public LocalGeofence(long featureOid, String featureName, String subtitle,
+                       Polygon fence, SpatialReference fenceSpatialReference) {
+    mFeatureObjectId = featureOid;
+    mFeatureName = featureName;
+    mFenceSubtitle = subtitle;
+
+    // Keep the original geometries.
+    mFence = fence;
+    mFenceSr = fenceSpatialReference;
+
+    mFenceWgs84 = toWgs84(mFence, mFenceSr);
+    mPreparedFence = new PreparedFence(mFenceWgs84);
+    mCoarseFence = prepareCoarse(mFenceWgs84, mPreparedFence);
+    mGeometryVersion = mPreparedFence.contentHash();
   }
 
-  public static String getFeatureName() {
-    return mFeatureName;
+  /**
+   * Restore a geofence from a fence that has already been projected to WGS84
+   * and prepared, for example one read back from FenceCache or held in a
+   * FenceStore. Only the prepared fence is needed to check locations, so the
+   * fence geometry may be null.
+   */
+  LocalGeofence(long featureOid, String featureName, String subtitle,
+                Polygon fenceWgs84, PreparedFence preparedFence, PreparedFence coarseFence) {
+    mFeatureObjectId = featureOid;
+    mFeatureName = featureName;
+    mFenceSubtitle = subtitle;
+
+    // The original geometry is not kept, so the WGS84 geometry stands in for it.
+    mFence = fenceWgs84;
+    mFenceSr = mWgs84Sr;
+
+    mFenceWgs84 = fenceWgs84;
+    mPreparedFence = preparedFence;
+    mCoarseFence = coarseFence;
+    mGeometryVersion = mPreparedFence.contentHash();
   }
 
-  public static void setFeatureName(String newFeatureName) {
-    mFeatureName = newFeatureName;
+  /**
+   * @return the fence currently watched by the geofence services, or null.
+   */
+  public static LocalGeofence getActiveFence() {
+    return sActiveFence.get();
   }
 
-  public static void setLastStatus(Status lastStatus) {
-    mLastStatus = lastStatus;
+  /**
+   * Set the fence to be watched by the geofence services.
+   */
+  public static void setActiveFence(LocalGeofence fence) {
+    sActiveFence.set(fence);
   }
 
+  public Polygon getFence() {
+    return mFence;
+  }
 
-  public static Long getFeatureOid() {
-    return mFeatureObjectId;
+  public Polygon getFenceWgs84() {
+    return mFenceWgs84;
   }
 
-  public static void setFeatureOid(Long newFeatureOid) {
-    mFeatureObjectId = newFeatureOid;
+  PreparedFence getPreparedFence() {
+    return mPreparedFence;
   }
 
-  public static String getSubtitle() {
-    return mFenceSubtitle;
+  PreparedFence getCoarseFence() {
+    return mCoarseFence;
   }
 
-  public static void setSubtitle(String newSubtitle) {
-    mFenceSubtitle = newSubtitle;
+  /**
+   * @return a number that changes whenever the fence geometry changes, for
+   * keying anything derived from the geometry, such as thumbnails. Worked out
+   * when the fence is created, so it is cheap to call on the UI thread.
+   */
+  public long getGeometryVersion() {
+    return mGeometryVersion;
+  }
+
+  public String getFeatureName() {
+    return mFeatureName;
   }
 
-  public static SpatialReference getSpatialReference() {
+  public long getFeatureOid() {
+    return mFeatureObjectId;
+  }
+
+  public String getSubtitle() {
+    return mFenceSubtitle;
+  }
+
+  public SpatialReference getSpatialReference() {
     return mFenceSr;
   }
 
-  // Store the geofence feature.
-  public static void setFence(Polygon newFence, SpatialReference fenceSpatialReference) {
+  public Status getLastStatus() {
+    return mLastStatus.get();
+  }
 
-    // Keep the original geometries.
-    mFenceSr = fenceSpatialReference;
-    mFence = newFence;
+  /**
+   * Forget the status at the last location update, so the next update is
+   * treated as the first, as when the fence is made active again.
+   */
+  public void resetStatus() {
+    mLastStatus.set(Status.UNKNOWN);
+  }
 
-    // Work with the fence in WGS84, as that's what the location updates will be in.
+  /**
+   * Get a fence in WGS84, as that's what the location updates will be in.
+   *
+   * @param fence  the fence geometry
+   * @param fenceSpatialReference  spatial reference of the fence geometry
+   * @return  the fence geometry densified and projected to WGS84
+   */
+  static Polygon toWgs84(Polygon fence, SpatialReference fenceSpatialReference) {
     // Note that transformations could be used here to increase accuracy.
-    if ( mFenceSr.getID() != mWgs84Sr.getID() ) {
-      Geometry densified = GeometryEngine.geodesicDensifyGeometry(mFence,
-          mFenceSr, 20, null);
-      mFenceWgs84 = (Polygon)GeometryEngine.project(densified, mFenceSr, mWgs84Sr);
+    if ( fenceSpatialReference.getID() != mWgs84Sr.getID() ) {
+      Geometry densified = GeometryEngine.geodesicDensifyGeometry(fence,
+          fenceSpatialReference, 20, null);
+      return (Polygon)GeometryEngine.project(densified, fenceSpatialReference, mWgs84Sr);
+    }
+    return fence;
+  }
+
+  /**
+   * Generalize and prepare a fence for fast distance checks.
+   *
+   * @param fenceWgs84  the fence geometry, in WGS84
+   * @param preparedFence  the full fence, prepared
+   * @return  the generalized fence, prepared, or null if it would not have
+   * few enough edges to be worthwhile.
+   */
+  static PreparedFence prepareCoarse(Polygon fenceWgs84, PreparedFence preparedFence) {
+    if (GENERALIZE_TOLERANCE_METERS <= 0) {
+      return null;
     }
-    else {
-      mFenceWgs84 = mFence;
+    // Leave some of the tolerance for the distance approximations.
+    PreparedFence coarseFence = new PreparedFence(FenceGeneralizer.generalize(fenceWgs84,
+        GENERALIZE_TOLERANCE_METERS * (1 - PROXIMITY_MARGIN)));
+    if (coarseFence.getEdgeCount() > preparedFence.getEdgeCount() * GENERALIZE_MAX_EDGE_FRACTION) {
+      return null;
     }
+    return coarseFence;
+  }
+
+  /**
+   * Choose a projection on which to measure distances near a fence.
+   *
+   * @return  a projection centred on the fence, or null if distances should
+   * be measured along geodesics.
+   */
+  static LocalProjection createProjection(PreparedFence preparedFence) {
+    if (!USE_LOCAL_PROJECTION || preparedFence.getEdgeCount() == 0) {
+      return null;
+    }
+    Envelope envelope = new Envelope();
+    preparedFence.queryEnvelope(envelope);
+    double minLatitude = (envelope.getYMin() <= 0 && envelope.getYMax() >= 0)
+        ? 0 : Math.min(Math.abs(envelope.getYMin()), Math.abs(envelope.getYMax()));
+    double halfWidthMeters = envelope.getWidth() / 2 * PreparedFence.METERS_PER_DEGREE
+        * Math.cos(Math.toRadians(minLatitude));
+    if (halfWidthMeters + closeDistance(Status.CLOSE) > LOCAL_PROJECTION_MAX_METERS) {
+      return null;
+    }
+    return LocalProjection.centredOn(envelope);
+  }
+
+  private ProjectedFence getProjectedFence() {
+    ProjectedFence projectedFence = mProjectedFence;
+    if (projectedFence == null) {
+      // Threads racing to make it make the same thing, so any one will do.
+      LocalProjection projection = createProjection(mPreparedFence);
+      projectedFence = new ProjectedFence(projection,
+          (projection != null) ? mPreparedFence.projectEdges(projection) : null);
+      mProjectedFence = projectedFence;
+    }
+    return projectedFence;
   }
 
   /**
@@ -151,27 +400,165 @@ public class LocalGeofence {
    * @param latestLocation  the latest location update
    * @return  FenceInformation about the change relative to the fence
    */
-  public static FenceInformation latestLocation(Point latestLocation) {
-    if ( (latestLocation == null) || (mFenceWgs84 == null) ) {
+  public FenceInformation latestLocation(Point latestLocation) {
+    if (latestLocation == null) {
       return null;
     }
+    return latestLocation(latestLocation.getX(), latestLocation.getY(), new FenceInformation());
+  }
 
-    Status newStatus = null;
-    Change newChange = null;
-    UpdateChange newUpdateChange = null;
+  /**
+   * For the latest location update, calculate fence status and change. This
+   * does not allocate, so can be called for every location update without
+   * creating garbage.
+   *
+   * @param x  longitude of the latest location update
+   * @param y  latitude of the latest location update
+   * @param info  FenceInformation to fill in, which can be reused between updates
+   * @return  info, filled in with the change relative to the fence
+   */
+  public FenceInformation latestLocation(double x, double y, FenceInformation info) {
+    long startTime = System.nanoTime();
+    GeofenceMetrics.FENCE_EVALUATIONS.increment();
+
+    // The new status depends on the last one, so only move to it if the last
+    // status has not been changed meanwhile by another update. Only the checks
+    // made for the status kept are counted.
+    ProximityScratch scratch = sProximityScratch.get();
+    Status lastStatus;
+    Status newStatus;
+    do {
+      scratch.clearCounts();
+      lastStatus = mLastStatus.get();
+      newStatus = fenceStatus(x, y, lastStatus, scratch);
+    } while (!mLastStatus.compareAndSet(lastStatus, newStatus));
+    scratch.publishCounts();
+    if (lastStatus != newStatus) {
+      GeofenceMetrics.FENCE_TRANSITIONS.increment();
+    }
+    information(lastStatus, newStatus, boundaryDistance(x, y), info);
 
+    GeofenceMetrics.FENCE_EVALUATION_NANOS.record(System.nanoTime() - startTime);
+    return info;
+  }
+
+  /**
+   * Move to a new status, and work out the change from the previous status.
+   * The previous status is swapped for the new one atomically, so concurrent
+   * updates each see a consistent previous status.
+   *
+   * @param newStatus  status at the latest location update
+   * @param distanceMeters  distance from the latest location to the boundary
+   * @return  FenceInformation about the change relative to the fence
+   */
+  FenceInformation updateStatus(Status newStatus, double distanceMeters) {
+    return information(mLastStatus.getAndSet(newStatus), newStatus, distanceMeters,
+        new FenceInformation());
+  }
+
+  private FenceInformation information(Status lastStatus, Status newStatus, double distanceMeters,
+                                       FenceInformation info) {
+    transition(lastStatus, newStatus, info);
+    // Only box the object ID when it changes, to avoid allocating.
+    if (info.featureOid == null || info.featureOid != mFeatureObjectId) {
+      info.featureOid = mFeatureObjectId;
+    }
+    info.featureName = mFeatureName;
+    info.distanceMeters = distanceMeters;
+    return info;
+  }
+
+  /**
+   * Calculate the status of a location relative to the fence.
+   *
+   * @param location  location to compare with the fence, in WGS84
+   * @param lastStatus  status at the previous location update
+   * @return  INSIDE, CLOSE or OUTSIDE
+   */
+  Status fenceStatus(Point location, Status lastStatus) {
+    ProximityScratch scratch = sProximityScratch.get();
+    scratch.clearCounts();
+    Status status = fenceStatus(location.getX(), location.getY(), lastStatus, scratch);
+    scratch.publishCounts();
+    return status;
+  }
+
+  private Status fenceStatus(double x, double y, Status lastStatus, ProximityScratch scratch) {
     // If point is inside fence, we don't need to know if its close.
-    if (isWithinFence(latestLocation)) {
-      newStatus = Status.INSIDE;
+    if (isWithinFence(x, y, scratch)) {
+      return Status.INSIDE;
+    }
+    // If not inside, is it close? If not close, it's outside.
+    return closeToFence(x, y, closeDistance(lastStatus), scratch) ? Status.CLOSE : Status.OUTSIDE;
+  }
+
+  /**
+   * Get the distance from the fence within which a location is CLOSE, which
+   * is further when the previous location was already CLOSE or INSIDE.
+   *
+   * @param lastStatus  status at the previous location update
+   * @return  the distance in meters
+   */
+  static double closeDistance(Status lastStatus) {
+    if (lastStatus == Status.CLOSE || lastStatus == Status.INSIDE) {
+      return IS_CLOSE_DISTANCE_METERS + CLOSE_EXIT_HYSTERESIS_METERS;
+    }
+    return IS_CLOSE_DISTANCE_METERS - CLOSE_ENTRY_HYSTERESIS_METERS;
+  }
+
+  /**
+   * Calculate the approximate distance from a location to the fence boundary.
+   * Only the part of the fence near the location is searched, so if the
+   * boundary is further away a lower bound of the distance is returned.
+   *
+   * @param location  location to compare with the fence, in WGS84
+   * @return  the distance in meters
+   */
+  double boundaryDistance(Point location) {
+    return boundaryDistance(location.getX(), location.getY());
+  }
+
+  private double boundaryDistance(double x, double y) {
+    // The distance to the generalized fence is within the tolerance of the
+    // distance to the full fence, so take the tolerance off for a lower bound.
+    PreparedFence fence = (mCoarseFence != null) ? mCoarseFence : mPreparedFence;
+    double tolerance = (mCoarseFence != null) ? GENERALIZE_TOLERANCE_METERS : 0;
+    double envelopeDistance = fence.envelopeDistanceMeters(x, y) - tolerance;
+    double searchDistance = Math.min(BOUNDARY_SEARCH_METERS,
+        fence.cellSizeMeters(y) * BOUNDARY_SEARCH_CELLS / 2);
+    if (envelopeDistance >= searchDistance) {
+      return envelopeDistance;
     }
-    else {
-      // If not inside, is it close? If not close, it's outside.
-      boolean isClose = closeToFence(latestLocation);
-      newStatus = (isClose) ? Status.CLOSE : Status.OUTSIDE;
+    if (mCoarseFence == null) {
+      GeofenceMetrics.FENCE_DISTANCE_FULL.increment();
     }
+    double distance = Math.min(fence.nearestEdgeMeters(x, y, searchDistance + tolerance),
+        searchDistance + tolerance);
+    return Math.max(0, distance - tolerance);
+  }
+
+  /**
+   * Work out the change, and any change in update frequency required, when
+   * moving from one status to another.
+   *
+   * @param lastStatus  status at the previous location update
+   * @param newStatus  status at the latest location update
+   * @return  FenceInformation about the change relative to the fence
+   */
+  static FenceInformation transition(Status lastStatus, Status newStatus) {
+    return transition(lastStatus, newStatus, new FenceInformation());
+  }
+
+  /**
+   * Work out the change, and any change in update frequency required, when
+   * moving from one status to another, filling in an existing FenceInformation.
+   */
+  static FenceInformation transition(Status lastStatus, Status newStatus, FenceInformation info) {
+    Change newChange = null;
+    UpdateChange newUpdateChange = null;
 
     // How has this state changed from previous status.
-    if ( (newStatus == Status.INSIDE) && (mLastStatus == Status.INSIDE || mLastStatus ==Status.UNKNOWN) ) {
+    if ( (newStatus == Status.INSIDE) && (lastStatus == Status.INSIDE || lastStatus ==Status.UNKNOWN) ) {
       // INSIDE -> INSIDE
       newChange = Change.REMAINED_IN;
     }
@@ -179,7 +566,7 @@ public class LocalGeofence {
       // OUTSIDE -> INSIDE, CLOSE -> INSIDE
       newChange = Change.ENTERED;
     }
-    else if (mLastStatus == Status.INSIDE) {
+    else if (lastStatus == Status.INSIDE) {
       // INSIDE -> CLOSE, INSIDE -> OUTSIDE
       newChange = Change.EXITED;
     }
@@ -190,7 +577,7 @@ public class LocalGeofence {
     }
 
     // Work out if GPS frequency needs to be increased or decreased.
-    if (Status.OUTSIDE == mLastStatus || Status.UNKNOWN == mLastStatus) {
+    if (Status.OUTSIDE == lastStatus || Status.UNKNOWN == lastStatus) {
       if ( (Status.CLOSE == newStatus) || (Status.INSIDE == newStatus)) {
         // Need to increase GPS frequency when:
         // OUTSIDE -> INSIDE, or OUTSIDE -> CLOSE
@@ -198,47 +585,100 @@ public class LocalGeofence {
       }
     }
     //Update Statuses to Normal based on condition here
-    else if (Status.OUTSIDE == newStatus || Status.OUTSIDE == mLastStatus) { // LastStatus Must be INSIDE or CLOSE
+    else if (Status.OUTSIDE == newStatus || Status.OUTSIDE == lastStatus) { // LastStatus Must be INSIDE or CLOSE
       // Decrease frequency when:
       // INSIDE -> OUTSIDE, or CLOSE -> OUTSIDE
       newUpdateChange = UpdateChange.SLOWER;
     }
-    FenceInformation info = new FenceInformation();
     info.status = newStatus;
     info.change = newChange;
     info.updateChange = newUpdateChange;
-
-    // The information we return becomes the 'previous' information that we store.
-    mLastStatus = newStatus;
-    mLastChange = newChange;
-    mLastUpdateChange = newUpdateChange;
     return info;
   }
 
   /**
    * Calculate if location is within tolerance of the geofence boundary.
-   * @param location location to compare with geofence
+   * @param x longitude of the location to compare with geofence
+   * @param y latitude of the location to compare with geofence
+   * @param closeDistance distance within which the location is close, in meters
+   * @param scratch scratch objects and check counts for this thread
    * @return true if the location is within tolerance distance, otherwise false.
    */
-  private static boolean closeToFence(Point location) {
-    // Work out proximity to the fence by getting the nearest coordinate to the
-    // fence boundary and working out distance between that and current location.
-    Proximity2DResult proximity =  GeometryEngine.getNearestCoordinate(
-        mFenceWgs84, location, true);
-    double distanceGeodesic =  GeometryEngine.geodesicDistance(location,
-        proximity.getCoordinate(), mWgs84Sr, mProximityUnits);
+  private boolean closeToFence(double x, double y, double closeDistance,
+                               ProximityScratch scratch) {
+    scratch.proximity++;
+    double searchDistance = closeDistance * (1 + PROXIMITY_MARGIN);
+    if (mCoarseFence != null) {
+      // The generalized fence decides, unless the location is within the
+      // tolerance of the margins around the close distance.
+      double coarseDistance = mCoarseFence.nearestEdgeMeters(x, y,
+          searchDistance + GENERALIZE_TOLERANCE_METERS);
+      if (coarseDistance - GENERALIZE_TOLERANCE_METERS >= searchDistance) {
+        return false;
+      }
+      if (coarseDistance + GENERALIZE_TOLERANCE_METERS < closeDistance * (1 - PROXIMITY_MARGIN)) {
+        return true;
+      }
+    }
+
+    // Most locations are clearly close or clearly not close - only look at
+    // the fence edges near the location to find out.
+    scratch.proximityFull++;
+    double approximateDistance = mPreparedFence.nearestEdgeMeters(x, y, searchDistance);
+    if (approximateDistance < closeDistance * (1 - PROXIMITY_MARGIN)) {
+      return true;
+    }
+    if (Double.isInfinite(approximateDistance)) {
+      return false;
+    }
+
+    // Near the threshold, work out proximity to the fence exactly - on the
+    // local projection if there is one, otherwise by getting the nearest
+    // coordinate to the fence boundary and working out the geodesic distance
+    // between that and the current location.
+    scratch.proximityExact++;
+    ProjectedFence projectedFence = getProjectedFence();
+    if (projectedFence.projection != null) {
+      return mPreparedFence.nearestEdgeProjected(x, y, searchDistance,
+          projectedFence.projection, projectedFence.edges, scratch.projected) < closeDistance;
+    }
+    if (!mPreparedFence.nearestPoint(x, y, searchDistance, scratch.nearest)) {
+      return false;
+    }
+    scratch.location.setXY(x, y);
+    scratch.nearestPoint.setXY(scratch.nearest[0], scratch.nearest[1]);
+    double distanceGeodesic =  GeometryEngine.geodesicDistance(scratch.location,
+        scratch.nearestPoint, mWgs84Sr, mProximityUnits);
 
-    Log.i(TAG, String.format("GeometryEngine.geodesicDistance: %.6f", distanceGeodesic));
-    return (distanceGeodesic < IS_CLOSE_DISTANCE_METERS);
+    if (Log.isLoggable(TAG, Log.DEBUG)) {
+      Log.d(TAG, String.format("GeometryEngine.geodesicDistance: %.6f", distanceGeodesic));
+    }
+    return (distanceGeodesic < closeDistance);
   }
 
   /**
-   * Find out if location is within geofence.
+   * Find out if location is within geofence, using the prepared fence grid
+   * where possible, and only falling back to a full ray cast over the fence
+   * edges when the location is too close to the boundary for the grid to be sure.
    * @param location location to compare with geofence
    * @return true if location is within geofence, otherwise false.
    */
-  public static boolean isWithinFence(Point location) {
-    return GeometryEngine.within(location, mFenceWgs84, mWgs84Sr);
+  public boolean isWithinFence(Point location) {
+    ProximityScratch scratch = sProximityScratch.get();
+    scratch.clearCounts();
+    boolean within = isWithinFence(location.getX(), location.getY(), scratch);
+    scratch.publishCounts();
+    return within;
+  }
+
+  private boolean isWithinFence(double x, double y, ProximityScratch scratch) {
+    scratch.within++;
+    int contains = mPreparedFence.contains(x, y);
+    if (contains == PreparedFence.UNKNOWN) {
+      scratch.withinExact++;
+      return mPreparedFence.containsExact(x, y);
+    }
+    return contains == PreparedFence.INSIDE;
   }
 
 }
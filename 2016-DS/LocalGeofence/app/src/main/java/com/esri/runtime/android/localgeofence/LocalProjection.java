@@ -0,0 +1,175 @@
+/* Copyright 2016 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * A copy of the license is available in the repository's
+ * https://github.com/Esri/arcgis-runtime-demos-android/blob/master/license.txt
+ *
+ * For information about licensing your deployed app, see
+ * https://developers.arcgis.com/android/guide/license-your-app.htm
+ *
+ */
+
+package com.esri.runtime.android.localgeofence;
+
+import com.esri.core.geometry.Envelope;
+
+/**
+ * A transverse Mercator projection of the WGS84 ellipsoid, centred on a
+ * fence, so that distances near the fence can be measured on a plane rather
+ * than along geodesics.
+ * <p>
+ * The projection is conformal, so near any point distances are the same in
+ * every direction, scaled by the point scale factor, which grows with the
+ * distance from the central meridian. Dividing planar distances by the scale
+ * factor gives distances on the ellipsoid to within a millimeter or so for
+ * the short distances used by the proximity checks, anywhere within a few
+ * hundred kilometers of the central meridian.
+ * <p>
+ * Locations are projected with the Kruger series, to fourth order in the
+ * third flattening, which needs no more than a few trigonometric and
+ * hyperbolic functions per location.
+ */
+public class LocalProjection {
+
+  // WGS84 ellipsoid.
+  private static final double SEMI_MAJOR_AXIS = 6378137;
+  private static final double FLATTENING = 1 / 298.257223563;
+
+  // Third flattening, and constants of the Kruger series derived from it.
+  private static final double N = FLATTENING / (2 - FLATTENING);
+  private static final double E = Math.sqrt(FLATTENING * (2 - FLATTENING));
+  private static final double RECTIFYING_RADIUS = SEMI_MAJOR_AXIS / (1 + N)
+      * (1 + N * N / 4 + N * N * N * N / 64);
+  private static final double[] ALPHA = {
+      N / 2 - 2 * N * N / 3 + 5 * N * N * N / 16 + 41 * N * N * N * N / 180,
+      13 * N * N / 48 - 3 * N * N * N / 5 + 557 * N * N * N * N / 1440,
+      61 * N * N * N / 240 - 103 * N * N * N * N / 140,
+      49561 * N * N * N * N / 161280
+  };
+
+  // Central meridian, in degrees, and the northing of the latitude of origin,
+  // so that the fence is near the projection origin.
+  private final double mCentralMeridian;
+  private final double mOriginNorthing;
+
+  // Radius of the sphere that best fits the ellipsoid at the latitude of
+  // origin, used to work out the scale factor.
+  private final double mGaussianRadius;
+
+  /**
+   * Create a projection centred on a point.
+   *
+   * @param centralMeridian  longitude of the central meridian, in degrees
+   * @param originLatitude  latitude of the projection origin, in degrees
+   */
+  public LocalProjection(double centralMeridian, double originLatitude) {
+    mCentralMeridian = centralMeridian;
+    double[] origin = new double[2];
+    forward(0, Math.toRadians(originLatitude), origin);
+    mOriginNorthing = origin[1];
+    double sinLatitude = Math.sin(Math.toRadians(originLatitude));
+    mGaussianRadius = SEMI_MAJOR_AXIS * Math.sqrt(1 - E * E)
+        / (1 - E * E * sinLatitude * sinLatitude);
+  }
+
+  /**
+   * Create a projection centred on an envelope.
+   *
+   * @param envelope  envelope in WGS84
+   */
+  public static LocalProjection centredOn(Envelope envelope) {
+    return new LocalProjection(envelope.getCenterX(), envelope.getCenterY());
+  }
+
+  /**
+   * Project a WGS84 location.
+   *
+   * @param x  longitude of the location
+   * @param y  latitude of the location
+   * @param projected  receives the easting and northing, in meters
+   */
+  public void project(double x, double y, double[] projected) {
+    double longitude = x - mCentralMeridian;
+    if (longitude > 180) {
+      longitude -= 360;
+    }
+    else if (longitude < -180) {
+      longitude += 360;
+    }
+    forward(Math.toRadians(longitude), Math.toRadians(y), projected);
+    projected[1] -= mOriginNorthing;
+  }
+
+  /**
+   * @param easting  easting of a projected location, in meters
+   * @return the point scale factor at the location - the ratio of projected
+   * distances to distances on the ellipsoid, close to the location.
+   */
+  public double scaleFactor(double easting) {
+    return Math.cosh(easting / mGaussianRadius);
+  }
+
+  /**
+   * Work out the distance on the ellipsoid between two projected locations,
+   * from the planar distance between them and the scale factor along the
+   * line joining them.
+   *
+   * @return the distance in meters.
+   */
+  public double distance(double easting1, double northing1, double easting2, double northing2) {
+    double planar = Math.hypot(easting2 - easting1, northing2 - northing1);
+    double meanInverseScale = (1 / scaleFactor(easting1)
+        + 4 / scaleFactor((easting1 + easting2) / 2) + 1 / scaleFactor(easting2)) / 6;
+    return planar * meanInverseScale;
+  }
+
+  /**
+   * Project a location relative to the central meridian, with the Kruger
+   * series, without moving the origin to the latitude of origin.
+   */
+  private static void forward(double longitude, double latitude, double[] projected) {
+    double sinLatitude = Math.sin(latitude);
+    double t = Math.sinh(atanh(sinLatitude) - E * atanh(E * sinLatitude));
+    double cosLongitude = Math.cos(longitude);
+    double xiPrime = Math.atan2(t, cosLongitude);
+    double etaPrime = asinh(Math.sin(longitude) / Math.hypot(t, cosLongitude));
+
+    // Sum the series, working out the sines and cosines of the multiples of
+    // the angles from those of the angles themselves.
+    double sin2Xi = Math.sin(2 * xiPrime), cos2Xi = Math.cos(2 * xiPrime);
+    double sinh2Eta = Math.sinh(2 * etaPrime), cosh2Eta = Math.cosh(2 * etaPrime);
+    double sinJXi = sin2Xi, cosJXi = cos2Xi;
+    double sinhJEta = sinh2Eta, coshJEta = cosh2Eta;
+    double xi = xiPrime, eta = etaPrime;
+    for (int j = 0; j < ALPHA.length; j++) {
+      xi += ALPHA[j] * sinJXi * coshJEta;
+      eta += ALPHA[j] * cosJXi * sinhJEta;
+      double nextSin = sinJXi * cos2Xi + cosJXi * sin2Xi;
+      cosJXi = cosJXi * cos2Xi - sinJXi * sin2Xi;
+      sinJXi = nextSin;
+      double nextSinh = sinhJEta * cosh2Eta + coshJEta * sinh2Eta;
+      coshJEta = coshJEta * cosh2Eta + sinhJEta * sinh2Eta;
+      sinhJEta = nextSinh;
+    }
+    projected[0] = RECTIFYING_RADIUS * eta;
+    projected[1] = RECTIFYING_RADIUS * xi;
+  }
+
+  private static double atanh(double x) {
+    return 0.5 * Math.log((1 + x) / (1 - x));
+  }
+
+  private static double asinh(double x) {
+    double y = Math.log(Math.abs(x) + Math.sqrt(x * x + 1));
+    return (x < 0) ? -y : y;
+  }
+}
@@ -0,0 +1,203 @@
+/* Copyright 2016 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * A copy of the license is available in the repository's
+ * https://github.com/Esri/arcgis-runtime-demos-android/blob/master/license.txt
+ *
+ * For information about licensing your deployed app, see
+ * https://developers.arcgis.com/android/guide/license-your-app.htm
+ *
+ */
+
+package com.esri.runtime.android.localgeofence;
+
+import android.content.Context;
+import android.location.Location;
+import android.util.Log;
+
+import com.esri.core.geometry.Point;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks batches of location updates against the active fence, and against
+ * every fence in the watched GeofenceEngine once it has been loaded, for both
+ * of the geofence services. Each service keeps its own checker, and only uses
+ * it on its worker thread; the batch list, times and fence information are
+ * reused, so checking each location in a batch against the active fence does
+ * not allocate. Checking the engine's fences does, as does working out the
+ * update rate once at the end of the batch, and debug logging.
+ */
+class LocationBatchChecker {
+
+  private final String mTag;
+
+  // The batch being checked, in timestamp order, and the time of each
+  // location; the times array only grows when a larger batch arrives.
+  private final List<Location> mLocations = new ArrayList<Location>();
+  private long[] mTimes = new long[16];
+
+  // Filled in for each location update checked, rather than allocating a new
+  // one each time.
+  private final LocalGeofence.FenceInformation mInfo = new LocalGeofence.FenceInformation();
+
+  /**
+   * @param tag  tag to log under, that of the service using the checker
+   */
+  LocationBatchChecker(String tag) {
+    mTag = tag;
+  }
+
+  /**
+   * Check a single location update.
+   */
+  void check(Context context, Location newLocation) {
+    mLocations.clear();
+    mLocations.add(newLocation);
+    checkLocations(context);
+  }
+
+  /**
+   * Check a batch of location updates in one pass, in timestamp order. The
+   * update rate is only changed once for the batch, as GeofenceScheduler decides.
+   */
+  void check(Context context, List<Location> newLocations) {
+    mLocations.clear();
+    if (mTimes.length < newLocations.size()) {
+      mTimes = new long[newLocations.size()];
+    }
+    for (int i = 0; i < newLocations.size(); i++) {
+      Location location = newLocations.get(i);
+      mLocations.add(location);
+      mTimes[i] = location.getTime();
+    }
+    sortByTime(mTimes, mLocations);
+    checkLocations(context);
+  }
+
+  /**
+   * Sort items by their times, keeping the order of items with the same time.
+   * This is an insertion sort, which does not allocate, and takes a single
+   * pass over the batches the fused location provider delivers, as they are
+   * nearly always already in order.
+   *
+   * @param times  time of each item, sorted along with the items
+   * @param items  the items to sort; no more than there are times
+   */
+  static <T> void sortByTime(long[] times, List<T> items) {
+    for (int i = 1; i < items.size(); i++) {
+      long time = times[i];
+      T item = items.get(i);
+      int j = i - 1;
+      while (j >= 0 && times[j] > time) {
+        times[j + 1] = times[j];
+        items.set(j + 1, items.get(j));
+        j--;
+      }
+      times[j + 1] = time;
+      items.set(j + 1, item);
+    }
+  }
+
+  /**
+   * Check a location update against every fence in the watched engine, and
+   * record transitions of the fences other than the active fence, whose
+   * transitions are recorded and notified when it is checked itself.
+   */
+  private void checkWatchedFences(Context context, GeofenceEngine engine,
+                                  LocalGeofence activeFence, Location location) {
+    List<LocalGeofence.FenceInformation> infos = engine.latestLocation(
+        new Point(location.getLongitude(), location.getLatitude()));
+    for (int i = 0; i < infos.size(); i++) {
+      LocalGeofence.FenceInformation info = infos.get(i);
+      if ((info.change == LocalGeofence.Change.ENTERED
+          || info.change == LocalGeofence.Change.EXITED)
+          && (activeFence == null || info.featureOid != activeFence.getFeatureOid())) {
+        TransitionJournal.getInstance(context).append(location.getTime(), info.featureOid,
+            info.status, info.change, location.getLongitude(), location.getLatitude());
+      }
+    }
+  }
+
+  private void checkLocations(Context context) {
+    // Use the same fence for the whole batch, even if it is changed meanwhile.
+    // If the service has been restarted in a new process, the fence is
+    // restored from the cache.
+    LocalGeofence fence = FenceCache.getActiveFence(context);
+    GeofenceEngine engine = GeofenceEngine.getWatchedEngine();
+    if (fence == null && engine == null) {
+      mLocations.clear();
+      return;
+    }
+    GeofenceMetrics.SERVICE_FIXES.add(mLocations.size());
+    for (int i = 0; i < mLocations.size(); i++) {
+      Location newLocation = mLocations.get(i);
+
+      // GeofenceScheduler only knows the distance to the active fence, so the
+      // engine's fences are checked for every location.
+      if (engine != null) {
+        checkWatchedFences(context, engine, fence, newLocation);
+      }
+      if (fence == null) {
+        continue;
+      }
+
+      // Skip the check if the device cannot have got close enough to the fence
+      // boundary since the last check for its status to change.
+      if (!GeofenceScheduler.shouldEvaluate(newLocation)) {
+        if (Log.isLoggable(mTag, Log.DEBUG)) {
+          Log.d(mTag, "Skipped geofence check, too far from boundary");
+        }
+        GeofenceMetrics.SERVICE_SKIPPED.increment();
+        continue;
+      }
+
+      // The incoming location is the current device location, in geographic
+      // coordinates. The result is filled into the same object every time.
+      LocalGeofence.FenceInformation info = fence.latestLocation(newLocation.getLongitude(),
+          newLocation.getLatitude(), mInfo);
+      GeofenceScheduler.evaluated(info, newLocation);
+      if (Log.isLoggable(mTag, Log.DEBUG)) {
+        Log.d(mTag, String.format("%s Status: %s, UpdateChange: %s, Change: %s", mTag,
+            info.status, info.updateChange, info.change));
+      }
+
+      if (info.change == LocalGeofence.Change.ENTERED
+          || info.change == LocalGeofence.Change.EXITED) {
+        TransitionJournal.getInstance(context).append(newLocation.getTime(), info.featureOid,
+            info.status, info.change, newLocation.getLongitude(), newLocation.getLatitude());
+        GeofenceNotifier.transition(context, fence, info.change, newLocation.getTime());
+      }
+    }
+    if (mLocations.isEmpty()) {
+      return;
+    }
+    long lastTime = mLocations.get(mLocations.size() - 1).getTime();
+    // Do not hold on to the locations until the next batch.
+    mLocations.clear();
+
+    // Post any alerts held back while the fence status was changing rapidly.
+    GeofenceNotifier.flush(context, lastTime);
+
+    // Change the update rate to suit the speed of the device and its distance
+    // from the fence boundary, if it has changed enough.
+    UpdateRateController.Rate rate = GeofenceScheduler.takeUpdateRate(lastTime);
+    if (Log.isLoggable(mTag, Log.DEBUG)) {
+      Log.d(mTag, String.format("Update rate: %s, avoided switches: %d",
+          (rate != null) ? rate : "unchanged", GeofenceScheduler.getAvoidedSwitchCount()));
+    }
+    if (rate != null) {
+      LocationUpdatesManager.requestUpdates(context, rate);
+    }
+  }
+}
@@ -0,0 +1,231 @@
+/* Copyright 2016 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * A copy of the license is available in the repository's
+ * https://github.com/Esri/arcgis-runtime-demos-android/blob/master/license.txt
+ *
+ * For information about licensing your deployed app, see
+ * https://developers.arcgis.com/android/guide/license-your-app.htm
+ *
+ */
+
+package com.esri.runtime.android.localgeofence;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.common.api.Status;
+import com.google.android.gms.location.LocationServices;
+
+/**
+ * Keeps one Google API client connected for as long as location updates are
+ * wanted, and changes the location update rate on it. Each change just
+ * replaces the location request, rather than connecting a new client,
+ * registering, and disconnecting again.
+ * <p>
+ * High accuracy updates are delivered to GeofenceServiceFast, and others to
+ * GeofenceServiceNormal. The time from asking for a switch to the new request
+ * being registered is recorded, for comparison.
+ */
+public class LocationUpdatesManager {
+
+  private static final String TAG = LocationUpdatesManager.class.getSimpleName();
+
+  private static GoogleApiClient mGoogleApiClient = null;
+  private static Context mContext = null;
+
+  // The rate waiting to be registered once the client is connected, and
+  // whether that is a request to stop updates instead.
+  private static UpdateRateController.Rate mPendingRate = null;
+  private static boolean mPendingStop = false;
+
+  // The service receiving updates, or null if none is.
+  private static Class<?> mService = null;
+
+  // When the pending switch was asked for, and the latencies of completed switches.
+  private static long mSwitchStartTime = 0;
+  private static int mSwitchCount = 0;
+  private static long mTotalSwitchLatency = 0;
+  private static long mMaxSwitchLatency = 0;
+
+  /**
+   * Receive location updates at a fast rate, using high power and accuracy.
+   */
+  public static void requestFastUpdates(Context context) {
+    requestUpdates(context, UpdateRateController.FAST_RATE);
+  }
+
+  /**
+   * Receive location updates at a normal rate, using balanced power and accuracy.
+   */
+  public static void requestNormalUpdates(Context context) {
+    requestUpdates(context, UpdateRateController.NORMAL_RATE);
+  }
+
+  /**
+   * Receive location updates at the given rate, replacing any current request.
+   */
+  public static synchronized void requestUpdates(Context context, UpdateRateController.Rate rate) {
+    mPendingRate = rate;
+    mPendingStop = false;
+    switchTo(context);
+  }
+
+  /**
+   * Stop receiving location updates, and disconnect the client.
+   */
+  public static synchronized void stopUpdates(Context context) {
+    mPendingRate = null;
+    mPendingStop = true;
+    switchTo(context);
+  }
+
+  /**
+   * @return the number of rate changes that have completed.
+   */
+  public static synchronized int getSwitchCount() {
+    return mSwitchCount;
+  }
+
+  /**
+   * @return the mean time taken to change rate, in milliseconds.
+   */
+  public static synchronized long getMeanSwitchLatency() {
+    return (mSwitchCount == 0) ? 0 : mTotalSwitchLatency / mSwitchCount;
+  }
+
+  /**
+   * @return the longest time taken to change rate, in milliseconds.
+   */
+  public static synchronized long getMaxSwitchLatency() {
+    return mMaxSwitchLatency;
+  }
+
+  private static void switchTo(Context context) {
+    mContext = context.getApplicationContext();
+    mSwitchStartTime = SystemClock.elapsedRealtime();
+
+    if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
+      applyPending();
+    }
+    else {
+      // The switch is made as soon as the client connects. If the process has
+      // been restarted, updates may still be registered by an earlier client,
+      // so connect to remove them even when stopping.
+      connect();
+    }
+  }
+
+  private static void connect() {
+    if (mGoogleApiClient == null) {
+      mGoogleApiClient = new GoogleApiClient.Builder(mContext)
+          .addApi(LocationServices.API)
+          .addConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
+            @Override
+            public void onConnected(Bundle bundle) {
+              synchronized (LocationUpdatesManager.class) {
+                applyPending();
+              }
+            }
+
+            @Override
+            public void onConnectionSuspended(int i) {
+              // The client reconnects automatically, and any pending switch is
+              // made then.
+              Log.i(TAG, "Connection suspended: " + i);
+            }
+          })
+          .addOnConnectionFailedListener(new GoogleApiClient.OnConnectionFailedListener() {
+            @Override
+            public void onConnectionFailed(ConnectionResult connectionResult) {
+              Log.w(TAG, "Connection failed: " + connectionResult.getErrorCode());
+              synchronized (LocationUpdatesManager.class) {
+                // Try again with a new client on the next switch.
+                mGoogleApiClient = null;
+              }
+            }
+          })
+          .build();
+    }
+    if (!mGoogleApiClient.isConnecting()) {
+      mGoogleApiClient.connect();
+    }
+  }
+
+  /**
+   * Register the pending rate on the connected client, replacing the current
+   * one, or stop updates if that is pending.
+   */
+  private static void applyPending() {
+    if (mPendingStop) {
+      mPendingStop = false;
+      // Make sure neither service receives updates any more.
+      LocationServices.FusedLocationApi.removeLocationUpdates(mGoogleApiClient,
+          getPendingIntent(GeofenceServiceFast.class));
+      LocationServices.FusedLocationApi.removeLocationUpdates(mGoogleApiClient,
+          getPendingIntent(GeofenceServiceNormal.class));
+      mGoogleApiClient.disconnect();
+      mGoogleApiClient = null;
+      mService = null;
+      Log.i(TAG, "Stopped location updates");
+      return;
+    }
+    final UpdateRateController.Rate rate = mPendingRate;
+    if (rate == null) {
+      return;
+    }
+    mPendingRate = null;
+    final long switchStartTime = mSwitchStartTime;
+
+    // Stop updates to the other service. Updates to the same service are
+    // replaced in place by the new request.
+    Class<?> service = rate.isHighAccuracy() ? GeofenceServiceFast.class : GeofenceServiceNormal.class;
+    Class<?> otherService = rate.isHighAccuracy() ? GeofenceServiceNormal.class : GeofenceServiceFast.class;
+    LocationServices.FusedLocationApi.removeLocationUpdates(mGoogleApiClient,
+        getPendingIntent(otherService));
+    GeofenceMetrics.UPDATES_RATE_CHANGES.increment();
+    if (mService != null && mService != service) {
+      GeofenceMetrics.UPDATES_SERVICE_SWITCHES.increment();
+    }
+    mService = service;
+    LocationServices.FusedLocationApi.requestLocationUpdates(mGoogleApiClient,
+        rate.createRequest(), getPendingIntent(service))
+        .setResultCallback(new ResultCallback<Status>() {
+          @Override
+          public void onResult(Status status) {
+            recordSwitch(rate, status, SystemClock.elapsedRealtime() - switchStartTime);
+          }
+        });
+  }
+
+  private static synchronized void recordSwitch(UpdateRateController.Rate rate, Status status,
+                                                long latency) {
+    mSwitchCount++;
+    mTotalSwitchLatency += latency;
+    mMaxSwitchLatency = Math.max(mMaxSwitchLatency, latency);
+    Log.i(TAG, String.format("Changed to %s in %d ms (mean %d ms, max %d ms): %s",
+        rate, latency, getMeanSwitchLatency(), mMaxSwitchLatency, status));
+  }
+
+  private static PendingIntent getPendingIntent(Class<?> service) {
+    Intent serviceIntent = new Intent(MainActivity.ACTION_CHECK_LOCATION, null, mContext, service);
+    return PendingIntent.getService(mContext, 0, serviceIntent,
+        PendingIntent.FLAG_UPDATE_CURRENT);
+  }
+}
@@ -24,8 +24,6 @@ import android.app.Activity;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
 import android.os.Environment;
 import android.support.design.widget.CoordinatorLayout;
@@ -42,19 +40,14 @@ import android.widget.Toast;
 
 import com.esri.core.geodatabase.Geodatabase;
 import com.esri.core.geodatabase.GeodatabaseFeatureTable;
-import com.esri.core.geometry.Polygon;
-import com.esri.core.map.Feature;
-import com.esri.core.table.TableException;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.PendingResult;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.common.api.Status;
-import com.google.android.gms.location.LocationServices;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -62,7 +55,6 @@ public class MainActivity extends AppCompatActivity {
 
   // Latest Google Play Services must be installed and available on device.
   //http://www.zionsoft.net/2014/02/google-play-services-set-up/
-  private static GoogleApiClient mGoogleClient;
   private static Context mContext;
   public static boolean mLocationUpdatesStarted = false;
 
@@ -71,6 +63,15 @@ public class MainActivity extends AppCompatActivity {
   public static Geodatabase mGdb = null;
   public static GeodatabaseFeatureTable mGdbFeatureTable = null;
 
+  // Fences loaded for the alert items, by ObjectID, and the ObjectID of the
+  // fence to make active as soon as it is loaded, or -1 for none.
+  private static final Map<Long, LocalGeofence> mLoadedFences =
+      new ConcurrentHashMap<Long, LocalGeofence>();
+  private static long mPendingActiveOid = -1;
+
+  // The latest fence load, so it can be cancelled.
+  private static Future<Integer> mFenceLoad = null;
+
   // Define two sets of update intervals, for normal updates, and for fast updates
   // when device is near the fence. GeofenceService will only be assigned power
   // blame for the interval set by xx_UPDATE_INTERVAL, but can still receive
@@ -107,7 +108,6 @@ public class MainActivity extends AppCompatActivity {
   List<GeofenceAlertItem> mGeofenceAlertItemsList = new ArrayList<GeofenceAlertItem>();
   static GeofenceListViewerAdapter mGeofenceListViewerAdapter;
   static CoordinatorLayout coordinatorLayout;
-  Bitmap geofenceAlertThumbnail;
 
 
   LinearLayoutManager linearLayoutManager;
@@ -133,11 +133,13 @@ public class MainActivity extends AppCompatActivity {
     // Connect to geodatabase
     setupGeodatabase();
 
-    geofenceAlertThumbnail = BitmapFactory.decodeResource(getResources(), R.drawable.ic_notifications_black_48dp);
     alertString = "Alert While Enter and Exit";
 
 
     setupAlertItemAdapter();
+    loadAlertFences();
+    loadFenceSearchIndex();
+    loadWatchedFences();
 
     FloatingActionButton floatingActionButton = (FloatingActionButton) findViewById(R.id.addGeofence);
     floatingActionButton.setOnClickListener(new View.OnClickListener() {
@@ -177,8 +179,28 @@ public class MainActivity extends AppCompatActivity {
   @Override
   protected void onDestroy() {
     super.onDestroy();
+    if (mFenceLoad != null) {
+      mFenceLoad.cancel(true);
+    }
     if (mGdb != null) {
-      mGdb.dispose();
+      // Dispose on the loader thread, so any load still reading features
+      // finishes first. The search index is kept when the activity is only
+      // being recreated, as the new activity will not open it again; any
+      // build of it still reading this geodatabase is left to finish.
+      final Geodatabase gdb = mGdb;
+      final boolean finishing = isFinishing();
+      FenceLoader.submit(new Runnable() {
+        @Override
+        public void run() {
+          if (finishing) {
+            FenceSearchIndex.close();
+          }
+          else {
+            FenceSearchIndex.awaitOpened();
+          }
+          gdb.dispose();
+        }
+      });
     }
   }
 
@@ -191,31 +213,59 @@ public class MainActivity extends AppCompatActivity {
     if (resultCode == RESULT_OK) {
 
       long fenceOid = data.getLongExtra(GEOFENCE_FEATURE_OBJECTID_EXTRA_ID, -1);
-      Feature fenceFeature = getFeatureFromGeodatabase(fenceOid);
-      if (fenceFeature != null) {
-        Polygon fencePolygon = (Polygon) fenceFeature.getGeometry();
-        final String fenceName = fenceFeature.getAttributeValue(FENCE_NAME_FIELD).toString();
-        LocalGeofence.setFence(fencePolygon, mGdbFeatureTable.getSpatialReference());
-        LocalGeofence.setFeatureName(fenceName);
-        LocalGeofence.setFeatureOid(fenceOid);
-        final GeofenceAlertItem geofenceAlertItem = new GeofenceAlertItem(alertString, fenceName, String.valueOf(fenceOid), geofenceAlertThumbnail, false);
-        mGeofenceListViewerAdapter.add(geofenceAlertItem);
-        final Snackbar snackbar = Snackbar
-            .make(coordinatorLayout, "Added Geofence County: " + fenceName, Snackbar.LENGTH_LONG);
-        snackbar.setAction("UNDO", new View.OnClickListener() {
-          @Override
-          public void onClick(View v) {
-            mGeofenceListViewerAdapter.remove(geofenceAlertItem);
-            Snackbar snackbarRemove = Snackbar
-                .make(coordinatorLayout, "Removed Geofence County: " + fenceName, Snackbar.LENGTH_LONG);
-            snackbarRemove.show();
-          }
-        });
-        snackbar.show();
+      if (fenceOid < 0 || mGdbFeatureTable == null) {
+        return;
       }
+      // Make the chosen fence active, and add an alert item for it, once it
+      // has been loaded.
+      setPendingActiveFence(fenceOid);
+      LocalGeofence fence = mLoadedFences.get(fenceOid);
+      if (fence != null) {
+        addAlertItem(fence);
+        return;
+      }
+      mFenceLoad = FenceLoader.load(mGdbFeatureTable, new long[]{fenceOid},
+          new FenceLoader.Listener() {
+            @Override
+            public void onFenceLoaded(final LocalGeofence fence) {
+              fenceLoaded(fence);
+              runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                  addAlertItem(fence);
+                }
+              });
+            }
+
+            @Override
+            public void onLoadFinished(int loaded, boolean complete) {
+            }
+          });
     }
   }
 
+  /**
+   * Add an alert item for a fence to the list.
+   */
+  private void addAlertItem(LocalGeofence fence) {
+    final String fenceName = fence.getFeatureName();
+    final GeofenceAlertItem geofenceAlertItem = new GeofenceAlertItem(alertString, fenceName,
+        String.valueOf(fence.getFeatureOid()), false);
+    mGeofenceListViewerAdapter.add(geofenceAlertItem);
+    final Snackbar snackbar = Snackbar
+        .make(coordinatorLayout, "Added Geofence County: " + fenceName, Snackbar.LENGTH_LONG);
+    snackbar.setAction("UNDO", new View.OnClickListener() {
+      @Override
+      public void onClick(View v) {
+        mGeofenceListViewerAdapter.remove(geofenceAlertItem);
+        Snackbar snackbarRemove = Snackbar
+            .make(coordinatorLayout, "Removed Geofence County: " + fenceName, Snackbar.LENGTH_LONG);
+        snackbarRemove.show();
+      }
+    });
+    snackbar.show();
+  }
+
 
   @Override
   protected void onNewIntent(Intent intent) {
@@ -262,22 +312,6 @@ public class MainActivity extends AppCompatActivity {
     startActivity(currentLocationIntent);
   }
 
-  /**
-   * Get a feature from the geodatabase by its ObjectID.s
-   */
-  private static Feature getFeatureFromGeodatabase(long featureOid) {
-    if (featureOid < 0) {
-      return null;
-    }
-    Feature feature = null;
-    try {
-      feature = mGdbFeatureTable.getFeature(featureOid);
-    } catch (TableException e) {
-      e.printStackTrace();
-    }
-    return feature;
-  }
-
   /**
    * Open the geodatabase of geofence features.
    *
@@ -301,32 +335,158 @@ public class MainActivity extends AppCompatActivity {
     return (mGdbFeatureTable != null);
   }
 
+  /**
+   * Open the index for searching fences by name in the background, building
+   * it if this is the first time the geodatabase has been opened.
+   */
+  private void loadFenceSearchIndex() {
+    if (mGdbFeatureTable == null) {
+      return;
+    }
+    FenceSearchIndex.openInBackground(new File(Environment.getExternalStorageDirectory(),
+        GEODATABASE_FILEPATH), mGdbFeatureTable);
+  }
+
+  /**
+   * Load every fence in the geodatabase into the engine watched by the
+   * geofence services, on the loader thread, unless they have already been
+   * loaded in this process.
+   */
+  private void loadWatchedFences() {
+    if (mGdbFeatureTable == null || GeofenceEngine.getWatchedEngine() != null) {
+      return;
+    }
+    final GeodatabaseFeatureTable featureTable = mGdbFeatureTable;
+    FenceLoader.submit(new Runnable() {
+      @Override
+      public void run() {
+        // A recreated activity may have asked for them again meanwhile.
+        if (GeofenceEngine.getWatchedEngine() != null) {
+          return;
+        }
+        GeofenceEngine engine = new GeofenceEngine();
+        engine.loadFences(featureTable);
+        // Do not watch only some of the fences if the load was interrupted.
+        if (!Thread.currentThread().isInterrupted()) {
+          GeofenceEngine.setWatchedEngine(engine);
+        }
+      }
+    });
+  }
+
   /**
    * Sets up the adapter for recycler view
    */
   private void setupAlertItemAdapter() {
 
-    mGeofenceListViewerAdapter = new GeofenceListViewerAdapter(mGeofenceAlertItemsList);
+    mGeofenceListViewerAdapter = new GeofenceListViewerAdapter(mGeofenceAlertItemsList,
+        FenceThumbnails.getInstance(this));
 
     mRecyclerView.setAdapter(mGeofenceListViewerAdapter);
   }
 
   /**
-   * Updates the Local fence polygon based on selection
+   * Updates the Local fence polygon based on selection. The fence is made
+   * active straight away if it has been loaded, otherwise as soon as it is.
    * @param position
    */
   public static void updateLocalFence(int position) {
     long fenceOid = Long.valueOf(mGeofenceListViewerAdapter.getGeofenceAlertItemList().get(position).getFeatureId());
-    Feature fenceFeature = getFeatureFromGeodatabase(fenceOid);
-    if (fenceFeature != null) {
-      Polygon fencePolygon = (Polygon) fenceFeature.getGeometry();
-      final String fenceName = fenceFeature.getAttributeValue(FENCE_NAME_FIELD).toString();
-      LocalGeofence.setFence(fencePolygon, mGdbFeatureTable.getSpatialReference());
-      LocalGeofence.setFeatureName(fenceName);
-      LocalGeofence.setFeatureOid(fenceOid);
-      LocalGeofence.setLastStatus(LocalGeofence.Status.UNKNOWN);
-   }
+    if (!setPendingActiveFence(fenceOid)) {
+      loadAlertFences();
+    }
+  }
+
+  /**
+   * Load the fences for every alert item that has not been loaded yet, in a
+   * single query on the loader thread.
+   */
+  public static void loadAlertFences() {
+    if (mGdbFeatureTable == null) {
+      return;
+    }
+    List<GeofenceAlertItem> alertItems = mGeofenceListViewerAdapter.getGeofenceAlertItemList();
+    long[] oids = new long[alertItems.size()];
+    int count = 0;
+    for (GeofenceAlertItem alertItem : alertItems) {
+      long oid = Long.valueOf(alertItem.getFeatureId());
+      if (!mLoadedFences.containsKey(oid)) {
+        oids[count++] = oid;
+      }
+    }
+    if (count == 0) {
+      return;
+    }
+    long[] toLoad = new long[count];
+    System.arraycopy(oids, 0, toLoad, 0, count);
+    mFenceLoad = FenceLoader.load(mGdbFeatureTable, toLoad, new FenceLoader.Listener() {
+      @Override
+      public void onFenceLoaded(LocalGeofence fence) {
+        fenceLoaded(fence);
+      }
+
+      @Override
+      public void onLoadFinished(int loaded, boolean complete) {
+        Log.i(TAG, String.format("Loaded %d alert fences%s", loaded,
+            complete ? "" : " before the load stopped"));
+      }
+    });
+  }
+
+  /**
+   * @return the fence with an ObjectID, if it has been loaded, otherwise null.
+   */
+  static LocalGeofence getLoadedFence(long fenceOid) {
+    return mLoadedFences.get(fenceOid);
+  }
+
+  /**
+   * Ask for a fence to be made active. If it has already been loaded it is
+   * made active on the loader thread, as caching it writes to storage.
+   *
+   * @return true if the fence has been loaded, or false if it will be made
+   * active once it has been.
+   */
+  private static synchronized boolean setPendingActiveFence(long fenceOid) {
+    final LocalGeofence fence = mLoadedFences.get(fenceOid);
+    if (fence == null) {
+      mPendingActiveOid = fenceOid;
+      return false;
+    }
+    mPendingActiveOid = -1;
+    FenceLoader.submit(new Runnable() {
+      @Override
+      public void run() {
+        activateFence(fence);
+      }
+    });
+    return true;
+  }
+
+  /**
+   * Keep a fence that has just been loaded, and make it active if it was
+   * asked for. Called on the loader thread.
+   */
+  private static void fenceLoaded(LocalGeofence fence) {
+    boolean activate;
+    synchronized (MainActivity.class) {
+      mLoadedFences.put(fence.getFeatureOid(), fence);
+      activate = (fence.getFeatureOid() == mPendingActiveOid);
+      if (activate) {
+        mPendingActiveOid = -1;
+      }
+    }
+    if (activate) {
+      activateFence(fence);
+    }
+  }
 
+  private static void activateFence(LocalGeofence fence) {
+    // A fence made active again is reused from mLoadedFences, so forget its
+    // status from when it was last active.
+    fence.resetStatus();
+    FenceCache.setActiveFence(mContext, fence);
+    GeofenceScheduler.reset();
   }
 
 
@@ -362,60 +522,25 @@ public class MainActivity extends AppCompatActivity {
     ((Activity) mContext).runOnUiThread(new Runnable() {
       @Override
       public void run() {
-        mGoogleClient = new GoogleApiClient.Builder(mContext)
-            .addApi(LocationServices.API)
-            .addConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
-              @Override
-              public void onConnected(Bundle bundle) {
-                Log.i(TAG, "MainActivity.stopServiceByConnectAndRemove.onConnected");
-                mLocationUpdatesStarted = false;
-                // Create a PendingIntent for this GeofenceServiceNormal class
-                // and use it to unregister from location updates.
-                Intent fastIntent = new Intent(MainActivity.ACTION_CHECK_LOCATION,
-                    null, mContext, GeofenceServiceFast.class);
-                PendingIntent fastPendingIntent = PendingIntent.getService(
-                    mContext, 0, fastIntent, 0);
-                final PendingResult<Status> cancelFastResult = LocationServices.FusedLocationApi.removeLocationUpdates(
-                    mGoogleClient, fastPendingIntent);
-
-                cancelFastResult.setResultCallback(new ResultCallback<Status>() {
-                  @Override
-                  public void onResult(Status status) {
-                    Log.i(TAG, "    removeLocationUpdates PendingResult Status:" + status);
-                    final Snackbar snackbar = Snackbar
-                        .make(coordinatorLayout, "Stopped Fast Location Updates", Snackbar.LENGTH_SHORT);
-                    snackbar.show();
-                  }
-                });
-
-                Intent normalIntent = new Intent(MainActivity.ACTION_CHECK_LOCATION,
-                    null, mContext, GeofenceServiceNormal.class);
-                PendingIntent normalPendingIntent = PendingIntent.getService(
-                    mContext, 0, normalIntent, 0);
-                final PendingResult<Status> cancelNormalResult = LocationServices.FusedLocationApi.removeLocationUpdates(mGoogleClient, normalPendingIntent);
-                cancelNormalResult.setResultCallback(new ResultCallback<Status>() {
-                  @Override
-                  public void onResult(Status status) {
-                    Log.i(TAG, "    removeLocationUpdates PendingResult Status:" + status);
-                    final Snackbar snackbar = Snackbar
-                        .make(coordinatorLayout, "Stopped Normal Location Updates", Snackbar.LENGTH_SHORT);
-                    snackbar.show();
-                  }
-                });
-                // Disconnect the client again, no longer required unless user
-                // wants to start updates again.
-                mGoogleClient.disconnect();
-                mGoogleClient = null;
-              }
-
-              @Override
-              public void onConnectionSuspended(int i) {
-
-              }
-            })
-            .build();
-
-        mGoogleClient.connect();
+        mLocationUpdatesStarted = false;
+        LocationUpdatesManager.stopUpdates(mContext);
+        Log.i(TAG, String.format("Location update switches: %d, mean latency: %d ms, max latency: %d ms",
+            LocationUpdatesManager.getSwitchCount(), LocationUpdatesManager.getMeanSwitchLatency(),
+            LocationUpdatesManager.getMaxSwitchLatency()));
+        // Write the metrics on the loader thread, to keep file access off the
+        // UI thread.
+        FenceLoader.submit(new Runnable() {
+          @Override
+          public void run() {
+            File metricsFile = GeofenceMetrics.dump(mContext);
+            if (metricsFile != null) {
+              Log.i(TAG, "Geofence metrics written to " + metricsFile);
+            }
+          }
+        });
+        final Snackbar snackbar = Snackbar
+            .make(coordinatorLayout, "Stopped Location Updates", Snackbar.LENGTH_SHORT);
+        snackbar.show();
       }
     });
   }
@@ -0,0 +1,172 @@
+/* Copyright 2016 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * A copy of the license is available in the repository's
+ * https://github.com/Esri/arcgis-runtime-demos-android/blob/master/license.txt
+ *
+ * For information about licensing your deployed app, see
+ * https://developers.arcgis.com/android/guide/license-your-app.htm
+ *
+ */
+
+package com.esri.runtime.android.localgeofence;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides which fence transitions to notify the user of. At most one
+ * notification is posted for each fence in each time window; transitions
+ * arriving within the window are held back, and when the window has passed
+ * only the latest of them is posted, with the number that were suppressed.
+ * <p>
+ * Times are those of the location updates, so a jittery boundary produces
+ * one notification per window, however many transitions it causes.
+ */
+public class NotificationCoalescer {
+
+  /**
+   * A notification to post for a fence.
+   */
+  public static class Notice {
+    public final long featureOid;
+    public final LocalGeofence.Change change;
+    public final String title;
+    public final String text;
+
+    // Number of earlier transitions for the fence that were not posted.
+    public final int suppressedCount;
+
+    Notice(long featureOid, LocalGeofence.Change change, String title, String text,
+           int suppressedCount) {
+      this.featureOid = featureOid;
+      this.change = change;
+      this.title = title;
+      this.text = text;
+      this.suppressedCount = suppressedCount;
+    }
+  }
+
+  /**
+   * What has been posted for a fence, and the latest transition held back.
+   */
+  private static class FenceState {
+    long postedTime;
+    LocalGeofence.Change postedChange;
+    Notice pending = null;
+    int suppressedCount = 0;
+  }
+
+  private final long mWindow;
+  private final Map<Long, FenceState> mFences = new HashMap<Long, FenceState>();
+  private long mTotalSuppressed = 0;
+
+  /**
+   * @param window  shortest time between notifications for the same fence, in milliseconds
+   */
+  public NotificationCoalescer(long window) {
+    mWindow = window;
+  }
+
+  /**
+   * Offer a transition to be notified.
+   *
+   * @param featureOid  object ID of the fence
+   * @param change  the transition
+   * @param title  notification title
+   * @param text  notification text, may be null
+   * @param time  time of the location update, in milliseconds
+   * @return the notification to post now, or null if it is held back.
+   */
+  public synchronized Notice offer(long featureOid, LocalGeofence.Change change, String title,
+                                   String text, long time) {
+    FenceState state = mFences.get(featureOid);
+    if (state == null) {
+      state = new FenceState();
+      mFences.put(featureOid, state);
+    }
+    else if (time - state.postedTime < mWindow) {
+      // Hold back, replacing any transition already held back.
+      if (state.pending != null) {
+        state.suppressedCount++;
+        mTotalSuppressed++;
+      }
+      state.pending = new Notice(featureOid, change, title, text, 0);
+      return null;
+    }
+    else if (state.pending != null) {
+      // Replaced by this transition before it was due.
+      state.suppressedCount++;
+      mTotalSuppressed++;
+    }
+    Notice notice = new Notice(featureOid, change, title, text, state.suppressedCount);
+    posted(state, notice, time);
+    return notice;
+  }
+
+  /**
+   * Take the held back transitions whose window has passed. A held back
+   * transition that returns the fence to the state last posted is not posted
+   * again, but counts as suppressed.
+   *
+   * @param time  time of the latest location update, in milliseconds
+   * @return the notifications to post now.
+   */
+  public synchronized List<Notice> takeDue(long time) {
+    List<Notice> due = new ArrayList<Notice>();
+    Iterator<Map.Entry<Long, FenceState>> it = mFences.entrySet().iterator();
+    while (it.hasNext()) {
+      FenceState state = it.next().getValue();
+      if (time - state.postedTime < mWindow) {
+        continue;
+      }
+      Notice pending = state.pending;
+      if (pending == null) {
+        // Nothing happened in the window, so forget the fence, unless there
+        // are suppressed transitions still to report with the next notice.
+        if (state.suppressedCount == 0) {
+          it.remove();
+        }
+        continue;
+      }
+      if (pending.change == state.postedChange) {
+        // Back where the user last saw it, so there is nothing new to tell.
+        state.suppressedCount++;
+        mTotalSuppressed++;
+        state.pending = null;
+        continue;
+      }
+      Notice notice = new Notice(pending.featureOid, pending.change, pending.title, pending.text,
+          state.suppressedCount);
+      posted(state, notice, time);
+      due.add(notice);
+    }
+    return due;
+  }
+
+  /**
+   * @return the total number of transitions that were not posted.
+   */
+  public synchronized long getSuppressedCount() {
+    return mTotalSuppressed;
+  }
+
+  private static void posted(FenceState state, Notice notice, long time) {
+    state.postedTime = time;
+    state.postedChange = notice.change;
+    state.pending = null;
+    state.suppressedCount = 0;
+  }
+}
@@ -0,0 +1,665 @@
+/* Copyright 2016 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * A copy of the license is available in the repository's
+ * https://github.com/Esri/arcgis-runtime-demos-android/blob/master/license.txt
+ *
+ * For information about licensing your deployed app, see
+ * https://developers.arcgis.com/android/guide/license-your-app.htm
+ *
+ */
+
+package com.esri.runtime.android.localgeofence;
+
+import com.esri.core.geometry.Envelope;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Polygon;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * A fence polygon prepared for fast point-in-polygon tests. The fence edges
+ * are bucketed into a uniform grid over the fence envelope, and whether the
+ * center of each grid cell is inside the fence is worked out once, up front.
+ * To test a location, only the edges in the location's cell are checked to
+ * see if they cross the line from the cell center to the location - each
+ * crossing flips inside to outside, or back again.
+ * <p>
+ * Where the answer is ambiguous (the location is on or very near an edge or
+ * vertex), UNKNOWN is returned and containsExact should be used instead.
+ * <p>
+ * The same grid is used to find the approximate distance from a WGS84
+ * location to the nearest fence edge, by only looking at edges in the cells
+ * within the search distance.
+ * <p>
+ * The edges and grid are held in buffers. A fence prepared from a polygon
+ * wraps arrays on the heap; one restored from a FenceCache file or added to a
+ * FenceStore reads straight from a mapped or direct buffer instead, outside
+ * the Java heap. Only absolute reads are used, so a prepared fence can be
+ * used from several threads at once.
+ */
+public class PreparedFence {
+
+  // Results of contains().
+  public static final int OUTSIDE = 0;
+  public static final int INSIDE = 1;
+  public static final int UNKNOWN = -1;
+
+  // Length of one degree of latitude, used to convert degrees to approximate meters.
+  static final double METERS_PER_DEGREE = 111319.49;
+
+  // Shortest length of one degree of latitude (at the equator), used where
+  // distances must never be overestimated.
+  static final double MIN_METERS_PER_DEGREE = 110574;
+
+  // Target average number of edges in each grid cell, and the maximum grid size.
+  private static final int EDGES_PER_CELL = 4;
+  private static final int MAX_GRID_SIZE = 1024;
+
+  // Size of the header written by writeTo, padded so the edges that follow
+  // are aligned.
+  private static final int HEADER_BYTES = 64;
+
+  // Fence edges, as ax, ay, bx, by.
+  final DoubleBuffer mEdges;
+  final int mEdgeCount;
+
+  // Grid over the fence envelope.
+  final double mXMin, mYMin, mXMax, mYMax;
+  final int mColumns, mRows;
+  final double mCellWidth, mCellHeight;
+
+  // Edges overlapping each cell; the edges for cell c are
+  // mCellEdges[mCellStart[c]] to mCellEdges[mCellStart[c + 1] - 1].
+  final IntBuffer mCellStart;
+  final IntBuffer mCellEdges;
+
+  // Whether the center of each cell is INSIDE, OUTSIDE or UNKNOWN.
+  private final ByteBuffer mCellCenter;
+
+  /**
+   * Prepare a fence.
+   *
+   * @param fence  the fence geometry, in the same coordinates as the locations
+   *               that will be tested
+   */
+  public PreparedFence(Polygon fence) {
+    double[] edges = readEdges(fence);
+    mEdges = DoubleBuffer.wrap(edges);
+    mEdgeCount = edges.length / 4;
+
+    // Envelope of the edges.
+    double xmin = Double.POSITIVE_INFINITY, ymin = Double.POSITIVE_INFINITY;
+    double xmax = Double.NEGATIVE_INFINITY, ymax = Double.NEGATIVE_INFINITY;
+    for (int e = 0; e < mEdgeCount; e++) {
+      xmin = Math.min(xmin, Math.min(edges[e * 4], edges[e * 4 + 2]));
+      ymin = Math.min(ymin, Math.min(edges[e * 4 + 1], edges[e * 4 + 3]));
+      xmax = Math.max(xmax, Math.max(edges[e * 4], edges[e * 4 + 2]));
+      ymax = Math.max(ymax, Math.max(edges[e * 4 + 1], edges[e * 4 + 3]));
+    }
+    mXMin = xmin;
+    mYMin = ymin;
+    mXMax = xmax;
+    mYMax = ymax;
+
+    // Size the grid so cells are roughly square, and hold a few edges each.
+    double width = Math.max(xmax - xmin, Double.MIN_NORMAL);
+    double height = Math.max(ymax - ymin, Double.MIN_NORMAL);
+    int cells = Math.max(1, mEdgeCount / EDGES_PER_CELL);
+    mColumns = clamp((int) Math.ceil(Math.sqrt(cells * width / height)));
+    mRows = clamp((int) Math.ceil((double) cells / mColumns));
+    mCellWidth = width / mColumns;
+    mCellHeight = height / mRows;
+
+    // Bucket edges into the cells their envelope overlaps - count, then fill.
+    int[] cellStart = new int[mColumns * mRows + 1];
+    for (int e = 0; e < mEdgeCount; e++) {
+      for (int row = rowOf(edgeYMin(e)); row <= rowOf(edgeYMax(e)); row++) {
+        for (int col = columnOf(edgeXMin(e)); col <= columnOf(edgeXMax(e)); col++) {
+          cellStart[row * mColumns + col + 1]++;
+        }
+      }
+    }
+    for (int c = 0; c < mColumns * mRows; c++) {
+      cellStart[c + 1] += cellStart[c];
+    }
+    int[] cellEdges = new int[cellStart[mColumns * mRows]];
+    int[] fill = Arrays.copyOf(cellStart, mColumns * mRows);
+    for (int e = 0; e < mEdgeCount; e++) {
+      for (int row = rowOf(edgeYMin(e)); row <= rowOf(edgeYMax(e)); row++) {
+        for (int col = columnOf(edgeXMin(e)); col <= columnOf(edgeXMax(e)); col++) {
+          cellEdges[fill[row * mColumns + col]++] = e;
+        }
+      }
+    }
+    mCellStart = IntBuffer.wrap(cellStart);
+    mCellEdges = IntBuffer.wrap(cellEdges);
+
+    mCellCenter = ByteBuffer.wrap(new byte[mColumns * mRows]);
+    int[] seenInRow = new int[mEdgeCount];
+    Arrays.fill(seenInRow, -1);
+    for (int row = 0; row < mRows; row++) {
+      classifyRowCenters(row, seenInRow);
+    }
+  }
+
+  /**
+   * Restore a fence prepared earlier, from the buffer written by writeTo. The
+   * buffer is read from directly, not copied, so must not be changed.
+   *
+   * @param buffer  buffer positioned at the start of the prepared fence; on
+   *                return it is positioned just after it
+   */
+  PreparedFence(ByteBuffer buffer) {
+    mXMin = buffer.getDouble();
+    mYMin = buffer.getDouble();
+    mXMax = buffer.getDouble();
+    mYMax = buffer.getDouble();
+    mColumns = buffer.getInt();
+    mRows = buffer.getInt();
+    mCellWidth = buffer.getDouble();
+    mCellHeight = buffer.getDouble();
+    mEdgeCount = buffer.getInt();
+    buffer.getInt(); // Padding.
+
+    mEdges = slice(buffer, mEdgeCount * 4 * 8).asDoubleBuffer();
+    mCellStart = slice(buffer, (mColumns * mRows + 1) * 4).asIntBuffer();
+    mCellEdges = slice(buffer, mCellStart.get(mColumns * mRows) * 4).asIntBuffer();
+    mCellCenter = slice(buffer, mColumns * mRows);
+  }
+
+  /**
+   * @return the number of bytes written by writeTo.
+   */
+  int byteSize() {
+    return HEADER_BYTES + mEdgeCount * 4 * 8 + (mColumns * mRows + 1) * 4
+        + mCellEdges.limit() * 4 + mColumns * mRows;
+  }
+
+  /**
+   * Write the prepared fence, so it can be restored without preparing it again.
+   */
+  void writeTo(DataOutputStream out) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(byteSize());
+    writeTo(buffer);
+    out.write(buffer.array());
+  }
+
+  /**
+   * Write the prepared fence into a buffer, in the buffer's byte order.
+   */
+  void writeTo(ByteBuffer buffer) {
+    buffer.putDouble(mXMin);
+    buffer.putDouble(mYMin);
+    buffer.putDouble(mXMax);
+    buffer.putDouble(mYMax);
+    buffer.putInt(mColumns);
+    buffer.putInt(mRows);
+    buffer.putDouble(mCellWidth);
+    buffer.putDouble(mCellHeight);
+    buffer.putInt(mEdgeCount);
+    buffer.putInt(0); // Padding.
+
+    for (int i = 0; i < mEdgeCount * 4; i++) {
+      buffer.putDouble(mEdges.get(i));
+    }
+    for (int i = 0; i < mCellStart.limit(); i++) {
+      buffer.putInt(mCellStart.get(i));
+    }
+    for (int i = 0; i < mCellEdges.limit(); i++) {
+      buffer.putInt(mCellEdges.get(i));
+    }
+    for (int i = 0; i < mCellCenter.limit(); i++) {
+      buffer.put(mCellCenter.get(i));
+    }
+  }
+
+  /**
+   * @return a buffer over the next bytes of a buffer, in the same byte order,
+   * moving the buffer past them.
+   */
+  private static ByteBuffer slice(ByteBuffer buffer, int bytes) {
+    ByteBuffer slice = buffer.slice().order(buffer.order());
+    slice.limit(bytes);
+    buffer.position(buffer.position() + bytes);
+    return slice;
+  }
+
+  /**
+   * Find out if a location is inside the fence.
+   *
+   * @return INSIDE, OUTSIDE, or UNKNOWN if the location is too close to the
+   * fence boundary to be sure.
+   */
+  public int contains(double x, double y) {
+    if (mEdgeCount == 0 || x < mXMin || x > mXMax || y < mYMin || y > mYMax) {
+      return OUTSIDE;
+    }
+    int row = rowOf(y);
+    int col = columnOf(x);
+    int cell = row * mColumns + col;
+    byte center = mCellCenter.get(cell);
+    if (center == UNKNOWN) {
+      return UNKNOWN;
+    }
+    double cx = mXMin + (col + 0.5) * mCellWidth;
+    double cy = mYMin + (row + 0.5) * mCellHeight;
+
+    // Count edges crossing the line from the cell center to the location.
+    boolean inside = center == INSIDE;
+    int end = mCellStart.get(cell + 1);
+    for (int i = mCellStart.get(cell); i < end; i++) {
+      int e = mCellEdges.get(i) * 4;
+      double ax = mEdges.get(e), ay = mEdges.get(e + 1);
+      double bx = mEdges.get(e + 2), by = mEdges.get(e + 3);
+      int o1 = orientation(ax, ay, bx, by, cx, cy);
+      int o2 = orientation(ax, ay, bx, by, x, y);
+      int o3 = orientation(cx, cy, x, y, ax, ay);
+      int o4 = orientation(cx, cy, x, y, bx, by);
+      if (o1 == 0 || o2 == 0 || o3 == 0 || o4 == 0) {
+        // Touching or collinear - can't tell reliably.
+        return UNKNOWN;
+      }
+      if (o1 != o2 && o3 != o4) {
+        inside = !inside;
+      }
+    }
+    return inside ? INSIDE : OUTSIDE;
+  }
+
+  /**
+   * Find out if a location is inside the fence, by casting a ray from the
+   * location along its row of cells and counting the edges crossing it. This
+   * is slower than contains, but always gives an answer. A location exactly on
+   * the boundary may be either inside or outside.
+   *
+   * @return true if the location is inside the fence, otherwise false.
+   */
+  public boolean containsExact(double x, double y) {
+    if (mEdgeCount == 0 || x < mXMin || x > mXMax || y < mYMin || y > mYMax) {
+      return false;
+    }
+    int row = rowOf(y);
+    boolean inside = false;
+    for (int col = columnOf(x); col < mColumns; col++) {
+      int cell = row * mColumns + col;
+      int end = mCellStart.get(cell + 1);
+      for (int i = mCellStart.get(cell); i < end; i++) {
+        int e = mCellEdges.get(i) * 4;
+        double ax = mEdges.get(e), ay = mEdges.get(e + 1);
+        double bx = mEdges.get(e + 2), by = mEdges.get(e + 3);
+        if ((ay > y) == (by > y)) {
+          continue;
+        }
+        // Edges spanning several cells are in each of them, so only count the
+        // crossing in the cell it falls in.
+        double crossing = Math.max(Math.min(ax, bx),
+            Math.min(Math.max(ax, bx), ax + (y - ay) * (bx - ax) / (by - ay)));
+        if (crossing >= x && columnOf(crossing) == col) {
+          inside = !inside;
+        }
+      }
+    }
+    return inside;
+  }
+
+  /**
+   * Find the point on the fence boundary nearest to a WGS84 location, within
+   * a search distance. As with nearestEdgeMeters, the nearest point is found
+   * on a plane tangent at the location.
+   *
+   * @param x  longitude of the location
+   * @param y  latitude of the location
+   * @param searchMeters  only edges within this distance are looked at
+   * @param nearest  receives the longitude and latitude of the nearest point
+   * @return true if a point was found within the search distance, otherwise false.
+   */
+  public boolean nearestPoint(double x, double y, double searchMeters, double[] nearest) {
+    double metersPerDegreeX = METERS_PER_DEGREE * Math.cos(Math.toRadians(y));
+    double rx = searchMeters / Math.max(metersPerDegreeX, 1);
+    double ry = searchMeters / METERS_PER_DEGREE;
+    if (mEdgeCount == 0 || x + rx < mXMin || x - rx > mXMax || y + ry < mYMin || y - ry > mYMax) {
+      return false;
+    }
+
+    double nearestDistance = Double.POSITIVE_INFINITY;
+    int colTo = columnOf(x + rx);
+    int rowTo = rowOf(y + ry);
+    for (int row = rowOf(y - ry); row <= rowTo; row++) {
+      for (int col = columnOf(x - rx); col <= colTo; col++) {
+        int cell = row * mColumns + col;
+        int end = mCellStart.get(cell + 1);
+        for (int i = mCellStart.get(cell); i < end; i++) {
+          int e = mCellEdges.get(i) * 4;
+          double ax = (mEdges.get(e) - x) * metersPerDegreeX;
+          double ay = (mEdges.get(e + 1) - y) * METERS_PER_DEGREE;
+          double dx = (mEdges.get(e + 2) - x) * metersPerDegreeX - ax;
+          double dy = (mEdges.get(e + 3) - y) * METERS_PER_DEGREE - ay;
+          double lengthSquared = dx * dx + dy * dy;
+          double t = (lengthSquared > 0) ? -(ax * dx + ay * dy) / lengthSquared : 0;
+          t = Math.max(0, Math.min(1, t));
+          double d = Math.hypot(ax + t * dx, ay + t * dy);
+          if (d < nearestDistance) {
+            nearestDistance = d;
+            nearest[0] = mEdges.get(e) + t * (mEdges.get(e + 2) - mEdges.get(e));
+            nearest[1] = mEdges.get(e + 1) + t * (mEdges.get(e + 3) - mEdges.get(e + 1));
+          }
+        }
+      }
+    }
+    return nearestDistance <= searchMeters;
+  }
+
+  /**
+   * Project the fence edges onto a local projection, for measuring distances
+   * on a plane with nearestEdgeProjected.
+   *
+   * @return the projected edges, as ax, ay, bx, by in meters, outside the
+   * Java heap.
+   */
+  public DoubleBuffer projectEdges(LocalProjection projection) {
+    DoubleBuffer projectedEdges = ByteBuffer.allocateDirect(mEdgeCount * 4 * 8)
+        .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+    double[] projected = new double[2];
+    for (int e = 0; e < mEdgeCount * 4; e += 2) {
+      projection.project(mEdges.get(e), mEdges.get(e + 1), projected);
+      projectedEdges.put(e, projected[0]);
+      projectedEdges.put(e + 1, projected[1]);
+    }
+    return projectedEdges;
+  }
+
+  /**
+   * Find the distance from a WGS84 location to the nearest fence edge, within
+   * a search distance, measured on a local projection. The grid is used to
+   * find the edges to look at, and the distance to each is measured between
+   * the projected location and the projected edge.
+   *
+   * @param x  longitude of the location
+   * @param y  latitude of the location
+   * @param searchMeters  only edges within this distance are looked at
+   * @param projection  the local projection
+   * @param projectedEdges  the edges, projected by projectEdges
+   * @param projected  scratch array of two values, receives the projected location
+   * @return the distance in meters, or positive infinity if no edge is within
+   * the search distance.
+   */
+  public double nearestEdgeProjected(double x, double y, double searchMeters,
+                                     LocalProjection projection, DoubleBuffer projectedEdges,
+                                     double[] projected) {
+    // Degrees of longitude are never longer than at the equator, and degrees
+    // of latitude never shorter, so the search covers the whole distance.
+    double metersPerDegreeX = METERS_PER_DEGREE * Math.cos(Math.toRadians(y));
+    double rx = searchMeters / Math.max(metersPerDegreeX, 1);
+    double ry = searchMeters / MIN_METERS_PER_DEGREE;
+    if (mEdgeCount == 0 || x + rx < mXMin || x - rx > mXMax || y + ry < mYMin || y - ry > mYMax) {
+      return Double.POSITIVE_INFINITY;
+    }
+
+    projection.project(x, y, projected);
+    double px = projected[0];
+    double py = projected[1];
+    double nearest = Double.POSITIVE_INFINITY;
+    int colTo = columnOf(x + rx);
+    int rowTo = rowOf(y + ry);
+    for (int row = rowOf(y - ry); row <= rowTo; row++) {
+      for (int col = columnOf(x - rx); col <= colTo; col++) {
+        int cell = row * mColumns + col;
+        int end = mCellStart.get(cell + 1);
+        for (int i = mCellStart.get(cell); i < end; i++) {
+          int e = mCellEdges.get(i) * 4;
+          double d = segmentDistance(
+              projectedEdges.get(e) - px, projectedEdges.get(e + 1) - py,
+              projectedEdges.get(e + 2) - px, projectedEdges.get(e + 3) - py);
+          nearest = Math.min(nearest, d);
+        }
+      }
+    }
+    // Only short distances are measured, so the scale factor at the location
+    // holds for the whole distance.
+    nearest /= projection.scaleFactor(px);
+    return (nearest <= searchMeters) ? nearest : Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   * @return the number of fence edges.
+   */
+  public int getEdgeCount() {
+    return mEdgeCount;
+  }
+
+  /**
+   * @return a hash of the fence coordinates, which changes whenever the
+   * fence geometry does.
+   */
+  public long contentHash() {
+    long hash = mEdgeCount;
+    for (int i = 0; i < mEdgeCount * 4; i++) {
+      hash = 31 * hash + Double.doubleToLongBits(mEdges.get(i));
+    }
+    return hash;
+  }
+
+  /**
+   * Get the envelope of the fence.
+   */
+  public void queryEnvelope(Envelope envelope) {
+    envelope.setCoords(mXMin, mYMin, mXMax, mYMax);
+  }
+
+  /**
+   * Find the approximate distance from a WGS84 location to the nearest fence
+   * edge. Distances are calculated on a plane tangent at the location, so are
+   * only accurate to within a fraction of a percent at short distances.
+   *
+   * @param x  longitude of the location
+   * @param y  latitude of the location
+   * @param searchMeters  only edges within this distance are looked at
+   * @return the approximate distance in meters, or Double.POSITIVE_INFINITY
+   * if there is no edge within the search distance.
+   */
+  public double nearestEdgeMeters(double x, double y, double searchMeters) {
+    double metersPerDegreeX = METERS_PER_DEGREE * Math.cos(Math.toRadians(y));
+    double rx = searchMeters / Math.max(metersPerDegreeX, 1);
+    double ry = searchMeters / METERS_PER_DEGREE;
+    if (mEdgeCount == 0 || x + rx < mXMin || x - rx > mXMax || y + ry < mYMin || y - ry > mYMax) {
+      return Double.POSITIVE_INFINITY;
+    }
+
+    double nearest = Double.POSITIVE_INFINITY;
+    int colTo = columnOf(x + rx);
+    int rowTo = rowOf(y + ry);
+    for (int row = rowOf(y - ry); row <= rowTo; row++) {
+      for (int col = columnOf(x - rx); col <= colTo; col++) {
+        int cell = row * mColumns + col;
+        int end = mCellStart.get(cell + 1);
+        for (int i = mCellStart.get(cell); i < end; i++) {
+          int e = mCellEdges.get(i) * 4;
+          double d = segmentDistance(
+              (mEdges.get(e) - x) * metersPerDegreeX, (mEdges.get(e + 1) - y) * METERS_PER_DEGREE,
+              (mEdges.get(e + 2) - x) * metersPerDegreeX, (mEdges.get(e + 3) - y) * METERS_PER_DEGREE);
+          nearest = Math.min(nearest, d);
+        }
+      }
+    }
+    return (nearest <= searchMeters) ? nearest : Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Find a lower bound of the distance from a WGS84 location to the fence
+   * envelope.
+   *
+   * @return the distance in meters, or 0 if the location is within the envelope.
+   */
+  public double envelopeDistanceMeters(double x, double y) {
+    double dx = Math.max(0, Math.max(mXMin - x, x - mXMax));
+    double dy = Math.max(0, Math.max(mYMin - y, y - mYMax));
+    if (dx == 0 && dy == 0) {
+      return 0;
+    }
+    // Use the latitude nearest a pole, where degrees of longitude are shortest.
+    double maxLat = Math.min(90, Math.max(Math.abs(y), Math.max(Math.abs(mYMin), Math.abs(mYMax))));
+    return Math.hypot(dx * MIN_METERS_PER_DEGREE * Math.cos(Math.toRadians(maxLat)),
+        dy * MIN_METERS_PER_DEGREE);
+  }
+
+  /**
+   * @return the approximate size of the smaller side of a grid cell, in meters,
+   * at a given latitude.
+   */
+  public double cellSizeMeters(double y) {
+    return Math.min(mCellWidth * METERS_PER_DEGREE * Math.cos(Math.toRadians(y)),
+        mCellHeight * METERS_PER_DEGREE);
+  }
+
+  /**
+   * @return the distance from the origin to the segment from a to b.
+   */
+  static double segmentDistance(double ax, double ay, double bx, double by) {
+    double dx = bx - ax;
+    double dy = by - ay;
+    double lengthSquared = dx * dx + dy * dy;
+    double t = (lengthSquared > 0) ? -(ax * dx + ay * dy) / lengthSquared : 0;
+    t = Math.max(0, Math.min(1, t));
+    return Math.hypot(ax + t * dx, ay + t * dy);
+  }
+
+  /**
+   * Work out whether the center of each cell in a row is inside the fence, by
+   * casting a ray along the row through all of the cell centers.
+   *
+   * @param seenInRow  for each edge, the last row it was checked for
+   */
+  private void classifyRowCenters(int row, int[] seenInRow) {
+    double cy = mYMin + (row + 0.5) * mCellHeight;
+
+    // Every edge crossing the row center line is in one of the row's cells.
+    double[] crossings = new double[16];
+    int crossingCount = 0;
+    for (int cell = row * mColumns; cell < (row + 1) * mColumns; cell++) {
+      for (int i = mCellStart.get(cell); i < mCellStart.get(cell + 1); i++) {
+        int e = mCellEdges.get(i);
+        if (seenInRow[e] == row) {
+          continue;
+        }
+        seenInRow[e] = row;
+        double ax = mEdges.get(e * 4), ay = mEdges.get(e * 4 + 1);
+        double bx = mEdges.get(e * 4 + 2), by = mEdges.get(e * 4 + 3);
+        if ((ay > cy) != (by > cy)) {
+          if (crossingCount == crossings.length) {
+            crossings = Arrays.copyOf(crossings, crossingCount * 2);
+          }
+          crossings[crossingCount++] = ax + (cy - ay) * (bx - ax) / (by - ay);
+        }
+      }
+    }
+    Arrays.sort(crossings, 0, crossingCount);
+
+    // Walk along the row, counting crossings to the left of each center.
+    int left = 0;
+    for (int col = 0; col < mColumns; col++) {
+      double cx = mXMin + (col + 0.5) * mCellWidth;
+      while (left < crossingCount && crossings[left] < cx) {
+        left++;
+      }
+      byte center = (left % 2 == 1) ? (byte) INSIDE : (byte) OUTSIDE;
+      if ((left < crossingCount && crossings[left] == cx) || onEdgeLine(row * mColumns + col, cx, cy)) {
+        center = (byte) UNKNOWN;
+      }
+      mCellCenter.put(row * mColumns + col, center);
+    }
+  }
+
+  /**
+   * @return true if a cell center lies on the line through any edge in the cell.
+   */
+  private boolean onEdgeLine(int cell, double cx, double cy) {
+    for (int i = mCellStart.get(cell); i < mCellStart.get(cell + 1); i++) {
+      int e = mCellEdges.get(i) * 4;
+      if (orientation(mEdges.get(e), mEdges.get(e + 1), mEdges.get(e + 2), mEdges.get(e + 3),
+          cx, cy) == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the sign of the cross product (b - a) x (c - a): positive if c is
+   * to the left of the line from a to b, negative if to the right.
+   */
+  static int orientation(double ax, double ay, double bx, double by, double cx, double cy) {
+    double cross = (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+    return cross > 0 ? 1 : (cross < 0 ? -1 : 0);
+  }
+
+  /**
+   * Read the edges of all rings of a polygon, skipping zero length edges.
+   * Rings are closed implicitly, from the last vertex back to the first.
+   */
+  private static double[] readEdges(Polygon fence) {
+    int pointCount = fence.getPointCount();
+    double[] edges = new double[pointCount * 4];
+    int count = 0;
+    for (int path = 0; path < fence.getPathCount(); path++) {
+      int start = fence.getPathStart(path);
+      int end = fence.getPathEnd(path);
+      for (int i = start; i < end; i++) {
+        Point a = fence.getPoint(i);
+        Point b = fence.getPoint((i + 1 < end) ? i + 1 : start);
+        if (a.getX() == b.getX() && a.getY() == b.getY()) {
+          continue;
+        }
+        edges[count * 4] = a.getX();
+        edges[count * 4 + 1] = a.getY();
+        edges[count * 4 + 2] = b.getX();
+        edges[count * 4 + 3] = b.getY();
+        count++;
+      }
+    }
+    return Arrays.copyOf(edges, count * 4);
+  }
+
+  int columnOf(double x) {
+    return Math.max(0, Math.min(mColumns - 1, (int) ((x - mXMin) / mCellWidth)));
+  }
+
+  int rowOf(double y) {
+    return Math.max(0, Math.min(mRows - 1, (int) ((y - mYMin) / mCellHeight)));
+  }
+
+  double edgeXMin(int e) {
+    return Math.min(mEdges.get(e * 4), mEdges.get(e * 4 + 2));
+  }
+
+  double edgeXMax(int e) {
+    return Math.max(mEdges.get(e * 4), mEdges.get(e * 4 + 2));
+  }
+
+  double edgeYMin(int e) {
+    return Math.min(mEdges.get(e * 4 + 1), mEdges.get(e * 4 + 3));
+  }
+
+  double edgeYMax(int e) {
+    return Math.max(mEdges.get(e * 4 + 1), mEdges.get(e * 4 + 3));
+  }
+
+  private static int clamp(int gridSize) {
+    return Math.max(1, Math.min(MAX_GRID_SIZE, gridSize));
+  }
+}
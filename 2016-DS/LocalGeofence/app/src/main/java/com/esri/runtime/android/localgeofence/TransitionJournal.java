@@ -0,0 +1,475 @@
+/* Copyright 2016 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * A copy of the license is available in the repository's
+ * https://github.com/Esri/arcgis-runtime-demos-android/blob/master/license.txt
+ *
+ * For information about licensing your deployed app, see
+ * https://developers.arcgis.com/android/guide/license-your-app.htm
+ *
+ */
+
+package com.esri.runtime.android.localgeofence;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An append-only journal of fence transitions, in app-private storage.
+ * <p>
+ * Each transition is a fixed-width binary record, so the journal can be read
+ * back by memory-mapping it, without parsing. Appending only copies the
+ * record into a buffer in memory; a background thread writes the buffer out
+ * in batches, and syncs the file to storage periodically, so the geofence
+ * services are never blocked on storage. If the buffer fills faster than it
+ * can be written, transitions are dropped and counted rather than blocking.
+ * <p>
+ * The journal is split into segment files of a fixed number of records. When
+ * a segment is full a new one is started, and the oldest segments are deleted
+ * so the journal never grows beyond a fixed size.
+ */
+public class TransitionJournal {
+
+  private static final String TAG = TransitionJournal.class.getSimpleName();
+
+  private static final String DIRECTORY_NAME = "transitions";
+  private static final String SEGMENT_PREFIX = "transitions-";
+  private static final String SEGMENT_SUFFIX = ".bin";
+
+  // Record layout: time, fence OID, longitude, latitude, status, change, padding.
+  static final int RECORD_BYTES = 40;
+  private static final int STATUS_OFFSET = 32;
+  private static final int CHANGE_OFFSET = 33;
+
+  // Default number of records in each segment, and number of segments kept.
+  protected static int SEGMENT_RECORDS = 16384;
+  protected static int MAX_SEGMENTS = 8;
+
+  // Number of records held in memory waiting to be written.
+  protected static int BUFFER_RECORDS = 8192;
+
+  // How often buffered records are written out, and the file synced to storage.
+  protected static long WRITE_INTERVAL = 200; // Milliseconds
+  protected static long SYNC_INTERVAL = 5000; // Milliseconds
+
+  private static TransitionJournal sInstance = null;
+
+  /**
+   * A transition read back from the journal.
+   */
+  public static class Entry {
+    public final long time;
+    public final long featureOid;
+    public final LocalGeofence.Status status;
+    public final LocalGeofence.Change change;
+    public final double longitude;
+    public final double latitude;
+
+    Entry(long time, long featureOid, LocalGeofence.Status status, LocalGeofence.Change change,
+          double longitude, double latitude) {
+      this.time = time;
+      this.featureOid = featureOid;
+      this.status = status;
+      this.change = change;
+      this.longitude = longitude;
+      this.latitude = latitude;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d %d %s %s %.6f %.6f", time, featureOid, status, change,
+          longitude, latitude);
+    }
+  }
+
+  private final File mDirectory;
+  private final int mSegmentRecords;
+  private final int mMaxSegments;
+
+  // Records appended but not yet written, and a second buffer to swap with it
+  // while writing. Guarded by this.
+  private ByteBuffer mPending;
+  private ByteBuffer mWriting;
+  private long mDroppedCount = 0;
+  private long mAppendedCount = 0;
+
+  // The segment being appended to, and how many records it holds. Guarded by
+  // mWriteLock, and only used by whichever thread is writing.
+  private final Object mWriteLock = new Object();
+  private FileChannel mChannel = null;
+  private int mSegmentIndex = -1;
+  private long mSegmentRecordCount = 0;
+  private long mLastSyncTime = 0;
+  private boolean mClosed = false;
+
+  private final ScheduledExecutorService mWriter;
+
+  /**
+   * Get the journal kept in app-private storage, opening it if needed.
+   */
+  public static synchronized TransitionJournal getInstance(Context context) {
+    if (sInstance == null) {
+      sInstance = new TransitionJournal(new File(context.getFilesDir(), DIRECTORY_NAME),
+          SEGMENT_RECORDS, MAX_SEGMENTS);
+    }
+    return sInstance;
+  }
+
+  /**
+   * Open a journal in a directory, creating it if needed.
+   *
+   * @param directory  directory holding the segment files
+   * @param segmentRecords  number of records in each segment
+   * @param maxSegments  number of segments kept, including the one being appended to
+   */
+  TransitionJournal(File directory, int segmentRecords, int maxSegments) {
+    mDirectory = directory;
+    mSegmentRecords = segmentRecords;
+    mMaxSegments = Math.max(1, maxSegments);
+    mPending = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_BYTES)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    mWriting = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_BYTES)
+        .order(ByteOrder.LITTLE_ENDIAN);
+
+    mWriter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, TAG);
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    mWriter.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        write(false);
+      }
+    }, WRITE_INTERVAL, WRITE_INTERVAL, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Record a transition. This never blocks on storage, so can be called from
+   * the geofence services for every transition.
+   *
+   * @param time  time of the location update, in milliseconds
+   * @param featureOid  object ID of the fence
+   * @param status  status of the location relative to the fence
+   * @param change  how the status changed
+   * @param longitude  longitude of the location update
+   * @param latitude  latitude of the location update
+   * @return true if the transition was recorded, or false if it was dropped
+   * because too many are waiting to be written.
+   */
+  public synchronized boolean append(long time, long featureOid, LocalGeofence.Status status,
+                                     LocalGeofence.Change change, double longitude,
+                                     double latitude) {
+    if (mPending.remaining() < RECORD_BYTES) {
+      mDroppedCount++;
+      return false;
+    }
+    ByteBuffer record = mPending;
+    record.putLong(time);
+    record.putLong(featureOid);
+    record.putDouble(longitude);
+    record.putDouble(latitude);
+    record.put((byte) status.ordinal());
+    record.put((byte) change.ordinal());
+    record.position(record.position() + RECORD_BYTES - CHANGE_OFFSET - 1);
+    mAppendedCount++;
+
+    // Write early, rather than wait, once the buffer is half full.
+    if (mPending.position() == mPending.capacity() / 2) {
+      mWriter.execute(new Runnable() {
+        @Override
+        public void run() {
+          write(false);
+        }
+      });
+    }
+    return true;
+  }
+
+  /**
+   * @return the number of transitions dropped because the buffer was full.
+   */
+  public synchronized long getDroppedCount() {
+    return mDroppedCount;
+  }
+
+  /**
+   * @return the number of transitions recorded since the journal was opened.
+   */
+  public synchronized long getAppendedCount() {
+    return mAppendedCount;
+  }
+
+  /**
+   * Write out all recorded transitions, and sync them to storage. This blocks
+   * on storage, so should not be called on the UI thread.
+   */
+  public void sync() {
+    write(true);
+  }
+
+  /**
+   * Write out and sync all recorded transitions, and close the journal.
+   */
+  public void close() {
+    mWriter.shutdown();
+    try {
+      mWriter.awaitTermination(SYNC_INTERVAL, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (mWriteLock) {
+      write(true);
+      mClosed = true;
+      closeSegment();
+    }
+    synchronized (TransitionJournal.class) {
+      if (sInstance == this) {
+        sInstance = null;
+      }
+    }
+  }
+
+  /**
+   * Find the transitions in a time range, oldest first. Recorded transitions
+   * are written out first, so the results include all of them.
+   *
+   * @param fromTime  earliest time, in milliseconds, inclusive
+   * @param toTime  latest time, in milliseconds, exclusive
+   * @param featureOid  object ID of the fence, or -1 for all fences
+   * @return  the transitions found
+   */
+  public List<Entry> query(long fromTime, long toTime, long featureOid) {
+    List<Entry> entries = new ArrayList<Entry>();
+    synchronized (mWriteLock) {
+      write(false);
+      for (int index : listSegments()) {
+        ByteBuffer segment = mapSegment(index);
+        if (segment == null) {
+          continue;
+        }
+        for (int offset = 0; offset + RECORD_BYTES <= segment.limit(); offset += RECORD_BYTES) {
+          long time = segment.getLong(offset);
+          if (time < fromTime || time >= toTime) {
+            continue;
+          }
+          if (featureOid != -1 && segment.getLong(offset + 8) != featureOid) {
+            continue;
+          }
+          entries.add(readEntry(segment, offset));
+        }
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * Get the most recent transitions, oldest first. As records are a fixed
+   * width, only the end of the journal is read.
+   *
+   * @param count  number of transitions wanted
+   * @return  up to count transitions
+   */
+  public List<Entry> getRecent(int count) {
+    List<Entry> entries = new ArrayList<Entry>();
+    synchronized (mWriteLock) {
+      write(false);
+      List<Integer> segments = listSegments();
+      for (int i = segments.size() - 1; i >= 0 && entries.size() < count; i--) {
+        ByteBuffer segment = mapSegment(segments.get(i));
+        if (segment == null) {
+          continue;
+        }
+        int records = segment.limit() / RECORD_BYTES;
+        for (int r = records - 1; r >= 0 && entries.size() < count; r--) {
+          entries.add(readEntry(segment, r * RECORD_BYTES));
+        }
+      }
+    }
+    Collections.reverse(entries);
+    return entries;
+  }
+
+  /**
+   * Write out the pending records, starting new segments as needed, and sync
+   * to storage if asked to or if it is time to.
+   */
+  private void write(boolean sync) {
+    synchronized (mWriteLock) {
+      if (mClosed) {
+        return;
+      }
+      // Swap buffers, so appending can carry on while writing.
+      ByteBuffer writing;
+      synchronized (this) {
+        writing = mPending;
+        mPending = mWriting;
+        mWriting = writing;
+      }
+      writing.flip();
+      try {
+        while (writing.hasRemaining()) {
+          if (mChannel == null || mSegmentRecordCount >= mSegmentRecords) {
+            openNextSegment();
+          }
+          long room = (mSegmentRecords - mSegmentRecordCount) * RECORD_BYTES;
+          int end = writing.limit();
+          writing.limit((int) Math.min(end, writing.position() + room));
+          int written = writing.remaining();
+          while (writing.hasRemaining()) {
+            mChannel.write(writing);
+          }
+          writing.limit(end);
+          mSegmentRecordCount += written / RECORD_BYTES;
+        }
+        long now = System.currentTimeMillis();
+        if (mChannel != null && (sync || now - mLastSyncTime >= SYNC_INTERVAL)) {
+          mChannel.force(false);
+          mLastSyncTime = now;
+        }
+      } catch (IOException e) {
+        Log.w(TAG, "Could not write transitions", e);
+        closeSegment();
+      } finally {
+        writing.clear();
+      }
+    }
+  }
+
+  /**
+   * Open the latest segment if it has room, otherwise start a new one and
+   * delete the oldest segments beyond the maximum.
+   */
+  private void openNextSegment() throws IOException {
+    if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+      throw new IOException("Could not create " + mDirectory);
+    }
+    List<Integer> segments = listSegments();
+    if (mSegmentIndex < 0 && !segments.isEmpty()) {
+      // Carry on with the last segment written, ignoring any partial record.
+      mSegmentIndex = segments.get(segments.size() - 1);
+    }
+    else {
+      closeSegment();
+      mSegmentIndex++;
+    }
+
+    RandomAccessFile file = new RandomAccessFile(segmentFile(mSegmentIndex), "rw");
+    long records = file.length() / RECORD_BYTES;
+    if (records >= mSegmentRecords) {
+      file.close();
+      mSegmentIndex++;
+      file = new RandomAccessFile(segmentFile(mSegmentIndex), "rw");
+      records = 0;
+    }
+    file.setLength(records * RECORD_BYTES);
+    mChannel = file.getChannel();
+    mChannel.position(records * RECORD_BYTES);
+    mSegmentRecordCount = records;
+
+    for (int index : listSegments()) {
+      if (index <= mSegmentIndex - mMaxSegments) {
+        segmentFile(index).delete();
+      }
+    }
+  }
+
+  private void closeSegment() {
+    if (mChannel != null) {
+      try {
+        mChannel.force(false);
+        mChannel.close();
+      } catch (IOException e) {
+        Log.w(TAG, "Could not close transitions", e);
+      }
+      mChannel = null;
+    }
+  }
+
+  private ByteBuffer mapSegment(int index) {
+    try {
+      RandomAccessFile file = new RandomAccessFile(segmentFile(index), "r");
+      try {
+        FileChannel channel = file.getChannel();
+        long size = channel.size() / RECORD_BYTES * RECORD_BYTES;
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+      } finally {
+        file.close();
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Could not read transitions", e);
+      return null;
+    }
+  }
+
+  private static Entry readEntry(ByteBuffer segment, int offset) {
+    LocalGeofence.Status[] statuses = LocalGeofence.Status.values();
+    LocalGeofence.Change[] changes = LocalGeofence.Change.values();
+    int status = segment.get(offset + STATUS_OFFSET);
+    int change = segment.get(offset + CHANGE_OFFSET);
+    return new Entry(segment.getLong(offset), segment.getLong(offset + 8),
+        (status >= 0 && status < statuses.length) ? statuses[status] : LocalGeofence.Status.UNKNOWN,
+        (change >= 0 && change < changes.length) ? changes[change] : null,
+        segment.getDouble(offset + 16), segment.getDouble(offset + 24));
+  }
+
+  /**
+   * @return the indexes of the segment files, in ascending order.
+   */
+  private List<Integer> listSegments() {
+    String[] names = mDirectory.list(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+      }
+    });
+    List<Integer> segments = new ArrayList<Integer>();
+    if (names == null) {
+      return segments;
+    }
+    for (String name : names) {
+      try {
+        segments.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+            name.length() - SEGMENT_SUFFIX.length())));
+      } catch (NumberFormatException e) {
+        // Not a segment.
+      }
+    }
+    Collections.sort(segments);
+    return segments;
+  }
+
+  private File segmentFile(int index) {
+    return new File(mDirectory, SEGMENT_PREFIX + index + SEGMENT_SUFFIX);
+  }
+}
@@ -0,0 +1,272 @@
+/* Copyright 2016 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * A copy of the license is available in the repository's
+ * https://github.com/Esri/arcgis-runtime-demos-android/blob/master/license.txt
+ *
+ * For information about licensing your deployed app, see
+ * https://developers.arcgis.com/android/guide/license-your-app.htm
+ *
+ */
+
+package com.esri.runtime.android.localgeofence;
+
+import com.google.android.gms.location.LocationRequest;
+
+/**
+ * Works out the location update rate to ask for, from how far the device is
+ * from where its fence status could change, how fast it is moving, and
+ * whether it is heading towards the fence boundary or away from it.
+ * <p>
+ * The interval is set so that several updates arrive in the time it would
+ * take the device to reach the boundary, between FAST_UPDATE_INTERVAL and
+ * MAX_UPDATE_INTERVAL. High accuracy is only used when updates are frequent,
+ * as that is when the device is near the boundary, and once used is kept until
+ * updates are a good deal less frequent.
+ */
+public class UpdateRateController {
+
+  // Bounds for the plausible speed of the device, and the factor applied to
+  // its measured speed, as in GeofenceScheduler. When the device is heading
+  // away from the boundary, its speed is scaled down by AWAY_SPEED_FACTOR, but
+  // not below MIN_PLAUSIBLE_SPEED, in case it turns around.
+  protected static float MAX_PLAUSIBLE_SPEED = 45; // Meters per second, about 160 km/h
+  protected static float MIN_PLAUSIBLE_SPEED = 10; // Meters per second
+  protected static float SPEED_SAFETY_FACTOR = 3;
+  protected static float AWAY_SPEED_FACTOR = 0.5f;
+
+  // Number of updates wanted in the time it would take to reach the boundary.
+  protected static int UPDATES_TO_BOUNDARY = 2;
+
+  // Longest update interval, and the longest interval at which high accuracy,
+  // and the shortest interval at which low power, updates are used.
+  protected static long MAX_UPDATE_INTERVAL = 7200000; // 2 hours
+  protected static long MAX_HIGH_ACCURACY_INTERVAL = 60000; // 1 minute
+  protected static long MIN_LOW_POWER_INTERVAL = MainActivity.NORMAL_UPDATE_INTERVAL;
+
+  // Once high accuracy is used, it is kept until the interval is this much
+  // longer than MAX_HIGH_ACCURACY_INTERVAL, so that a location near the
+  // threshold does not switch back and forth between high accuracy and less
+  // accurate updates.
+  protected static float HIGH_ACCURACY_EXIT_FACTOR = 1.5f;
+
+  // How much the interval must change by before the request is updated.
+  protected static float INTERVAL_CHANGE_FACTOR = 1.5f;
+
+  /**
+   * A location update rate, used to create a LocationRequest.
+   */
+  public static class Rate {
+    public final int priority;
+    public final long interval;
+    public final long fastestInterval;
+    public final float smallestDisplacement;
+    public final long maxWaitTime;
+
+    public Rate(int priority, long interval, long fastestInterval, float smallestDisplacement,
+                long maxWaitTime) {
+      this.priority = priority;
+      this.interval = interval;
+      this.fastestInterval = fastestInterval;
+      this.smallestDisplacement = smallestDisplacement;
+      this.maxWaitTime = maxWaitTime;
+    }
+
+    public boolean isHighAccuracy() {
+      return priority == LocationRequest.PRIORITY_HIGH_ACCURACY;
+    }
+
+    /**
+     * @return a LocationRequest for this rate.
+     */
+    public LocationRequest createRequest() {
+      return LocationRequest.create()
+          .setPriority(priority)
+          .setInterval(interval)
+          .setFastestInterval(fastestInterval)
+          .setSmallestDisplacement(smallestDisplacement)
+          .setMaxWaitTime(maxWaitTime);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("priority: %d, interval: %d ms, displacement: %.0f m, max wait: %d ms",
+          priority, interval, smallestDisplacement, maxWaitTime);
+    }
+  }
+
+  // The fixed fast and normal rates, used before the first location update.
+  public static final Rate FAST_RATE = new Rate(LocationRequest.PRIORITY_HIGH_ACCURACY,
+      MainActivity.FAST_UPDATE_INTERVAL, MainActivity.FAST_FASTEST_UPDATE_INTERVAL,
+      MainActivity.FAST_MIN_DISPLACEMENT, 0);
+  public static final Rate NORMAL_RATE = new Rate(LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY,
+      MainActivity.NORMAL_UPDATE_INTERVAL, MainActivity.NORMAL_FASTEST_UPDATE_INTERVAL,
+      MainActivity.NORMAL_MIN_DISPLACEMENT, 0);
+
+  // The status, distance to the boundary, speed, and time of the last update,
+  // and how fast the distance to the boundary was shrinking.
+  private LocalGeofence.Status mStatus = LocalGeofence.Status.UNKNOWN;
+  private double mDistanceMeters = 0;
+  private float mSpeed = -1;
+  private long mTime = 0;
+  private double mClosingSpeed = Double.NaN;
+
+  // Whether high accuracy is used after the last update.
+  private boolean mHighAccuracy = true;
+
+  /**
+   * Forget all previous updates.
+   */
+  public void reset() {
+    mStatus = LocalGeofence.Status.UNKNOWN;
+    mDistanceMeters = 0;
+    mSpeed = -1;
+    mTime = 0;
+    mClosingSpeed = Double.NaN;
+    mHighAccuracy = true;
+  }
+
+  /**
+   * Record a location update that has been checked against the fence.
+   *
+   * @param status  status of the location relative to the fence
+   * @param distanceMeters  distance from the location to the fence boundary,
+   *                        less any error in the location
+   * @param time  time of the location, in milliseconds
+   * @param speed  speed of the device in meters per second, or negative if
+   *               not known
+   */
+  public void update(LocalGeofence.Status status, double distanceMeters, long time, float speed) {
+    // The rate at which the distance to the boundary is shrinking tells us
+    // whether the device is heading towards the boundary.
+    if (mStatus == status && status != LocalGeofence.Status.UNKNOWN && time > mTime) {
+      mClosingSpeed = (mDistanceMeters - distanceMeters) * 1000.0 / (time - mTime);
+    }
+    else {
+      mClosingSpeed = Double.NaN;
+    }
+    mStatus = status;
+    mDistanceMeters = distanceMeters;
+    mTime = time;
+    mSpeed = speed;
+
+    long maxHighAccuracyInterval = mHighAccuracy
+        ? (long) (MAX_HIGH_ACCURACY_INTERVAL * HIGH_ACCURACY_EXIT_FACTOR)
+        : MAX_HIGH_ACCURACY_INTERVAL;
+    mHighAccuracy = status == LocalGeofence.Status.UNKNOWN
+        || interval(reachMillis(Math.max(0, slackMeters()))) <= maxHighAccuracyInterval;
+  }
+
+  /**
+   * @return the update rate to ask for after the last update.
+   */
+  public Rate getRate() {
+    if (mStatus == LocalGeofence.Status.UNKNOWN) {
+      return FAST_RATE;
+    }
+
+    double slackMeters = Math.max(0, slackMeters());
+    long reachMillis = reachMillis(slackMeters);
+    long interval = interval(reachMillis);
+
+    if (mHighAccuracy) {
+      return new Rate(LocationRequest.PRIORITY_HIGH_ACCURACY, interval,
+          MainActivity.FAST_FASTEST_UPDATE_INTERVAL, MainActivity.FAST_MIN_DISPLACEMENT, 0);
+    }
+
+    // Updates from other apps are welcome, but need not be accurate. The
+    // device need not be told about moves that are small next to the slack.
+    int priority = (interval >= MIN_LOW_POWER_INTERVAL)
+        ? LocationRequest.PRIORITY_LOW_POWER : LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY;
+    float displacement = (float) Math.max(MainActivity.FAST_MIN_DISPLACEMENT,
+        Math.min(MainActivity.NORMAL_MIN_DISPLACEMENT, slackMeters / 4));
+
+    // Only batch updates while the device could not reach the fence before
+    // the batch is delivered; batching needs at least twice the interval.
+    long maxWaitTime = 0;
+    if (mStatus == LocalGeofence.Status.OUTSIDE) {
+      long wait = Math.min(MAX_UPDATE_INTERVAL, reachMillis);
+      maxWaitTime = (wait >= 2 * interval) ? wait : 0;
+    }
+    return new Rate(priority, interval,
+        Math.min(interval, MainActivity.NORMAL_FASTEST_UPDATE_INTERVAL), displacement, maxWaitTime);
+  }
+
+  /**
+   * Find out if the rate to ask for after the last update uses high accuracy.
+   * Unlike getRate, this does not allocate, so can be called for every update.
+   */
+  public boolean isHighAccuracy() {
+    return mHighAccuracy;
+  }
+
+  /**
+   * Find out if the rate has changed enough to be worth updating the request.
+   */
+  public static boolean isSignificantChange(Rate from, Rate to) {
+    if (from == null || from.priority != to.priority) {
+      return true;
+    }
+    double ratio = (double) Math.max(from.interval, to.interval)
+        / Math.max(1, Math.min(from.interval, to.interval));
+    return ratio >= INTERVAL_CHANGE_FACTOR;
+  }
+
+  /**
+   * @return how long the device could take to move a distance towards the
+   * boundary, in milliseconds.
+   */
+  private long reachMillis(double slackMeters) {
+    return (long) (slackMeters / approachSpeed() * 1000);
+  }
+
+  /**
+   * @return the update interval giving enough updates in the time the device
+   * could take to reach the boundary.
+   */
+  private static long interval(long reachMillis) {
+    return Math.max(MainActivity.FAST_UPDATE_INTERVAL,
+        Math.min(MAX_UPDATE_INTERVAL, reachMillis / UPDATES_TO_BOUNDARY));
+  }
+
+  /**
+   * @return how far the device could move before its status could change.
+   */
+  private double slackMeters() {
+    switch (mStatus) {
+      case OUTSIDE:
+        return mDistanceMeters - LocalGeofence.closeDistance(LocalGeofence.Status.OUTSIDE);
+      case INSIDE:
+        return mDistanceMeters;
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * @return the speed at which the device could be approaching the boundary.
+   */
+  private double approachSpeed() {
+    double speed = (mSpeed >= 0)
+        ? Math.max(MIN_PLAUSIBLE_SPEED, Math.min(MAX_PLAUSIBLE_SPEED, mSpeed * SPEED_SAFETY_FACTOR))
+        : MAX_PLAUSIBLE_SPEED;
+    if (Double.isNaN(mClosingSpeed)) {
+      return speed;
+    }
+    if (mClosingSpeed > 0) {
+      // Heading towards the boundary, perhaps faster than the speed says.
+      return Math.max(speed, Math.min(MAX_PLAUSIBLE_SPEED, mClosingSpeed * SPEED_SAFETY_FACTOR));
+    }
+    // Heading away from the boundary.
+    return Math.max(MIN_PLAUSIBLE_SPEED, speed * AWAY_SPEED_FACTOR);
+  }
+}
@@ -0,0 +1,266 @@
+/* Copyright 2016 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * A copy of the license is available in the repository's
+ * https://github.com/Esri/arcgis-runtime-demos-android/blob/master/license.txt
+ *
+ * For information about licensing your deployed app, see
+ * https://developers.arcgis.com/android/guide/license-your-app.htm
+ *
+ */
+
+package com.esri.runtime.android.localgeofence;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.esri.core.geodatabase.GeodatabaseFeatureTable;
+import com.esri.core.geometry.Envelope;
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.GeometryEngine;
+import com.esri.core.geometry.SpatialReference;
+import com.esri.core.map.Feature;
+import com.esri.core.map.FeatureResult;
+import com.esri.core.tasks.SpatialRelationship;
+import com.esri.core.tasks.query.QueryParameters;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Loads the fences intersecting a map viewport, so a map of a large fence
+ * table only ever reads and draws the fences near what is on screen.
+ * <p>
+ * Each load queries the fences intersecting the viewport grown by a margin
+ * on every side, so small pans need no new load. At small scales, fences are
+ * generalized to within a fraction of a pixel, so they are quicker to draw
+ * and hold far fewer vertices; once the map is zoomed in far enough for that
+ * to show, the fences are loaded again. No more than MAX_FENCES fences are
+ * loaded at once.
+ * <p>
+ * Loads run on their own background thread, so they never wait behind fence
+ * loads for the geofence services. Starting a load cancels the one before.
+ */
+public class ViewportFenceLoader {
+
+  private static final String TAG = ViewportFenceLoader.class.getSimpleName();
+
+  // Margin added to each side of the viewport, as a fraction of its size.
+  protected static double MARGIN_FRACTION = 0.5;
+
+  // Fences are generalized at scales smaller than this, to within this many
+  // pixels.
+  protected static double GENERALIZE_MIN_SCALE = 50000;
+  protected static double GENERALIZE_PIXELS = 0.5;
+
+  // Most fences loaded for a viewport.
+  protected static int MAX_FENCES = 5000;
+
+  // Fences are passed to the listener in batches of this many.
+  protected static int BATCH_SIZE = 100;
+
+  /**
+   * Receives the fences loaded for a viewport. Both methods are called on
+   * the loader thread.
+   */
+  public interface Listener {
+    /**
+     * A batch of fences has been loaded.
+     *
+     * @param oids  ObjectID of each fence
+     * @param geometries  geometry of each fence, in the map spatial reference
+     * @param count  number of fences in the batch
+     */
+    void onFencesLoaded(long[] oids, Geometry[] geometries, int count);
+
+    /**
+     * The load has finished.
+     *
+     * @param loaded  number of fences loaded
+     * @param truncated  true if more fences intersect the extent than were loaded
+     */
+    void onLoadFinished(int loaded, boolean truncated);
+  }
+
+  private final ExecutorService mExecutor =
+      Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, TAG);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  private final GeodatabaseFeatureTable mFeatureTable;
+  private final SpatialReference mMapSr;
+
+  // Extent and generalization of the latest load, and the load itself.
+  private Envelope mLoadedExtent = null;
+  private double mLoadedDeviation = 0;
+  private Future<?> mLoad = null;
+
+  /**
+   * @param featureTable  table containing the fence features
+   * @param mapSpatialReference  spatial reference of the map
+   */
+  public ViewportFenceLoader(GeodatabaseFeatureTable featureTable,
+                             SpatialReference mapSpatialReference) {
+    mFeatureTable = featureTable;
+    mMapSr = mapSpatialReference;
+  }
+
+  /**
+   * Work out how far fences should be generalized at a map scale.
+   *
+   * @param scale  map scale
+   * @param resolution  map units per pixel
+   * @return the most the generalized fences may deviate from the fences, in
+   * map units, or 0 if they should not be generalized.
+   */
+  static double deviationFor(double scale, double resolution) {
+    return (scale > GENERALIZE_MIN_SCALE) ? resolution * GENERALIZE_PIXELS : 0;
+  }
+
+  /**
+   * Check whether the fences for a viewport need loading, because it is not
+   * within the extent of the latest load, or because the map has been zoomed
+   * far enough to need the fences generalized differently.
+   *
+   * @param viewport  extent of the map on screen
+   * @param scale  map scale
+   * @param resolution  map units per pixel
+   */
+  public boolean needsLoad(Envelope viewport, double scale, double resolution) {
+    if (mLoadedExtent == null || !mLoadedExtent.contains(viewport)) {
+      return true;
+    }
+    double deviation = deviationFor(scale, resolution);
+    if (deviation == 0 || mLoadedDeviation == 0) {
+      return deviation != mLoadedDeviation;
+    }
+    // Reload after zooming in or out by a factor of two.
+    return deviation < mLoadedDeviation / 2 || deviation > mLoadedDeviation * 2;
+  }
+
+  /**
+   * Start loading the fences for a viewport, cancelling any load already
+   * running.
+   *
+   * @param viewport  extent of the map on screen
+   * @param scale  map scale
+   * @param resolution  map units per pixel
+   * @param listener  receives the fences as they are loaded
+   */
+  public void load(Envelope viewport, double scale, double resolution, final Listener listener) {
+    cancel();
+    final Envelope extent = new Envelope(viewport.getXMin(), viewport.getYMin(),
+        viewport.getXMax(), viewport.getYMax());
+    extent.inflate(viewport.getWidth() * MARGIN_FRACTION, viewport.getHeight() * MARGIN_FRACTION);
+    final double deviation = deviationFor(scale, resolution);
+    mLoadedExtent = extent;
+    mLoadedDeviation = deviation;
+    mLoad = mExecutor.submit(new Runnable() {
+      @Override
+      public void run() {
+        loadNow(extent, deviation, listener);
+      }
+    });
+  }
+
+  /**
+   * Cancel any load running, and forget the extent loaded, so the next
+   * viewport is loaded again.
+   */
+  public void cancel() {
+    if (mLoad != null) {
+      mLoad.cancel(true);
+      mLoad = null;
+    }
+    mLoadedExtent = null;
+  }
+
+  /**
+   * Cancel any load running, and stop the loader thread.
+   */
+  public void shutdown() {
+    cancel();
+    mExecutor.shutdownNow();
+  }
+
+  private void loadNow(Envelope extent, double deviation, Listener listener) {
+    long startTime = SystemClock.elapsedRealtime();
+    QueryParameters queryParams = new QueryParameters();
+    queryParams.setOutFields(new String[]{MainActivity.FENCE_OBJECTID_FIELD});
+    queryParams.setReturnGeometry(true);
+    queryParams.setGeometry(extent);
+    queryParams.setInSpatialReference(mMapSr);
+    queryParams.setSpatialRelationship(SpatialRelationship.INTERSECTS);
+    queryParams.setOutSpatialReference(mMapSr);
+    if (deviation > 0) {
+      queryParams.setMaxAllowableOffset(deviation);
+    }
+
+    long[] oids = new long[BATCH_SIZE];
+    Geometry[] geometries = new Geometry[BATCH_SIZE];
+    int count = 0;
+    int loaded = 0;
+    boolean truncated = false;
+    try {
+      FeatureResult result = mFeatureTable.queryFeatures(queryParams, null).get();
+      if (result == null) {
+        return;
+      }
+      for (Object element : result) {
+        if (Thread.currentThread().isInterrupted()) {
+          return;
+        }
+        if (loaded == MAX_FENCES) {
+          truncated = true;
+          break;
+        }
+        Feature feature = (Feature) element;
+        Geometry geometry = feature.getGeometry();
+        if (geometry == null) {
+          continue;
+        }
+        // Generalize here too, in case the query does not.
+        if (deviation > 0) {
+          geometry = GeometryEngine.generalize(geometry, deviation, true);
+        }
+        oids[count] = feature.getId();
+        geometries[count] = geometry;
+        count++;
+        loaded++;
+        if (count == BATCH_SIZE) {
+          listener.onFencesLoaded(oids, geometries, count);
+          oids = new long[BATCH_SIZE];
+          geometries = new Geometry[BATCH_SIZE];
+          count = 0;
+        }
+      }
+    } catch (InterruptedException e) {
+      return;
+    } catch (ExecutionException e) {
+      Log.w(TAG, "Could not query fences in extent", e);
+    }
+    if (count > 0) {
+      listener.onFencesLoaded(oids, geometries, count);
+    }
+    Log.i(TAG, String.format("Loaded %d fences in view in %d ms", loaded,
+        SystemClock.elapsedRealtime() - startTime));
+    listener.onLoadFinished(loaded, truncated);
+  }
+}
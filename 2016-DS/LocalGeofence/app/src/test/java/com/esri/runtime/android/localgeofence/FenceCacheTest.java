@@ -0,0 +1,78 @@
+package com.esri.runtime.android.localgeofence;
+
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Polygon;
+import com.esri.core.geometry.SpatialReference;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a fence read back from the cache behaves exactly as the fence
+ * that was written.
+ */
+public class FenceCacheTest {
+
+  private static final SpatialReference WGS84 = SpatialReference.create(SpatialReference.WKID_WGS84);
+
+  @Test
+  public void restoredFenceMatchesOriginal() throws Exception {
+    LocalGeofence original = new LocalGeofence(42, "Fence", null, createFence(), WGS84);
+    File file = File.createTempFile("fence", ".bin");
+    try {
+      assertTrue(FenceCache.write(file, original));
+      LocalGeofence restored = FenceCache.read(file);
+      assertNotNull(restored);
+      assertEquals(42, restored.getFeatureOid());
+      assertEquals("Fence", restored.getFeatureName());
+      assertNull(restored.getSubtitle());
+      assertNull(restored.getFenceWgs84());
+      assertEquals(original.getGeometryVersion(), restored.getGeometryVersion());
+
+      Random random = new Random(1);
+      for (int i = 0; i < 10000; i++) {
+        Point location = new Point(random.nextDouble() * 0.3 - 0.15, random.nextDouble() * 0.3 - 0.15);
+        assertEquals(original.fenceStatus(location, LocalGeofence.Status.UNKNOWN),
+            restored.fenceStatus(location, LocalGeofence.Status.UNKNOWN));
+        assertEquals(original.boundaryDistance(location), restored.boundaryDistance(location), 0);
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void unusableCacheIsIgnored() throws Exception {
+    File file = File.createTempFile("fence", ".bin");
+    try {
+      FileOutputStream out = new FileOutputStream(file);
+      out.write(new byte[]{0x46, 0x45, 0x4e, 0x43, 0, 0});
+      out.close();
+      assertNull(FenceCache.read(file));
+    } finally {
+      file.delete();
+    }
+    assertNull(FenceCache.read(file));
+  }
+
+  /**
+   * A square with a square hole in it.
+   */
+  private static Polygon createFence() {
+    Polygon fence = new Polygon();
+    fence.startPath(-0.1, -0.1);
+    fence.lineTo(-0.1, 0.1);
+    fence.lineTo(0.1, 0.1);
+    fence.lineTo(0.1, -0.1);
+    fence.startPath(-0.02, -0.02);
+    fence.lineTo(0.02, -0.02);
+    fence.lineTo(0.02, 0.02);
+    fence.lineTo(-0.02, 0.02);
+    return fence;
+  }
+}
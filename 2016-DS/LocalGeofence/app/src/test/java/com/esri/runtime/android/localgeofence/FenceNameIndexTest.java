@@ -0,0 +1,126 @@
+package com.esri.runtime.android.localgeofence;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks prefix searches of a FenceNameIndex against a search of every name,
+ * and that a search of a picker-sized index takes well under a millisecond.
+ */
+public class FenceNameIndexTest {
+
+  private static final int FENCE_COUNT = 50000;
+  private static final int PAGE_SIZE = 200;
+
+  @Test
+  public void matchesEveryNameWithPrefix() throws Exception {
+    String[] names = createNames(new Random(1), 5000);
+    FenceNameIndex index = createIndex(names);
+    assertEquals(names.length, index.size());
+
+    String[] prefixes = {"", "s", "S", "san", "SAN ", "santa b", "lo", "z", "zzz", "1"};
+    for (String prefix : prefixes) {
+      List<Long> expected = new ArrayList<Long>();
+      for (int i = 0; i < names.length; i++) {
+        if (names[i].toLowerCase().startsWith(prefix.toLowerCase())) {
+          expected.add((long) i + 1);
+        }
+      }
+      int start = index.startOf(prefix);
+      int end = index.endOf(prefix);
+      assertEquals("matches of '" + prefix + "'", expected.size(), end - start);
+      for (int i = start; i < end; i++) {
+        long oid = index.getOid(i);
+        assertTrue(expected.contains(oid));
+        assertEquals(names[(int) oid - 1], index.getName(i));
+      }
+    }
+  }
+
+  @Test
+  public void keepsFencesWithTheSameName() throws Exception {
+    FenceNameIndex index = new FenceNameIndex();
+    index.addAll(new long[]{7, 3}, new String[]{"Orange", "orange"}, 2);
+    index.addAll(new long[]{5, 1}, new String[]{"ORANGE", "Alpine"}, 2);
+
+    assertEquals(4, index.size());
+    assertEquals(1, index.startOf("or"));
+    assertEquals(4, index.endOf("or"));
+    assertEquals(3, index.getOid(1));
+    assertEquals(5, index.getOid(2));
+    assertEquals(7, index.getOid(3));
+    assertEquals("Orange", index.getName(3));
+    assertEquals(index.startOf("orb"), index.endOf("orb"));
+
+    index.clear();
+    assertEquals(0, index.size());
+    assertEquals(0, index.endOf(""));
+  }
+
+  @Test
+  public void searchTakesUnderAMillisecond() throws Exception {
+    String[] names = createNames(new Random(2), FENCE_COUNT);
+    FenceNameIndex index = createIndex(names);
+    Random random = new Random(3);
+
+    int searches = 100000;
+    int matches = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < searches; i++) {
+      String name = names[random.nextInt(names.length)];
+      String prefix = name.substring(0, 1 + random.nextInt(Math.min(name.length(), 6)));
+      matches += index.endOf(prefix) - index.startOf(prefix);
+    }
+    double micros = (System.nanoTime() - start) / 1000.0 / searches;
+    assertTrue(matches >= searches);
+    System.out.println(String.format("%d fences: %.2f us per search", FENCE_COUNT, micros));
+    assertTrue("search took " + micros + " us", micros < 1000);
+  }
+
+  /**
+   * Index names a page at a time, as the fence picker does, with ObjectIDs
+   * counting from 1.
+   */
+  private static FenceNameIndex createIndex(String[] names) {
+    FenceNameIndex index = new FenceNameIndex();
+    long[] oids = new long[PAGE_SIZE];
+    String[] page = new String[PAGE_SIZE];
+    for (int first = 0; first < names.length; first += PAGE_SIZE) {
+      int count = Math.min(PAGE_SIZE, names.length - first);
+      for (int i = 0; i < count; i++) {
+        oids[i] = first + i + 1;
+        page[i] = names[first + i];
+      }
+      index.addAll(oids, page, count);
+    }
+    return index;
+  }
+
+  /**
+   * Names made from a few common words, in mixed case, so many names share
+   * prefixes and some are repeated.
+   */
+  private static String[] createNames(Random random, int count) {
+    String[] words = {"San", "Santa", "Los", "Lake", "Orange", "Mono", "Kern", "Inyo",
+        "Barbara", "Bernardino", "Diego", "Angeles", "Clara", "Cruz", "Tahoe"};
+    String[] names = new String[count];
+    for (int i = 0; i < count; i++) {
+      StringBuilder name = new StringBuilder(words[random.nextInt(words.length)]);
+      int more = random.nextInt(3);
+      for (int w = 0; w < more; w++) {
+        name.append(' ').append(words[random.nextInt(words.length)]);
+      }
+      if (random.nextInt(4) == 0) {
+        name.append(' ').append(random.nextInt(100));
+      }
+      String text = name.toString();
+      names[i] = random.nextBoolean() ? text : text.toUpperCase();
+    }
+    return names;
+  }
+}
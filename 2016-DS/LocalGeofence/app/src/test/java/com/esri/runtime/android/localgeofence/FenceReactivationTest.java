@@ -0,0 +1,88 @@
+package com.esri.runtime.android.localgeofence;
+
+import com.esri.core.geometry.Polygon;
+import com.esri.core.geometry.SpatialReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a fence made active a second time, as MainActivity does when
+ * an alert is switched off and on again, starts from an unknown status, so
+ * the first location is not compared with one from when it was last active.
+ */
+public class FenceReactivationTest {
+
+  private static final SpatialReference WGS84 = SpatialReference.create(SpatialReference.WKID_WGS84);
+
+  private File mCacheFile;
+
+  @Before
+  public void setUp() throws Exception {
+    mCacheFile = File.createTempFile("fence", ".bin");
+  }
+
+  @After
+  public void tearDown() {
+    LocalGeofence.setActiveFence(null);
+    mCacheFile.delete();
+  }
+
+  @Test
+  public void reactivatedFenceDoesNotReportFalseExit() {
+    LocalGeofence fence = new LocalGeofence(7, "Fence", null, createFence(), WGS84);
+
+    activate(fence);
+    assertEquals(LocalGeofence.Change.REMAINED_IN, fence.latestLocation(0, 0,
+        new LocalGeofence.FenceInformation()).change);
+    assertEquals(LocalGeofence.Status.INSIDE, fence.getLastStatus());
+
+    // Made active again later, with the first location well outside.
+    activate(fence);
+    assertSame(fence, FenceCache.getActiveFence(mCacheFile));
+    assertEquals(LocalGeofence.Status.UNKNOWN, fence.getLastStatus());
+    LocalGeofence.FenceInformation info = fence.latestLocation(1, 1,
+        new LocalGeofence.FenceInformation());
+    assertEquals(LocalGeofence.Status.OUTSIDE, info.status);
+    assertEquals(LocalGeofence.Change.REMAINED_OUT, info.change);
+  }
+
+  @Test
+  public void reactivatedFenceReportsEntry() {
+    LocalGeofence fence = new LocalGeofence(8, "Fence", null, createFence(), WGS84);
+
+    activate(fence);
+    fence.latestLocation(1, 1, new LocalGeofence.FenceInformation());
+    assertEquals(LocalGeofence.Status.OUTSIDE, fence.getLastStatus());
+
+    // Made active again, then outside and inside: the entry is still reported.
+    activate(fence);
+    assertEquals(LocalGeofence.Change.REMAINED_OUT, fence.latestLocation(1, 1,
+        new LocalGeofence.FenceInformation()).change);
+    assertEquals(LocalGeofence.Change.ENTERED, fence.latestLocation(0, 0,
+        new LocalGeofence.FenceInformation()).change);
+  }
+
+  /**
+   * Make a fence active the way MainActivity.activateFence does.
+   */
+  private void activate(LocalGeofence fence) {
+    fence.resetStatus();
+    FenceCache.setActiveFence(mCacheFile, fence);
+    GeofenceScheduler.reset();
+  }
+
+  private static Polygon createFence() {
+    Polygon fence = new Polygon();
+    fence.startPath(-0.1, -0.1);
+    fence.lineTo(-0.1, 0.1);
+    fence.lineTo(0.1, 0.1);
+    fence.lineTo(0.1, -0.1);
+    return fence;
+  }
+}
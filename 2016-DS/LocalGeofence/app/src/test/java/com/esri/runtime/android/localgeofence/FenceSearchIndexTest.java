@@ -0,0 +1,207 @@
+package com.esri.runtime.android.localgeofence;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the matches and ranking of FenceSearchIndex searches, that an index
+ * reads back from its file only for the geodatabase it was built from, and
+ * that searches of a large index take no more than a millisecond or so.
+ */
+public class FenceSearchIndexTest {
+
+  private static final String[] NAMES = {
+      "Santa Barbara", "San Bernardino", "Barbara Lake", "San Diego", "Lake Santa",
+      "santa barbara", "Los Angeles", "Upper San Barbara-Creek", "Diego"};
+
+  @Test
+  public void ranksMatches() throws Exception {
+    FenceSearchIndex index = createIndex(NAMES);
+
+    // Names starting with the search, then names with a word starting with
+    // it, then names with every word; shorter, then alphabetical, first.
+    assertArrayEquals(new String[]{"San Diego", "Santa Barbara", "santa barbara",
+        "San Bernardino", "Lake Santa", "Upper San Barbara-Creek"}, search(index, "san"));
+    assertArrayEquals(new String[]{"Santa Barbara", "santa barbara"},
+        search(index, "SANTA bar"));
+    assertArrayEquals(new String[]{"Lake Santa", "Barbara Lake"}, search(index, "lake"));
+    assertArrayEquals(new String[]{"Barbara Lake", "Santa Barbara", "santa barbara",
+        "Upper San Barbara-Creek"}, search(index, "barb"));
+    assertArrayEquals(new String[]{"Upper San Barbara-Creek"}, search(index, "cre  up"));
+    assertArrayEquals(new String[]{"Diego", "San Diego"}, search(index, "diego"));
+    assertArrayEquals(new String[0], search(index, "arbara"));
+    assertArrayEquals(new String[0], search(index, " - "));
+  }
+
+  @Test
+  public void returnsObjectIdsOfMatches() throws Exception {
+    FenceSearchIndex index = createIndex(NAMES);
+    int[] results = new int[10];
+    assertEquals(2, index.search("santa barbara", results));
+    assertEquals(1, index.getOid(results[0]));
+    assertEquals(6, index.getOid(results[1]));
+
+    // Only as many matches as fit in the results are returned.
+    results = new int[2];
+    assertEquals(2, index.search("s", results));
+  }
+
+  @Test
+  public void readsBackForSameGeodatabase() throws Exception {
+    FenceSearchIndex index = createIndex(createNames(new Random(1), 2000));
+    File file = File.createTempFile("fences", ".names");
+    try {
+      assertTrue(FenceSearchIndex.write(file, index, 1234, 5678));
+      assertNull(FenceSearchIndex.read(file, 1234, 5679));
+      assertNull(FenceSearchIndex.read(file, 1235, 5678));
+
+      FenceSearchIndex read = FenceSearchIndex.read(file, 1234, 5678);
+      assertNotNull(read);
+      assertEquals(index.size(), read.size());
+      for (String query : new String[]{"s", "la", "santa b", "kern 4", "zz"}) {
+        int[] expected = new int[index.size()];
+        int[] actual = new int[index.size()];
+        int count = index.search(query, expected);
+        assertEquals(count, read.search(query, actual));
+        for (int i = 0; i < count; i++) {
+          assertEquals(index.getOid(expected[i]), read.getOid(actual[i]));
+          assertEquals(index.getName(expected[i]), read.getName(actual[i]));
+        }
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void opensInBackgroundAndTellsListeners() throws Exception {
+    File geodatabaseFile = File.createTempFile("fences", ".geodatabase");
+    File indexFile = new File(geodatabaseFile.getPath() + ".names");
+    FileOutputStream out = new FileOutputStream(geodatabaseFile);
+    out.write(new byte[100]);
+    out.close();
+    assertTrue(FenceSearchIndex.write(indexFile, createIndex(NAMES), geodatabaseFile.length(),
+        geodatabaseFile.lastModified()));
+
+    final CountDownLatch opened = new CountDownLatch(1);
+    final AtomicReference<FenceSearchIndex> openedIndex = new AtomicReference<FenceSearchIndex>();
+    FenceSearchIndex.Listener listener = new FenceSearchIndex.Listener() {
+      @Override
+      public void onSearchIndexOpened(FenceSearchIndex index) {
+        openedIndex.set(index);
+        opened.countDown();
+      }
+    };
+    FenceSearchIndex.addListener(listener);
+    try {
+      // The index file is up to date, so the feature table is not needed.
+      FenceSearchIndex.openInBackground(geodatabaseFile, null);
+      assertTrue(opened.await(10, TimeUnit.SECONDS));
+      assertNotNull(openedIndex.get());
+      assertSame(openedIndex.get(), FenceSearchIndex.getOpened());
+      assertFalse(FenceSearchIndex.isOpening());
+      assertEquals(NAMES.length, FenceSearchIndex.getOpened().size());
+
+      FenceSearchIndex.close();
+      assertNull(FenceSearchIndex.getOpened());
+    } finally {
+      FenceSearchIndex.removeListener(listener);
+      FenceSearchIndex.close();
+      indexFile.delete();
+      geodatabaseFile.delete();
+    }
+  }
+
+  @Test
+  public void recreatedActivityKeepsIndexBeingOpened() throws Exception {
+    File geodatabaseFile = File.createTempFile("fences", ".geodatabase");
+    File indexFile = new File(geodatabaseFile.getPath() + ".names");
+    FileOutputStream out = new FileOutputStream(geodatabaseFile);
+    out.write(new byte[100]);
+    out.close();
+    assertTrue(FenceSearchIndex.write(indexFile, createIndex(NAMES), geodatabaseFile.length(),
+        geodatabaseFile.lastModified()));
+    try {
+      // The old activity starts opening the index, the new one asks again,
+      // and then the old one waits for it before disposing its geodatabase.
+      FenceSearchIndex.openInBackground(geodatabaseFile, null);
+      FenceSearchIndex.openInBackground(geodatabaseFile, null);
+      FenceSearchIndex.awaitOpened();
+      assertFalse(FenceSearchIndex.isOpening());
+      assertNotNull(FenceSearchIndex.getOpened());
+      assertEquals(NAMES.length, FenceSearchIndex.getOpened().size());
+    } finally {
+      FenceSearchIndex.close();
+      indexFile.delete();
+      geodatabaseFile.delete();
+    }
+  }
+
+  @Test
+  public void searchIsFast() throws Exception {
+    String[] names = createNames(new Random(2), 50000);
+    FenceSearchIndex index = createIndex(names);
+    int[] results = new int[500];
+    String[] queries = {"s", "sa", "san", "san d", "santa barbara", "la", "lake 4", "k", "x"};
+
+    // Warm up, then time.
+    for (int i = 0; i < 200; i++) {
+      index.search(queries[i % queries.length], results);
+    }
+    int searches = 2000;
+    long start = System.nanoTime();
+    for (int i = 0; i < searches; i++) {
+      index.search(queries[i % queries.length], results);
+    }
+    double millis = (System.nanoTime() - start) / 1e6 / searches;
+    System.out.println(String.format("%d fences: %.3f ms per search", names.length, millis));
+    assertTrue("search took " + millis + " ms", millis < 5);
+  }
+
+  /**
+   * Index names with ObjectIDs counting from 1.
+   */
+  private static FenceSearchIndex createIndex(String[] names) {
+    long[] oids = new long[names.length];
+    for (int i = 0; i < names.length; i++) {
+      oids[i] = i + 1;
+    }
+    return new FenceSearchIndex(oids, names, names.length);
+  }
+
+  private static String[] search(FenceSearchIndex index, String query) {
+    int[] results = new int[index.size()];
+    int count = index.search(query, results);
+    String[] names = new String[count];
+    for (int i = 0; i < count; i++) {
+      names[i] = index.getName(results[i]);
+    }
+    return names;
+  }
+
+  private static String[] createNames(Random random, int count) {
+    String[] words = {"San", "Santa", "Los", "Lake", "Orange", "Mono", "Kern", "Inyo",
+        "Barbara", "Bernardino", "Diego", "Angeles", "Clara", "Cruz", "Tahoe"};
+    String[] names = new String[count];
+    for (int i = 0; i < count; i++) {
+      StringBuilder name = new StringBuilder(words[random.nextInt(words.length)]);
+      int more = random.nextInt(3);
+      for (int w = 0; w < more; w++) {
+        name.append(' ').append(words[random.nextInt(words.length)]);
+      }
+      if (random.nextInt(4) == 0) {
+        name.append(' ').append(random.nextInt(100));
+      }
+      names[i] = name.toString();
+    }
+    return names;
+  }
+}
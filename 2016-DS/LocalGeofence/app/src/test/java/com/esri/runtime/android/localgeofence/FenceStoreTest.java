@@ -0,0 +1,97 @@
+package com.esri.runtime.android.localgeofence;
+
+import com.esri.core.geometry.GeometryEngine;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Polygon;
+import com.esri.core.geometry.SpatialReference;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that fences held in a FenceStore give the same answers as fences
+ * prepared on the heap, and that the exact checks over the prepared fence
+ * agree with GeometryEngine.
+ */
+public class FenceStoreTest {
+
+  private static final SpatialReference WGS84 = SpatialReference.create(SpatialReference.WKID_WGS84);
+
+  @Test
+  public void storedFencesMatchHeapFences() {
+    FenceStore.CHUNK_BYTES = 64 * 1024;
+    FenceStore store = new FenceStore();
+    Random random = new Random(1);
+    for (int f = 0; f < 50; f++) {
+      Polygon polygon = createStar(random.nextDouble() - 0.5, random.nextDouble() - 0.5,
+          3 + random.nextInt(500));
+      PreparedFence heap = new PreparedFence(polygon);
+      PreparedFence stored = store.add(heap);
+      assertEquals(heap.byteSize(), stored.byteSize());
+
+      double[] heapNearest = new double[2];
+      double[] storedNearest = new double[2];
+      for (int i = 0; i < 1000; i++) {
+        double x = random.nextDouble() * 2 - 1;
+        double y = random.nextDouble() * 2 - 1;
+        assertEquals(heap.contains(x, y), stored.contains(x, y));
+        assertEquals(heap.containsExact(x, y), stored.containsExact(x, y));
+        assertEquals(heap.nearestEdgeMeters(x, y, 5000), stored.nearestEdgeMeters(x, y, 5000), 0);
+        assertEquals(heap.nearestPoint(x, y, 5000, heapNearest),
+            stored.nearestPoint(x, y, 5000, storedNearest));
+      }
+    }
+    assertTrue(store.getChunkCount() > 1);
+    assertTrue(store.getByteCount() > 0);
+  }
+
+  @Test
+  public void exactChecksMatchGeometryEngine() {
+    Random random = new Random(2);
+    for (int f = 0; f < 20; f++) {
+      Polygon polygon = createStar(0, 0, 3 + random.nextInt(2000));
+      PreparedFence fence = new PreparedFence(polygon);
+      double[] nearest = new double[2];
+      for (int i = 0; i < 2000; i++) {
+        double x = random.nextDouble() * 0.3 - 0.15;
+        double y = random.nextDouble() * 0.3 - 0.15;
+        Point location = new Point(x, y);
+        assertEquals(GeometryEngine.within(location, polygon, WGS84), fence.containsExact(x, y));
+
+        double expected = GeometryEngine.geodesicDistance(location,
+            GeometryEngine.getNearestCoordinate(polygon, location, true).getCoordinate(), WGS84, null);
+        if (fence.nearestPoint(x, y, 5000, nearest)) {
+          double actual = GeometryEngine.geodesicDistance(location,
+              new Point(nearest[0], nearest[1]), WGS84, null);
+          assertEquals(expected, actual, Math.max(0.01, expected * 0.001));
+        }
+        else {
+          assertTrue(expected > 5000 * 0.99);
+        }
+      }
+    }
+  }
+
+  /**
+   * A star shaped fence, with many points.
+   */
+  private static Polygon createStar(double cx, double cy, int vertices) {
+    Polygon fence = new Polygon();
+    for (int v = 0; v < vertices; v++) {
+      double angle = -2 * Math.PI * v / vertices;
+      double radius = (v % 2 == 0) ? 0.1 : 0.04;
+      double x = cx + radius * Math.cos(angle);
+      double y = cy + radius * Math.sin(angle);
+      if (v == 0) {
+        fence.startPath(x, y);
+      }
+      else {
+        fence.lineTo(x, y);
+      }
+    }
+    return fence;
+  }
+}
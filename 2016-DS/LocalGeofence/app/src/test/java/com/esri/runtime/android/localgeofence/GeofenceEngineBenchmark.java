@@ -0,0 +1,208 @@
+package com.esri.runtime.android.localgeofence;
+
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Polygon;
+import com.esri.core.geometry.SpatialReference;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that GeofenceEngine only checks the few fences near each fix as the
+ * number of fences grows. Fences are small squares laid out on a grid, and
+ * fixes are spread evenly over the whole grid, so each fix only ever falls
+ * within a few envelopes.
+ * <p>
+ * Per-fix latency and the parallel speed-up depend on the machine, so they
+ * are only measured when the geofence.benchmark system property is true.
+ */
+public class GeofenceEngineBenchmark {
+
+  private static final boolean BENCHMARK = Boolean.getBoolean("geofence.benchmark");
+
+  private static final SpatialReference WGS84 = SpatialReference.create(SpatialReference.WKID_WGS84);
+
+  // Size of, and distance between, the synthetic fences, in degrees.
+  private static final double FENCE_SIZE = 0.05;
+  private static final double FENCE_SPACING = 0.1;
+
+  private static final int WARMUP_FIXES = 2000;
+  private static final int MEASURED_FIXES = 20000;
+
+  private static final int CIRCLE_VERTICES = 360;
+
+  // Most fences that may be checked for a fix: the one whose envelope it is
+  // in, and the one it may just have left.
+  private static final int MAX_CHECKED_FENCES = 2;
+
+  // Most that per-fix latency may grow by from 100 to 10000 fences. With
+  // every fence checked on each fix, it would grow a hundredfold.
+  private static final double MAX_LATENCY_GROWTH = 5;
+
+  @Test
+  public void checkedFencesPerFixIsFlat() throws Exception {
+    for (int fenceCount : new int[]{1, 10, 100, 1000, 10000}) {
+      GeofenceEngine engine = createEngine(fenceCount);
+      assertEquals(fenceCount, engine.getFenceCount());
+
+      int maxChecked = 0;
+      for (Point fix : createFixes(fenceCount, WARMUP_FIXES)) {
+        maxChecked = Math.max(maxChecked, engine.latestLocation(fix).size());
+      }
+      assertTrue("most fences checked for a fix: " + maxChecked + " of " + fenceCount,
+          maxChecked <= MAX_CHECKED_FENCES);
+    }
+  }
+
+  @Test
+  public void perFixLatencyIsFlat() throws Exception {
+    Assume.assumeTrue(BENCHMARK);
+    Map<Integer, Double> micros = new HashMap<Integer, Double>();
+    for (int fenceCount : new int[]{1, 10, 100, 1000, 10000}) {
+      GeofenceEngine engine = createEngine(fenceCount);
+      Point[] fixes = createFixes(fenceCount, MEASURED_FIXES);
+
+      for (int i = 0; i < WARMUP_FIXES; i++) {
+        engine.latestLocation(fixes[i % fixes.length]);
+      }
+      long start = System.nanoTime();
+      for (Point fix : fixes) {
+        engine.latestLocation(fix);
+      }
+      long elapsed = System.nanoTime() - start;
+
+      micros.put(fenceCount, elapsed / 1000.0 / fixes.length);
+    }
+    assertTrue("per fix: " + micros.get(100) + " us at 100 fences, " + micros.get(10000)
+            + " us at 10000 fences",
+        micros.get(10000) < MAX_LATENCY_GROWTH * micros.get(100));
+  }
+
+  /**
+   * Many overlapping fences, so every fix has to be checked against all of
+   * them. Compares checking on the calling thread with sharing the checks out
+   * across 4 and 8 threads; the speed-up depends on the cores available, so
+   * is only checked when benchmarking with more than one, for the most fences.
+   */
+  @Test
+  public void parallelSpeedUp() throws Exception {
+    int cores = Runtime.getRuntime().availableProcessors();
+    for (int fenceCount : new int[]{8, 64, 256}) {
+      Point[] fixes = new Point[MEASURED_FIXES / 10];
+      Random random = new Random(fenceCount);
+      for (int i = 0; i < fixes.length; i++) {
+        fixes[i] = new Point(random.nextDouble() * 0.2 - 0.1, random.nextDouble() * 0.2 - 0.1);
+      }
+
+      double serialNanos = 0;
+      List<List<LocalGeofence.FenceInformation>> serialInfos = null;
+      for (int threads : new int[]{1, 4, 8}) {
+        GeofenceEngine engine = createOverlappingEngine(fenceCount);
+        engine.setParallelism(threads);
+        for (int i = 0; i < WARMUP_FIXES / 10; i++) {
+          engine.latestLocation(fixes[i % fixes.length]);
+        }
+        engine = createOverlappingEngine(fenceCount);
+        engine.setParallelism(threads);
+
+        List<List<LocalGeofence.FenceInformation>> infos =
+            new ArrayList<List<LocalGeofence.FenceInformation>>(fixes.length);
+        long start = System.nanoTime();
+        for (Point fix : fixes) {
+          infos.add(engine.latestLocation(fix));
+        }
+        long elapsed = System.nanoTime() - start;
+        engine.setParallelism(1);
+
+        if (threads == 1) {
+          serialNanos = elapsed;
+          serialInfos = infos;
+        }
+        else {
+          assertSameStatus(serialInfos, infos);
+        }
+        double speedUp = serialNanos / elapsed;
+        if (BENCHMARK && cores > 1 && threads > 1 && fenceCount == 256) {
+          assertTrue("speed-up with " + threads + " threads on " + cores + " cores: " + speedUp,
+              speedUp > 1);
+        }
+      }
+    }
+  }
+
+  private static void assertSameStatus(List<List<LocalGeofence.FenceInformation>> expected,
+                                       List<List<LocalGeofence.FenceInformation>> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      Map<Long, LocalGeofence.Status> statuses = new HashMap<Long, LocalGeofence.Status>();
+      for (LocalGeofence.FenceInformation info : expected.get(i)) {
+        statuses.put(info.featureOid, info.status);
+      }
+      assertEquals(statuses.size(), actual.get(i).size());
+      for (LocalGeofence.FenceInformation info : actual.get(i)) {
+        assertEquals(statuses.get(info.featureOid), info.status);
+      }
+    }
+  }
+
+  /**
+   * Fences that are all roughly circles around the origin, of increasing radius.
+   */
+  private static GeofenceEngine createOverlappingEngine(int fenceCount) {
+    GeofenceEngine engine = new GeofenceEngine();
+    for (int i = 0; i < fenceCount; i++) {
+      double radius = 0.02 + 0.1 * i / fenceCount;
+      Polygon fence = new Polygon();
+      for (int v = 0; v < CIRCLE_VERTICES; v++) {
+        double angle = -2 * Math.PI * v / CIRCLE_VERTICES;
+        double x = radius * Math.cos(angle);
+        double y = radius * Math.sin(angle);
+        if (v == 0) {
+          fence.startPath(x, y);
+        }
+        else {
+          fence.lineTo(x, y);
+        }
+      }
+      engine.addFence(i, "Fence " + i, fence, WGS84);
+    }
+    return engine;
+  }
+
+  /**
+   * Fixes spread evenly over the grid of fences made by createEngine.
+   */
+  private static Point[] createFixes(int fenceCount, int fixCount) {
+    double gridSize = Math.ceil(Math.sqrt(fenceCount)) * FENCE_SPACING;
+    Random random = new Random(fenceCount);
+    Point[] fixes = new Point[fixCount];
+    for (int i = 0; i < fixes.length; i++) {
+      fixes[i] = new Point(random.nextDouble() * gridSize, random.nextDouble() * gridSize);
+    }
+    return fixes;
+  }
+
+  private static GeofenceEngine createEngine(int fenceCount) {
+    GeofenceEngine engine = new GeofenceEngine();
+    int columns = (int) Math.ceil(Math.sqrt(fenceCount));
+    for (int i = 0; i < fenceCount; i++) {
+      double x = (i % columns) * FENCE_SPACING;
+      double y = (i / columns) * FENCE_SPACING;
+      Polygon fence = new Polygon();
+      fence.startPath(x, y);
+      fence.lineTo(x, y + FENCE_SIZE);
+      fence.lineTo(x + FENCE_SIZE, y + FENCE_SIZE);
+      fence.lineTo(x + FENCE_SIZE, y);
+      engine.addFence(i, "Fence " + i, fence, WGS84);
+    }
+    return engine;
+  }
+}
@@ -0,0 +1,118 @@
+package com.esri.runtime.android.localgeofence;
+
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Polygon;
+import com.esri.core.geometry.SpatialReference;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the histogram percentiles, and that checking locations against a
+ * fence is counted, once for each location even when checked concurrently.
+ */
+public class GeofenceMetricsTest {
+
+  private static final SpatialReference WGS84 = SpatialReference.create(SpatialReference.WKID_WGS84);
+
+  @Test
+  public void histogramPercentilesAreWithinPrecision() {
+    GeofenceMetrics.Histogram histogram = new GeofenceMetrics.Histogram();
+    Random random = new Random(1);
+    long[] values = new long[100000];
+    for (int i = 0; i < values.length; i++) {
+      // Roughly log-normal, as latencies are.
+      values[i] = (long) Math.exp(8 + random.nextGaussian() * 2);
+      histogram.record(values[i]);
+    }
+    Arrays.sort(values);
+
+    assertEquals(values.length, histogram.getCount());
+    assertEquals(values[values.length - 1], histogram.getMax());
+    double[] percentiles = {1, 50, 90, 99, 99.9};
+    for (double percentile : percentiles) {
+      long expected = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+      long actual = histogram.getValueAtPercentile(percentile);
+      assertTrue(actual >= expected);
+      assertTrue(actual <= expected * 1.07 + 1);
+    }
+  }
+
+  @Test
+  public void bucketsCoverEveryValue() {
+    long previous = -1;
+    for (int bucket = 0; GeofenceMetrics.Histogram.highestValueIn(bucket) != Long.MAX_VALUE; bucket++) {
+      long highest = GeofenceMetrics.Histogram.highestValueIn(bucket);
+      assertEquals(bucket, GeofenceMetrics.Histogram.bucketOf(previous + 1));
+      assertEquals(bucket, GeofenceMetrics.Histogram.bucketOf(highest));
+      previous = highest;
+    }
+    assertEquals(GeofenceMetrics.Histogram.bucketOf(Long.MAX_VALUE),
+        GeofenceMetrics.Histogram.bucketOf(previous + 1));
+  }
+
+  @Test
+  public void fenceChecksAreCounted() {
+    GeofenceMetrics.reset();
+    LocalGeofence fence = new LocalGeofence(1, "Fence", null, createFence(), WGS84);
+    fence.latestLocation(new Point(0.5, 0.5));
+    fence.latestLocation(new Point(0.05, 0.05));
+    fence.latestLocation(new Point(0.05, 0.05));
+
+    assertEquals(3, GeofenceMetrics.FENCE_EVALUATIONS.get());
+    assertEquals(3, GeofenceMetrics.FENCE_WITHIN.get());
+    assertEquals(1, GeofenceMetrics.FENCE_PROXIMITY.get());
+    assertEquals(2, GeofenceMetrics.FENCE_TRANSITIONS.get());
+    assertEquals(3, GeofenceMetrics.FENCE_EVALUATION_NANOS.getCount());
+    assertEquals(Long.valueOf(3), GeofenceMetrics.getCounts().get("fence.evaluations"));
+
+    StringWriter dump = new StringWriter();
+    GeofenceMetrics.dump(dump);
+    assertTrue(dump.toString().contains("fence.evaluations 3"));
+    assertTrue(dump.toString().contains("fence.evaluation_nanos count=3"));
+  }
+
+  @Test
+  public void concurrentChecksAreCountedOnce() throws Exception {
+    GeofenceMetrics.reset();
+    final LocalGeofence fence = new LocalGeofence(1, "Fence", null, createFence(), WGS84);
+    final int updates = 20000;
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      // Threads moving in and out of the fence, so that status updates race
+      // and are retried.
+      final double offset = (t % 2 == 0) ? 0 : 0.5;
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < updates; i++) {
+            fence.latestLocation(new Point(offset + (i % 2) * 0.05, 0.05));
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    // One containment check is kept for each location checked, however many
+    // times its status was worked out again.
+    assertEquals(threads.length * updates, GeofenceMetrics.FENCE_EVALUATIONS.get());
+    assertEquals(threads.length * updates, GeofenceMetrics.FENCE_WITHIN.get());
+  }
+
+  private static Polygon createFence() {
+    Polygon fence = new Polygon();
+    fence.startPath(-0.1, -0.1);
+    fence.lineTo(-0.1, 0.1);
+    fence.lineTo(0.1, 0.1);
+    fence.lineTo(0.1, -0.1);
+    return fence;
+  }
+}
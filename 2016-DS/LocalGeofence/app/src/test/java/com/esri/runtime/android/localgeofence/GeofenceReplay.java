@@ -0,0 +1,583 @@
+package com.esri.runtime.android.localgeofence;
+
+import com.esri.core.geometry.GeometryEngine;
+import com.esri.core.geometry.MapGeometry;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Polygon;
+import com.esri.core.geometry.SpatialReference;
+
+import org.codehaus.jackson.JsonFactory;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays recorded location tracks through LocalGeofence on the JVM, and
+ * reports throughput, per-fix latency, and the transitions emitted.
+ * <p>
+ * Run main() with an Esri JSON polygon file for the fence, followed by one or
+ * more GPX or CSV track files. CSV tracks have lat, lon and optionally time
+ * columns, in that order unless a header row names them. Add --engine to
+ * replay through GeofenceEngine instead, to compare the two.
+ */
+public class GeofenceReplay {
+
+  /**
+   * A recorded location fix.
+   */
+  public static class Fix {
+    public final double lon;
+    public final double lat;
+    public final long time;
+    // Accuracy of the fix in meters, or 0 if not known.
+    public final float accuracy;
+
+    public Fix(double lon, double lat, long time) {
+      this(lon, lat, time, 0);
+    }
+
+    public Fix(double lon, double lat, long time, float accuracy) {
+      this.lon = lon;
+      this.lat = lat;
+      this.time = time;
+      this.accuracy = accuracy;
+    }
+  }
+
+  /**
+   * A transition emitted while replaying a track.
+   */
+  public static class Transition {
+    public final int fixIndex;
+    public final long time;
+    public final LocalGeofence.Status status;
+    public final Enum<?> transition;
+
+    Transition(int fixIndex, long time, LocalGeofence.Status status, Enum<?> transition) {
+      this.fixIndex = fixIndex;
+      this.time = time;
+      this.status = status;
+      this.transition = transition;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US, "fix %6d  time %d  %-8s %s", fixIndex, time, status, transition);
+    }
+  }
+
+  /**
+   * Results of replaying a track.
+   */
+  public static class Report {
+    public int fixes;
+    public long totalNanos;
+    public long[] latencyNanos;
+    public final List<Transition> transitions = new ArrayList<Transition>();
+    public final Map<LocalGeofence.Change, Integer> changeCounts =
+        new EnumMap<LocalGeofence.Change, Integer>(LocalGeofence.Change.class);
+    public final Map<LocalGeofence.UpdateChange, Integer> updateChangeCounts =
+        new EnumMap<LocalGeofence.UpdateChange, Integer>(LocalGeofence.UpdateChange.class);
+
+    public double fixesPerSecond() {
+      return fixes / (totalNanos / 1e9);
+    }
+
+    /**
+     * @param fraction  for example 0.5 for the median, or 0.99
+     * @return the per-fix latency at the given percentile, in nanoseconds
+     */
+    public long percentileNanos(double fraction) {
+      if (latencyNanos.length == 0) {
+        return 0;
+      }
+      long[] sorted = latencyNanos.clone();
+      Arrays.sort(sorted);
+      return sorted[(int) Math.min(sorted.length - 1, Math.floor(fraction * sorted.length))];
+    }
+
+    int count(Enum<?> transition) {
+      Integer count = (transition instanceof LocalGeofence.Change)
+          ? changeCounts.get(transition) : updateChangeCounts.get(transition);
+      return (count == null) ? 0 : count;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format(Locale.US, "fixes: %d  fixes/s: %.0f  p50: %.1f us  p99: %.1f us%n",
+          fixes, fixesPerSecond(), percentileNanos(0.5) / 1000.0, percentileNanos(0.99) / 1000.0));
+      sb.append(String.format(Locale.US, "ENTERED: %d  EXITED: %d  FASTER: %d  SLOWER: %d%n",
+          count(LocalGeofence.Change.ENTERED), count(LocalGeofence.Change.EXITED),
+          count(LocalGeofence.UpdateChange.FASTER), count(LocalGeofence.UpdateChange.SLOWER)));
+      for (Transition transition : transitions) {
+        sb.append(transition).append(String.format("%n"));
+      }
+      return sb.toString();
+    }
+
+    void record(int fixIndex, long time, LocalGeofence.FenceInformation info) {
+      if (info.change == LocalGeofence.Change.ENTERED || info.change == LocalGeofence.Change.EXITED) {
+        transitions.add(new Transition(fixIndex, time, info.status, info.change));
+        changeCounts.put(info.change, count(info.change) + 1);
+      }
+      if (info.updateChange != null && info.updateChange != LocalGeofence.UpdateChange.NO_CHANGE) {
+        transitions.add(new Transition(fixIndex, time, info.status, info.updateChange));
+        updateChangeCounts.put(info.updateChange, count(info.updateChange) + 1);
+      }
+    }
+  }
+
+  /**
+   * Location updates and GPS use when only taking the fixes asked for by an
+   * update rate scheme from a track.
+   */
+  public static class DutyCycle {
+    // Time the GPS is assumed to be on for each high accuracy fix.
+    static final long GPS_FIX_MILLIS = 5000;
+
+    public int fixes;
+    public int highAccuracyFixes;
+    public long gpsOnMillis;
+    public long totalMillis;
+    public long firstInsideTime = -1;
+
+    public double dutyCycle() {
+      return (totalMillis == 0) ? 0 : (double) gpsOnMillis / totalMillis;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US, "fixes: %5d  high accuracy: %5d  GPS duty cycle: %5.1f%%  first inside: %d s",
+          fixes, highAccuracyFixes, dutyCycle() * 100, firstInsideTime / 1000);
+    }
+  }
+
+  /**
+   * Replay a track, taking a fix only when the update rate asked for by the
+   * last fix says one is due, to work out how much the GPS is used.
+   *
+   * @param adaptive  true to use UpdateRateController, false to use the fixed
+   *                  fast rate near or inside the fence and normal rate outside
+   */
+  public static DutyCycle replayDutyCycle(Polygon fence, SpatialReference fenceSr, List<Fix> track,
+                                          boolean adaptive) {
+    LocalGeofence localGeofence = new LocalGeofence(0, "fence", null, fence, fenceSr);
+    UpdateRateController controller = new UpdateRateController();
+    DutyCycle dutyCycle = new DutyCycle();
+    dutyCycle.totalMillis = track.get(track.size() - 1).time - track.get(0).time;
+
+    UpdateRateController.Rate rate = UpdateRateController.FAST_RATE;
+    long nextFixTime = track.get(0).time;
+    for (int i = 0; i < track.size(); i++) {
+      Fix fix = track.get(i);
+      if (fix.time < nextFixTime) {
+        continue;
+      }
+      LocalGeofence.FenceInformation info = localGeofence.latestLocation(new Point(fix.lon, fix.lat));
+      dutyCycle.fixes++;
+      if (rate.isHighAccuracy()) {
+        dutyCycle.highAccuracyFixes++;
+        dutyCycle.gpsOnMillis += Math.min(rate.interval, DutyCycle.GPS_FIX_MILLIS);
+      }
+      if (info.status == LocalGeofence.Status.INSIDE && dutyCycle.firstInsideTime < 0) {
+        dutyCycle.firstInsideTime = fix.time - track.get(0).time;
+      }
+
+      if (adaptive) {
+        controller.update(info.status, info.distanceMeters * (1 - LocalGeofence.PROXIMITY_MARGIN),
+            fix.time, speed(track, i));
+        rate = controller.getRate();
+      }
+      else {
+        rate = (info.status == LocalGeofence.Status.OUTSIDE)
+            ? UpdateRateController.NORMAL_RATE : UpdateRateController.FAST_RATE;
+      }
+      nextFixTime = fix.time + rate.interval;
+    }
+    return dutyCycle;
+  }
+
+  /**
+   * @return the speed at a fix, from the distance to the next or previous
+   * fix, in meters per second.
+   */
+  private static float speed(List<Fix> track, int i) {
+    Fix a = track.get(Math.max(0, (i + 1 < track.size()) ? i : i - 1));
+    Fix b = track.get(Math.min(track.size() - 1, (i + 1 < track.size()) ? i + 1 : i));
+    if (b.time <= a.time) {
+      return -1;
+    }
+    double metersPerDegree = PreparedFence.METERS_PER_DEGREE;
+    double dx = (b.lon - a.lon) * metersPerDegree * Math.cos(Math.toRadians(a.lat));
+    double dy = (b.lat - a.lat) * metersPerDegree;
+    return (float) (Math.sqrt(dx * dx + dy * dy) * 1000 / (b.time - a.time));
+  }
+
+  /**
+   * Replay a track through LocalGeofence.
+   */
+  public static Report replay(Polygon fence, SpatialReference fenceSr, List<Fix> track) {
+    LocalGeofence localGeofence = new LocalGeofence(0, "fence", null, fence, fenceSr);
+
+    Report report = new Report();
+    report.latencyNanos = new long[track.size()];
+    for (int i = 0; i < track.size(); i++) {
+      Fix fix = track.get(i);
+      long start = System.nanoTime();
+      LocalGeofence.FenceInformation info = localGeofence.latestLocation(new Point(fix.lon, fix.lat));
+      long elapsed = System.nanoTime() - start;
+      report.latencyNanos[i] = elapsed;
+      report.totalNanos += elapsed;
+      report.record(i, fix.time, info);
+    }
+    report.fixes = track.size();
+    return report;
+  }
+
+  /**
+   * Replay a track through LocalGeofence and GeofenceScheduler, as the
+   * geofence services do, one fix at a time.
+   *
+   * @return the number of switches between high accuracy and less accurate
+   * updates made, and the number avoided, in that order
+   */
+  public static int[] replayScheduled(Polygon fence, SpatialReference fenceSr, List<Fix> track) {
+    LocalGeofence localGeofence = new LocalGeofence(0, "fence", null, fence, fenceSr);
+    GeofenceScheduler.reset();
+    int switches = GeofenceScheduler.getSwitchCount();
+    int avoidedSwitches = GeofenceScheduler.getAvoidedSwitchCount();
+    for (int i = 0; i < track.size(); i++) {
+      Fix fix = track.get(i);
+      if (GeofenceScheduler.shouldEvaluate(fix.time, fix.accuracy)) {
+        GeofenceScheduler.evaluated(localGeofence.latestLocation(new Point(fix.lon, fix.lat)),
+            fix.time, fix.accuracy, speed(track, i));
+      }
+      GeofenceScheduler.takeUpdateRate(fix.time);
+    }
+    GeofenceScheduler.reset();
+    return new int[]{GeofenceScheduler.getSwitchCount() - switches,
+        GeofenceScheduler.getAvoidedSwitchCount() - avoidedSwitches};
+  }
+
+  /**
+   * Replay a track through GeofenceEngine, watching a single fence.
+   */
+  public static Report replayEngine(Polygon fence, SpatialReference fenceSr, List<Fix> track) {
+    GeofenceEngine engine = new GeofenceEngine();
+    engine.addFence(0, "fence", fence, fenceSr);
+
+    Report report = new Report();
+    report.latencyNanos = new long[track.size()];
+    for (int i = 0; i < track.size(); i++) {
+      Fix fix = track.get(i);
+      long start = System.nanoTime();
+      List<LocalGeofence.FenceInformation> infos = engine.latestLocation(new Point(fix.lon, fix.lat));
+      long elapsed = System.nanoTime() - start;
+      report.latencyNanos[i] = elapsed;
+      report.totalNanos += elapsed;
+      for (LocalGeofence.FenceInformation info : infos) {
+        report.record(i, fix.time, info);
+      }
+    }
+    report.fixes = track.size();
+    return report;
+  }
+
+  /**
+   * Read a GPX or CSV track file, depending on its extension.
+   */
+  public static List<Fix> readTrack(File file) throws IOException {
+    return file.getName().toLowerCase(Locale.US).endsWith(".gpx") ? readGpx(file) : readCsv(file);
+  }
+
+  private static final Pattern GPX_POINT = Pattern.compile(
+      "<trkpt\\s+(?:lat=\"([-0-9.eE]+)\"\\s+lon=\"([-0-9.eE]+)\"|lon=\"([-0-9.eE]+)\"\\s+lat=\"([-0-9.eE]+)\")[^>]*>(.*?)</trkpt>",
+      Pattern.DOTALL);
+  private static final Pattern GPX_TIME = Pattern.compile("<time>([^<]+)</time>");
+
+  static List<Fix> readGpx(File file) throws IOException {
+    Matcher point = GPX_POINT.matcher(readFile(file));
+    List<Fix> track = new ArrayList<Fix>();
+    while (point.find()) {
+      double lat = Double.parseDouble(point.group(1) != null ? point.group(1) : point.group(4));
+      double lon = Double.parseDouble(point.group(2) != null ? point.group(2) : point.group(3));
+      Matcher time = GPX_TIME.matcher(point.group(5));
+      track.add(new Fix(lon, lat, time.find() ? parseTime(time.group(1)) : track.size() * 1000L));
+    }
+    return track;
+  }
+
+  static List<Fix> readCsv(File file) throws IOException {
+    List<Fix> track = new ArrayList<Fix>();
+    int latColumn = 0, lonColumn = 1, timeColumn = 2;
+    BufferedReader reader = new BufferedReader(new FileReader(file));
+    try {
+      String line;
+      boolean first = true;
+      while ((line = reader.readLine()) != null) {
+        String[] values = line.trim().split("\\s*[,;\\t]\\s*");
+        if (values.length < 2) {
+          continue;
+        }
+        if (first && !values[0].matches("[-+0-9.eE]+")) {
+          // Header row - find the named columns.
+          List<String> names = Arrays.asList(line.toLowerCase(Locale.US).trim().split("\\s*[,;\\t]\\s*"));
+          latColumn = indexOf(names, latColumn, "lat", "latitude", "y");
+          lonColumn = indexOf(names, lonColumn, "lon", "lng", "longitude", "x");
+          timeColumn = indexOf(names, timeColumn, "time", "timestamp", "date");
+          first = false;
+          continue;
+        }
+        first = false;
+        long time = (values.length > timeColumn) ? parseTime(values[timeColumn]) : track.size() * 1000L;
+        track.add(new Fix(Double.parseDouble(values[lonColumn]), Double.parseDouble(values[latColumn]), time));
+      }
+    } finally {
+      reader.close();
+    }
+    return track;
+  }
+
+  private static int indexOf(List<String> names, int defaultIndex, String... candidates) {
+    for (String candidate : candidates) {
+      if (names.contains(candidate)) {
+        return names.indexOf(candidate);
+      }
+    }
+    return defaultIndex;
+  }
+
+  /**
+   * Parse a time as milliseconds since the epoch, or an ISO 8601 UTC time.
+   */
+  static long parseTime(String value) {
+    if (value.matches("[0-9]+")) {
+      return Long.parseLong(value);
+    }
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    try {
+      return format.parse(value).getTime();
+    } catch (ParseException e) {
+      throw new IllegalArgumentException("Unrecognised time: " + value, e);
+    }
+  }
+
+  private static String readFile(File file) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    BufferedReader reader = new BufferedReader(new FileReader(file));
+    try {
+      char[] buffer = new char[8192];
+      int read;
+      while ((read = reader.read(buffer)) > 0) {
+        sb.append(buffer, 0, read);
+      }
+    } finally {
+      reader.close();
+    }
+    return sb.toString();
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.out.println("Usage: GeofenceReplay [--engine] fence.json track.gpx|track.csv ...");
+      return;
+    }
+    boolean useEngine = args[0].equals("--engine");
+    int first = useEngine ? 1 : 0;
+    MapGeometry fence = GeometryEngine.jsonToGeometry(
+        new JsonFactory().createJsonParser(new File(args[first])));
+    for (int i = first + 1; i < args.length; i++) {
+      List<Fix> track = readTrack(new File(args[i]));
+      Polygon polygon = (Polygon) fence.getGeometry();
+      Report report = useEngine
+          ? replayEngine(polygon, fence.getSpatialReference(), track)
+          : replay(polygon, fence.getSpatialReference(), track);
+      System.out.println("== " + args[i]);
+      System.out.print(report);
+    }
+  }
+
+  /**
+   * Replay a synthetic track that walks in and out of a square fence, through
+   * both LocalGeofence and GeofenceEngine.
+   */
+  @Test
+  public void replaySyntheticTrack() throws Exception {
+    SpatialReference wgs84 = SpatialReference.create(SpatialReference.WKID_WGS84);
+    Polygon fence = new Polygon();
+    fence.startPath(-117.20, 34.00);
+    fence.lineTo(-117.20, 34.10);
+    fence.lineTo(-117.10, 34.10);
+    fence.lineTo(-117.10, 34.00);
+
+    // Walk east along latitude 34.05, across the fence, and back again.
+    List<Fix> track = new ArrayList<Fix>();
+    for (int i = 0; i <= 4000; i++) {
+      double lon = -117.30 + 0.3 * Math.abs(2000 - Math.abs(i - 2000)) / 2000.0;
+      track.add(new Fix(lon, 34.05, i * 1000L));
+    }
+
+    for (Report report : new Report[]{replay(fence, wgs84, track), replayEngine(fence, wgs84, track)}) {
+      assertEquals(track.size(), report.fixes);
+      assertEquals(2, report.count(LocalGeofence.Change.ENTERED));
+      assertEquals(2, report.count(LocalGeofence.Change.EXITED));
+      assertEquals(2, report.count(LocalGeofence.UpdateChange.FASTER));
+      assertEquals(2, report.count(LocalGeofence.UpdateChange.SLOWER));
+    }
+  }
+
+  /**
+   * Replay a track that weaves in and out of the 'CLOSE' band along the edge
+   * of a fence, which should only become CLOSE once.
+   */
+  @Test
+  public void replayTrackAlongCloseBand() throws Exception {
+    SpatialReference wgs84 = SpatialReference.create(SpatialReference.WKID_WGS84);
+    Polygon fence = new Polygon();
+    fence.startPath(-117.20, 34.00);
+    fence.lineTo(-117.20, 34.10);
+    fence.lineTo(-117.10, 34.10);
+    fence.lineTo(-117.10, 34.00);
+
+    // Walk north, west of the fence, between about 360 and 440 meters away.
+    double metersPerDegree = 111320 * Math.cos(Math.toRadians(34.05));
+    List<Fix> track = new ArrayList<Fix>();
+    for (int i = 0; i <= 1000; i++) {
+      double distance = 400 + 40 * Math.sin(i / 20.0);
+      track.add(new Fix(-117.20 - distance / metersPerDegree, 34.01 + 0.08 * i / 1000, i * 1000L));
+    }
+
+    Report report = replay(fence, wgs84, track);
+    Report noHysteresisReport;
+    double exitHysteresis = LocalGeofence.CLOSE_EXIT_HYSTERESIS_METERS;
+    LocalGeofence.CLOSE_EXIT_HYSTERESIS_METERS = 0;
+    try {
+      noHysteresisReport = replay(fence, wgs84, track);
+    } finally {
+      LocalGeofence.CLOSE_EXIT_HYSTERESIS_METERS = exitHysteresis;
+    }
+
+    assertEquals(0, report.count(LocalGeofence.Change.ENTERED));
+    assertEquals(1, report.count(LocalGeofence.UpdateChange.FASTER));
+    assertEquals(0, report.count(LocalGeofence.UpdateChange.SLOWER));
+
+    // Without hysteresis, this asks to switch to fast 8 times, and back again
+    // 7 times.
+    assertEquals(0, noHysteresisReport.count(LocalGeofence.Change.ENTERED));
+    assertEquals(8, noHysteresisReport.count(LocalGeofence.UpdateChange.FASTER));
+    assertEquals(7, noHysteresisReport.count(LocalGeofence.UpdateChange.SLOWER));
+  }
+
+  /**
+   * Replay a device standing still outside a fence, where an occasional
+   * inaccurate network fix makes it look much nearer to the fence, and check
+   * how often GeofenceScheduler switches the update rate.
+   */
+  @Test
+  public void replayInaccurateFixesOutsideFence() throws Exception {
+    SpatialReference wgs84 = SpatialReference.create(SpatialReference.WKID_WGS84);
+    Polygon fence = new Polygon();
+    fence.startPath(-117.20, 34.00);
+    fence.lineTo(-117.20, 34.10);
+    fence.lineTo(-117.10, 34.10);
+    fence.lineTo(-117.10, 34.00);
+
+    // Stand about 1755 meters west of the fence for half an hour, with a fix
+    // every second accurate to 10 meters, except every 45th accurate only to
+    // 1000 meters.
+    double metersPerDegree = 111320 * Math.cos(Math.toRadians(34.05));
+    List<Fix> track = new ArrayList<Fix>();
+    for (int i = 0; i <= 1800; i++) {
+      float accuracy = (i % 45 == 44) ? 1000 : 10;
+      track.add(new Fix(-117.20 - 1755 / metersPerDegree, 34.05, i * 1000L, accuracy));
+    }
+
+    int[] switches = replayScheduled(fence, wgs84, track);
+    int[] dwellOnlySwitches;
+    int[] noHysteresisSwitches;
+    float exitFactor = UpdateRateController.HIGH_ACCURACY_EXIT_FACTOR;
+    long outsideDwellTime = GeofenceScheduler.MIN_OUTSIDE_DWELL_TIME;
+    UpdateRateController.HIGH_ACCURACY_EXIT_FACTOR = 1;
+    try {
+      dwellOnlySwitches = replayScheduled(fence, wgs84, track);
+      GeofenceScheduler.MIN_OUTSIDE_DWELL_TIME = 0;
+      noHysteresisSwitches = replayScheduled(fence, wgs84, track);
+    } finally {
+      UpdateRateController.HIGH_ACCURACY_EXIT_FACTOR = exitFactor;
+      GeofenceScheduler.MIN_OUTSIDE_DWELL_TIME = outsideDwellTime;
+    }
+
+    // Each inaccurate fix calls for high accuracy, and the next accurate fixes
+    // for less. Without any hysteresis, the rate switches both ways for each
+    // inaccurate fix.
+    assertArrayEquals(new int[]{40, 0}, noHysteresisSwitches);
+
+    // The outside dwell time stops it switching back to less accurate updates
+    // after the first, so each inaccurate fix is an avoided switch.
+    assertArrayEquals(new int[]{1, 19}, dwellOnlySwitches);
+
+    // The update rate controller only leaves high accuracy once updates could
+    // be a good deal less frequent, which an accurate fix at this distance
+    // does not allow, so it never switches at all.
+    assertArrayEquals(new int[]{0, 0}, switches);
+  }
+
+  /**
+   * Compare GPS use of the adaptive update rate with the fixed fast and normal
+   * rates, driving and walking into a fence.
+   */
+  @Test
+  public void replayDutyCycle() throws Exception {
+    SpatialReference wgs84 = SpatialReference.create(SpatialReference.WKID_WGS84);
+    Polygon fence = new Polygon();
+    fence.startPath(-117.20, 34.00);
+    fence.lineTo(-117.20, 34.10);
+    fence.lineTo(-117.10, 34.10);
+    fence.lineTo(-117.10, 34.00);
+
+    // Start 0.2 degrees (about 18 km) west, and drive east through the fence,
+    // or start 0.02 degrees (about 2 km) west, and walk east into it. When
+    // driving, the normal rate misses the entry by minutes, so the two-mode
+    // scheme uses less GPS only by noticing the fence late.
+    double[][] journeys = {{-117.40, -116.90, 15}, {-117.22, -117.15, 1.4}};
+    double metersPerDegree = PreparedFence.METERS_PER_DEGREE * Math.cos(Math.toRadians(34.05));
+    for (double[] journey : journeys) {
+      List<Fix> track = new ArrayList<Fix>();
+      long seconds = (long) ((journey[1] - journey[0]) * metersPerDegree / journey[2]);
+      for (long t = 0; t <= seconds; t++) {
+        track.add(new Fix(journey[0] + (journey[1] - journey[0]) * t / seconds, 34.05, t * 1000));
+      }
+      long entryTime = (long) ((-117.20 - journey[0]) * metersPerDegree / journey[2]) * 1000;
+
+      DutyCycle twoMode = replayDutyCycle(fence, wgs84, track, false);
+      DutyCycle adaptive = replayDutyCycle(fence, wgs84, track, true);
+      String message = String.format(Locale.US, "%.1f m/s, entry at %d s, two-mode: %s, adaptive: %s",
+          journey[2], entryTime / 1000, twoMode, adaptive);
+
+      assertTrue(message, adaptive.firstInsideTime >= entryTime);
+      assertTrue(message, adaptive.firstInsideTime - entryTime <= 2 * MainActivity.FAST_UPDATE_INTERVAL);
+      assertTrue(message, twoMode.firstInsideTime - entryTime > 2 * MainActivity.FAST_UPDATE_INTERVAL);
+      if (journey[2] < 2) {
+        assertTrue(message, adaptive.dutyCycle() < twoMode.dutyCycle());
+      }
+    }
+  }
+}
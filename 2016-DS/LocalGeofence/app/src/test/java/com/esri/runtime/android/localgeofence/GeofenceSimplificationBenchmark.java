@@ -0,0 +1,161 @@
+package com.esri.runtime.android.localgeofence;
+
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Polygon;
+import com.esri.core.geometry.SpatialReference;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares checking fixes against dense fences with and without a generalized
+ * fence. The fences are rings with vertices every 20 m, as left by
+ * densifying before projection, with a little jitter and some larger bays and
+ * headlands. Fixes are spread over a band a few kilometers either side of
+ * the boundary, where the proximity checks are made.
+ */
+public class GeofenceSimplificationBenchmark {
+
+  private static final SpatialReference WGS84 = SpatialReference.create(SpatialReference.WKID_WGS84);
+
+  private static final double VERTEX_SPACING_METERS = 20;
+  private static final double JITTER_METERS = 2;
+
+  private static final int WARMUP_FIXES = 5000;
+  private static final int MEASURED_FIXES = 50000;
+
+  @Test
+  public void generalizedBoundaryIsWithinTolerance() throws Exception {
+    double tolerance = LocalGeofence.GENERALIZE_TOLERANCE_METERS;
+    for (double radius : new double[]{0.05, 0.2}) {
+      Polygon fence = createFence(radius, 51.5, new Random(1));
+      PreparedFence full = new PreparedFence(fence);
+      PreparedFence coarse = new PreparedFence(FenceGeneralizer.generalize(fence, tolerance));
+      assertTrue(coarse.getEdgeCount() < full.getEdgeCount() / 4);
+
+      Random random = new Random(2);
+      for (int i = 0; i < 10000; i++) {
+        double angle = random.nextDouble() * 2 * Math.PI;
+        double r = radius * (0.9 + random.nextDouble() * 0.2);
+        double x = r * Math.cos(angle) / Math.cos(Math.toRadians(51.5));
+        double y = 51.5 + r * Math.sin(angle);
+        double fullDistance = full.nearestEdgeMeters(x, y, 1e5);
+        double coarseDistance = coarse.nearestEdgeMeters(x, y, 1e5);
+        assertEquals(fullDistance, coarseDistance, tolerance);
+      }
+    }
+  }
+
+  @Test
+  public void generalizedFenceAvoidsFullResolutionWork() throws Exception {
+    double tolerance = LocalGeofence.GENERALIZE_TOLERANCE_METERS;
+    try {
+      for (double radius : new double[]{0.05, 0.2, 0.5}) {
+        Polygon fence = createFence(radius, 51.5, new Random(1));
+        double[] fixes = createFixes(radius, 51.5, new Random(3));
+
+        LocalGeofence.GENERALIZE_TOLERANCE_METERS = 0;
+        LocalGeofence fullFence = new LocalGeofence(1, "Fence", null, fence, WGS84);
+        assertNull(fullFence.getCoarseFence());
+        LocalGeofence.GENERALIZE_TOLERANCE_METERS = tolerance;
+        LocalGeofence coarseFence = new LocalGeofence(1, "Fence", null, fence, WGS84);
+        assertNotNull(coarseFence.getCoarseFence());
+
+        LocalGeofence.Status[] fullStatus = new LocalGeofence.Status[MEASURED_FIXES];
+        LocalGeofence.Status[] coarseStatus = new LocalGeofence.Status[MEASURED_FIXES];
+        run(fullFence, fixes, new LocalGeofence.Status[MEASURED_FIXES]);
+        run(coarseFence, fixes, new LocalGeofence.Status[MEASURED_FIXES]);
+
+        GeofenceMetrics.reset();
+        long fullNanos = run(fullFence, fixes, fullStatus);
+        long fullWork = GeofenceMetrics.FENCE_PROXIMITY_FULL.get()
+            + GeofenceMetrics.FENCE_DISTANCE_FULL.get();
+        long proximity = GeofenceMetrics.FENCE_PROXIMITY.get();
+
+        GeofenceMetrics.reset();
+        long coarseNanos = run(coarseFence, fixes, coarseStatus);
+        long coarseWork = GeofenceMetrics.FENCE_PROXIMITY_FULL.get()
+            + GeofenceMetrics.FENCE_DISTANCE_FULL.get();
+        assertEquals(proximity, GeofenceMetrics.FENCE_PROXIMITY.get());
+
+        assertArrayEquals(fullStatus, coarseStatus);
+        assertTrue(coarseWork < fullWork / 2);
+
+        System.out.println(String.format(
+            "edges: %6d -> %5d  full resolution checks: %6d -> %6d (%.1f%% avoided)  per fix: %6.2f us -> %6.2f us",
+            fullFence.getPreparedFence().getEdgeCount(), coarseFence.getCoarseFence().getEdgeCount(),
+            fullWork, coarseWork, 100.0 * (fullWork - coarseWork) / fullWork,
+            fullNanos / 1000.0 / MEASURED_FIXES, coarseNanos / 1000.0 / MEASURED_FIXES));
+      }
+    } finally {
+      LocalGeofence.GENERALIZE_TOLERANCE_METERS = tolerance;
+    }
+  }
+
+  /**
+   * Check every fix against a fence, as a track alternately continuing from
+   * the last status and starting from OUTSIDE, and check the boundary
+   * distance as the services do to skip fixes.
+   *
+   * @return the time taken, in nanoseconds.
+   */
+  private static long run(LocalGeofence fence, double[] fixes, LocalGeofence.Status[] statuses) {
+    Point location = new Point();
+    LocalGeofence.Status lastStatus = LocalGeofence.Status.OUTSIDE;
+    double distance = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < statuses.length; i++) {
+      location.setXY(fixes[2 * i], fixes[2 * i + 1]);
+      statuses[i] = fence.fenceStatus(location, (i % 2 == 0) ? lastStatus : LocalGeofence.Status.OUTSIDE);
+      distance += fence.boundaryDistance(location);
+      lastStatus = statuses[i];
+    }
+    long elapsed = System.nanoTime() - start;
+    assertTrue(distance > 0);
+    return elapsed;
+  }
+
+  /**
+   * Fixes within 3 km of the boundary of a fence made by createFence.
+   */
+  private static double[] createFixes(double radius, double latitude, Random random) {
+    double[] fixes = new double[2 * MEASURED_FIXES];
+    double band = 3000 / PreparedFence.METERS_PER_DEGREE;
+    for (int i = 0; i < MEASURED_FIXES; i++) {
+      double angle = random.nextDouble() * 2 * Math.PI;
+      double r = radius + (random.nextDouble() * 2 - 1) * band;
+      fixes[2 * i] = r * Math.cos(angle) / Math.cos(Math.toRadians(latitude));
+      fixes[2 * i + 1] = latitude + r * Math.sin(angle);
+    }
+    return fixes;
+  }
+
+  /**
+   * A ring of the given radius in degrees of latitude, around the origin
+   * meridian at the given latitude, with vertices every 20 m.
+   */
+  private static Polygon createFence(double radius, double latitude, Random random) {
+    double radiusMeters = radius * PreparedFence.METERS_PER_DEGREE;
+    int vertices = (int) (2 * Math.PI * radiusMeters / VERTEX_SPACING_METERS);
+    double xScale = 1 / Math.cos(Math.toRadians(latitude));
+    Polygon fence = new Polygon();
+    for (int v = 0; v < vertices; v++) {
+      double angle = -2 * Math.PI * v / vertices;
+      // Bays and headlands a few hundred meters deep, and a little jitter.
+      double r = radiusMeters * (1 + 0.02 * Math.sin(7 * angle) + 0.01 * Math.sin(23 * angle))
+          + (random.nextDouble() * 2 - 1) * JITTER_METERS;
+      double x = r * Math.cos(angle) / PreparedFence.METERS_PER_DEGREE * xScale;
+      double y = latitude + r * Math.sin(angle) / PreparedFence.METERS_PER_DEGREE;
+      if (v == 0) {
+        fence.startPath(x, y);
+      }
+      else {
+        fence.lineTo(x, y);
+      }
+    }
+    return fence;
+  }
+}
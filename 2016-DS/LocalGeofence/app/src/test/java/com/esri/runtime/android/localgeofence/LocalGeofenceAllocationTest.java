@@ -0,0 +1,95 @@
+package com.esri.runtime.android.localgeofence;
+
+import com.esri.core.geometry.Polygon;
+import com.esri.core.geometry.SpatialReference;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that checking a location against a fence creates no garbage once
+ * warmed up, by counting the bytes allocated by the checking thread.
+ */
+public class LocalGeofenceAllocationTest {
+
+  private static final SpatialReference WGS84 = SpatialReference.create(SpatialReference.WKID_WGS84);
+
+  private static final int FIXES = 20000;
+
+  @Test
+  public void steadyStateFixesDoNotAllocate() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) bean;
+    Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+    allocations.setThreadAllocatedMemoryEnabled(true);
+
+    // A walk in and out of the fence, crossing the close band and boundary
+    // so every kind of check is made, including the exact ones.
+    LocalGeofence fence = new LocalGeofence(1234567, "Fence", null, createFence(), WGS84);
+    double[] x = new double[FIXES];
+    double[] y = new double[FIXES];
+    Random random = new Random(1);
+    for (int i = 0; i < FIXES; i++) {
+      double t = 2 * Math.PI * i / 500;
+      x[i] = 0.12 * Math.cos(t) + random.nextGaussian() * 0.0001;
+      y[i] = 0.0003 * Math.sin(t * 7) + random.nextGaussian() * 0.0001;
+    }
+    LocalGeofence.FenceInformation info = new LocalGeofence.FenceInformation();
+    UpdateRateController controller = new UpdateRateController();
+
+    // Warm up, so that class loading, thread locals and compilation are done.
+    for (int i = 0; i < FIXES; i++) {
+      check(fence, controller, x[i], y[i], i, info);
+    }
+    long threadId = Thread.currentThread().getId();
+    allocations.getThreadAllocatedBytes(threadId);
+
+    int entered = 0;
+    long before = allocations.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < FIXES; i++) {
+      check(fence, controller, x[i], y[i], FIXES + i, info);
+      if (info.change == LocalGeofence.Change.ENTERED) {
+        entered++;
+      }
+    }
+    long allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+
+    System.out.println(String.format("fixes: %d  entered: %d  allocated: %d bytes",
+        FIXES, entered, allocated));
+    assertTrue(entered > 0);
+
+    // The JIT compiler can still allocate a few bytes on the thread now and
+    // then, but a single object per fix would be at least 16 bytes per fix.
+    assertTrue(allocated < FIXES);
+  }
+
+  private static void check(LocalGeofence fence, UpdateRateController controller,
+                            double x, double y, int i, LocalGeofence.FenceInformation info) {
+    fence.latestLocation(x, y, info);
+    controller.update(info.status, info.distanceMeters, i * 1000L, 1.4f);
+    controller.isHighAccuracy();
+  }
+
+  /**
+   * A square with a square hole in it.
+   */
+  private static Polygon createFence() {
+    Polygon fence = new Polygon();
+    fence.startPath(-0.1, -0.1);
+    fence.lineTo(-0.1, 0.1);
+    fence.lineTo(0.1, 0.1);
+    fence.lineTo(0.1, -0.1);
+    fence.startPath(-0.02, -0.02);
+    fence.lineTo(0.02, -0.02);
+    fence.lineTo(0.02, 0.02);
+    fence.lineTo(-0.02, 0.02);
+    return fence;
+  }
+}
@@ -0,0 +1,237 @@
+package com.esri.runtime.android.localgeofence;
+
+import com.esri.core.geometry.Polygon;
+
+import org.junit.Test;
+
+import java.nio.DoubleBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Bounds the error of distances measured on a LocalProjection against
+ * geodesic distances on the WGS84 ellipsoid, for locations anywhere within
+ * LOCAL_PROJECTION_MAX_METERS east or west of the central meridian. Geodesic
+ * distances are worked out here with Vincenty's formulae, which are good to
+ * well under a millimeter.
+ */
+public class LocalProjectionTest {
+
+  private static final double[] LATITUDES = {0, 30, 52, 70, -45};
+
+  // Distances measured for the proximity checks, and the error allowed in them.
+  private static final double SHORT_DISTANCE_METERS = 1000;
+  private static final double SHORT_DISTANCE_ERROR_METERS = 0.002;
+
+  // Relative error allowed in distances right across the fence.
+  private static final double LONG_DISTANCE_RELATIVE_ERROR = 1e-5;
+
+  @Test
+  public void shortDistancesMatchGeodesic() throws Exception {
+    for (double latitude : LATITUDES) {
+      LocalProjection projection = new LocalProjection(10, latitude);
+      Random random = new Random(1);
+      for (int i = 0; i < 20000; i++) {
+        double[] from = randomLocation(random, 10, latitude);
+        double bearing = random.nextDouble() * 2 * Math.PI;
+        double meters = random.nextDouble() * SHORT_DISTANCE_METERS;
+        double x = from[0] + Math.sin(bearing) * meters
+            / (PreparedFence.METERS_PER_DEGREE * Math.cos(Math.toRadians(from[1])));
+        double y = from[1] + Math.cos(bearing) * meters / PreparedFence.METERS_PER_DEGREE;
+        double error = Math.abs(projectedDistance(projection, from[0], from[1], x, y)
+            - vincentyDistance(from[0], from[1], x, y));
+        assertTrue("error " + error + " at latitude " + latitude,
+            error < SHORT_DISTANCE_ERROR_METERS);
+      }
+    }
+  }
+
+  @Test
+  public void longDistancesMatchGeodesic() throws Exception {
+    for (double latitude : LATITUDES) {
+      LocalProjection projection = new LocalProjection(-120, latitude);
+      Random random = new Random(2);
+      for (int i = 0; i < 20000; i++) {
+        double[] from = randomLocation(random, -120, latitude);
+        double[] to = randomLocation(random, -120, latitude);
+        double geodesic = vincentyDistance(from[0], from[1], to[0], to[1]);
+        double error = Math.abs(projectedDistance(projection, from[0], from[1], to[0], to[1])
+            - geodesic) / geodesic;
+        assertTrue("relative error " + error + " at latitude " + latitude,
+            error < LONG_DISTANCE_RELATIVE_ERROR);
+      }
+    }
+  }
+
+  @Test
+  public void nearestEdgeMatchesGeodesic() throws Exception {
+    for (double latitude : LATITUDES) {
+      PreparedFence fence = new PreparedFence(createFence(latitude));
+      LocalProjection projection = LocalGeofence.createProjection(fence);
+      assertNotNull(projection);
+      DoubleBuffer projectedEdges = fence.projectEdges(projection);
+      double[] projected = new double[2];
+
+      Random random = new Random(3);
+      for (int i = 0; i < 300; i++) {
+        // Near the boundary, where the exact check is made.
+        double angle = random.nextDouble() * 2 * Math.PI;
+        double radius = FENCE_RADIUS + (random.nextDouble() * 2 - 1) * 0.01;
+        double x = radius * Math.cos(angle) / Math.cos(Math.toRadians(latitude));
+        double y = latitude + radius * Math.sin(angle);
+
+        double expected = geodesicEdgeDistance(fence, x, y, 2000);
+        double actual = fence.nearestEdgeProjected(x, y, 2000, projection, projectedEdges,
+            projected);
+        if (Double.isInfinite(expected)) {
+          assertTrue(Double.isInfinite(actual));
+          continue;
+        }
+        double error = Math.abs(actual - expected);
+        assertTrue("error " + error + " at latitude " + latitude,
+            error < SHORT_DISTANCE_ERROR_METERS);
+      }
+    }
+  }
+
+  @Test
+  public void wideFencesUseGeodesics() throws Exception {
+    double halfWidthDegrees = LocalGeofence.LOCAL_PROJECTION_MAX_METERS
+        / PreparedFence.METERS_PER_DEGREE;
+    Polygon fence = new Polygon();
+    fence.startPath(-halfWidthDegrees, -0.1);
+    fence.lineTo(-halfWidthDegrees, 0.1);
+    fence.lineTo(halfWidthDegrees, 0.1);
+    fence.lineTo(halfWidthDegrees, -0.1);
+    assertNull(LocalGeofence.createProjection(new PreparedFence(fence)));
+
+    boolean useLocalProjection = LocalGeofence.USE_LOCAL_PROJECTION;
+    try {
+      LocalGeofence.USE_LOCAL_PROJECTION = false;
+      assertNull(LocalGeofence.createProjection(new PreparedFence(createFence(52))));
+    } finally {
+      LocalGeofence.USE_LOCAL_PROJECTION = useLocalProjection;
+    }
+  }
+
+  // Radius of the fence made by createFence, in degrees of latitude.
+  private static final double FENCE_RADIUS = 0.3;
+
+  /**
+   * A circle with vertices every 20 m or so, around longitude 0.
+   */
+  private static Polygon createFence(double latitude) {
+    int vertices = (int) (2 * Math.PI * FENCE_RADIUS * PreparedFence.METERS_PER_DEGREE / 20);
+    Polygon fence = new Polygon();
+    for (int v = 0; v < vertices; v++) {
+      double angle = -2 * Math.PI * v / vertices;
+      double x = FENCE_RADIUS * Math.cos(angle) / Math.cos(Math.toRadians(latitude));
+      double y = latitude + FENCE_RADIUS * Math.sin(angle);
+      if (v == 0) {
+        fence.startPath(x, y);
+      }
+      else {
+        fence.lineTo(x, y);
+      }
+    }
+    return fence;
+  }
+
+  /**
+   * A location up to LOCAL_PROJECTION_MAX_METERS east or west of a meridian,
+   * and up to a degree north or south of a latitude.
+   */
+  private static double[] randomLocation(Random random, double meridian, double latitude) {
+    double y = latitude + random.nextDouble() * 2 - 1;
+    double x = meridian + (random.nextDouble() * 2 - 1) * LocalGeofence.LOCAL_PROJECTION_MAX_METERS
+        / (PreparedFence.METERS_PER_DEGREE * Math.cos(Math.toRadians(y)));
+    return new double[]{x, y};
+  }
+
+  private static double projectedDistance(LocalProjection projection, double x1, double y1,
+                                          double x2, double y2) {
+    double[] from = new double[2];
+    double[] to = new double[2];
+    projection.project(x1, y1, from);
+    projection.project(x2, y2, to);
+    return projection.distance(from[0], from[1], to[0], to[1]);
+  }
+
+  /**
+   * Geodesic distance from a location to the nearest fence edge within a
+   * search distance, finding the nearest point on each edge by golden
+   * section search.
+   */
+  private static double geodesicEdgeDistance(PreparedFence fence, double x, double y,
+                                             double searchMeters) {
+    double nearest = Double.POSITIVE_INFINITY;
+    DoubleBuffer edges = fence.mEdges;
+    for (int e = 0; e < fence.getEdgeCount() * 4; e += 4) {
+      double ax = edges.get(e), ay = edges.get(e + 1);
+      double bx = edges.get(e + 2), by = edges.get(e + 3);
+      double metersPerDegreeX = PreparedFence.METERS_PER_DEGREE * Math.cos(Math.toRadians(y));
+      double roughMeters = PreparedFence.segmentDistance(
+          (ax - x) * metersPerDegreeX, (ay - y) * PreparedFence.METERS_PER_DEGREE,
+          (bx - x) * metersPerDegreeX, (by - y) * PreparedFence.METERS_PER_DEGREE);
+      if (roughMeters > Math.min(searchMeters, nearest) * 1.02 + 1) {
+        continue;
+      }
+      double lo = 0, hi = 1;
+      double ratio = (Math.sqrt(5) - 1) / 2;
+      for (int i = 0; i < 40; i++) {
+        double t1 = hi - ratio * (hi - lo);
+        double t2 = lo + ratio * (hi - lo);
+        double d1 = vincentyDistance(x, y, ax + t1 * (bx - ax), ay + t1 * (by - ay));
+        double d2 = vincentyDistance(x, y, ax + t2 * (bx - ax), ay + t2 * (by - ay));
+        if (d1 < d2) {
+          hi = t2;
+        }
+        else {
+          lo = t1;
+        }
+      }
+      double t = (lo + hi) / 2;
+      nearest = Math.min(nearest, vincentyDistance(x, y, ax + t * (bx - ax), ay + t * (by - ay)));
+    }
+    return (nearest <= searchMeters) ? nearest : Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Geodesic distance between two WGS84 locations, by Vincenty's inverse formula.
+   */
+  private static double vincentyDistance(double x1, double y1, double x2, double y2) {
+    double a = 6378137, f = 1 / 298.257223563, b = a * (1 - f);
+    double l = Math.toRadians(x2 - x1);
+    double u1 = Math.atan((1 - f) * Math.tan(Math.toRadians(y1)));
+    double u2 = Math.atan((1 - f) * Math.tan(Math.toRadians(y2)));
+    double sinU1 = Math.sin(u1), cosU1 = Math.cos(u1);
+    double sinU2 = Math.sin(u2), cosU2 = Math.cos(u2);
+    double lambda = l, lambdaPrevious;
+    double sinSigma, cosSigma, sigma, cosSqAlpha, cos2SigmaM;
+    int iterations = 0;
+    do {
+      double sinLambda = Math.sin(lambda), cosLambda = Math.cos(lambda);
+      sinSigma = Math.hypot(cosU2 * sinLambda, cosU1 * sinU2 - sinU1 * cosU2 * cosLambda);
+      if (sinSigma == 0) {
+        return 0;
+      }
+      cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+      sigma = Math.atan2(sinSigma, cosSigma);
+      double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+      cosSqAlpha = 1 - sinAlpha * sinAlpha;
+      cos2SigmaM = (cosSqAlpha != 0) ? cosSigma - 2 * sinU1 * sinU2 / cosSqAlpha : 0;
+      double c = f / 16 * cosSqAlpha * (4 + f * (4 - 3 * cosSqAlpha));
+      lambdaPrevious = lambda;
+      lambda = l + (1 - c) * f * sinAlpha * (sigma + c * sinSigma
+          * (cos2SigmaM + c * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+    } while (Math.abs(lambda - lambdaPrevious) > 1e-13 && ++iterations < 200);
+    double uSq = cosSqAlpha * (a * a - b * b) / (b * b);
+    double bigA = 1 + uSq / 16384 * (4096 + uSq * (-768 + uSq * (320 - 175 * uSq)));
+    double bigB = uSq / 1024 * (256 + uSq * (-128 + uSq * (74 - 47 * uSq)));
+    double deltaSigma = bigB * sinSigma * (cos2SigmaM + bigB / 4 * (cosSigma
+        * (-1 + 2 * cos2SigmaM * cos2SigmaM) - bigB / 6 * cos2SigmaM
+        * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+    return b * bigA * (sigma - deltaSigma);
+  }
+}
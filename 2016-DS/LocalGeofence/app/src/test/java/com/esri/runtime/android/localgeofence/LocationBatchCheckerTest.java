@@ -0,0 +1,42 @@
+package com.esri.runtime.android.localgeofence;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that batches of location updates are put in timestamp order, keeping
+ * the order of updates with the same time.
+ */
+public class LocationBatchCheckerTest {
+
+  @Test
+  public void sortsByTime() {
+    Random random = new Random(1);
+    for (int size : new int[]{0, 1, 2, 5, 50}) {
+      long[] times = new long[size + 3];
+      List<Integer> items = new ArrayList<Integer>();
+      for (int i = 0; i < size; i++) {
+        times[i] = random.nextInt(10);
+        items.add(i);
+      }
+      long[] originalTimes = times.clone();
+      LocationBatchChecker.sortByTime(times, items);
+
+      assertEquals(size, items.size());
+      for (int i = 0; i < size; i++) {
+        assertEquals(originalTimes[items.get(i)], times[i]);
+        if (i > 0) {
+          assertTrue(times[i - 1] <= times[i]);
+          if (times[i - 1] == times[i]) {
+            assertTrue(items.get(i - 1) < items.get(i));
+          }
+        }
+      }
+    }
+  }
+}
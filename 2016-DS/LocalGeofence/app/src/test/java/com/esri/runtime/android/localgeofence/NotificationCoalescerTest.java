@@ -0,0 +1,94 @@
+package com.esri.runtime.android.localgeofence;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that transitions are coalesced per fence, so that only the latest is
+ * posted in each window, and that suppressed transitions are counted.
+ */
+public class NotificationCoalescerTest {
+
+  private static final long WINDOW = 30000;
+
+  @Test
+  public void jitteryBoundaryPostsOncePerWindow() {
+    NotificationCoalescer coalescer = new NotificationCoalescer(WINDOW);
+    int posted = 0;
+
+    // Enter, then flip in and out every second for a minute.
+    for (int second = 0; second < 60; second++) {
+      LocalGeofence.Change change = (second % 2 == 0)
+          ? LocalGeofence.Change.ENTERED : LocalGeofence.Change.EXITED;
+      long time = second * 1000L;
+      if (coalescer.offer(1, change, change.name(), null, time) != null) {
+        posted++;
+      }
+      posted += coalescer.takeDue(time).size();
+    }
+    // One at the start of each window; the last transition is still held back.
+    assertEquals(2, posted);
+    assertEquals(57, coalescer.getSuppressedCount());
+  }
+
+  @Test
+  public void latestStateIsPostedWithSuppressedCount() {
+    NotificationCoalescer coalescer = new NotificationCoalescer(WINDOW);
+    assertNotNull(coalescer.offer(1, LocalGeofence.Change.ENTERED, "Entered", null, 0));
+    assertNull(coalescer.offer(1, LocalGeofence.Change.EXITED, "Exited", null, 1000));
+    assertNull(coalescer.offer(1, LocalGeofence.Change.ENTERED, "Entered", null, 2000));
+    assertNull(coalescer.offer(1, LocalGeofence.Change.EXITED, "Exited", null, 3000));
+
+    // Other fences are not held back.
+    assertNotNull(coalescer.offer(2, LocalGeofence.Change.ENTERED, "Entered", null, 3000));
+
+    assertTrue(coalescer.takeDue(WINDOW - 1).isEmpty());
+    List<NotificationCoalescer.Notice> due = coalescer.takeDue(WINDOW);
+    assertEquals(1, due.size());
+    assertEquals(1, due.get(0).featureOid);
+    assertEquals(LocalGeofence.Change.EXITED, due.get(0).change);
+    assertEquals(2, due.get(0).suppressedCount);
+  }
+
+  @Test
+  public void returnToPostedStateIsNotPostedAgain() {
+    NotificationCoalescer coalescer = new NotificationCoalescer(WINDOW);
+    assertNotNull(coalescer.offer(1, LocalGeofence.Change.ENTERED, "Entered", null, 0));
+    assertNull(coalescer.offer(1, LocalGeofence.Change.EXITED, "Exited", null, 1000));
+    assertNull(coalescer.offer(1, LocalGeofence.Change.ENTERED, "Entered", null, 2000));
+    assertTrue(coalescer.takeDue(WINDOW).isEmpty());
+    assertEquals(2, coalescer.getSuppressedCount());
+
+    // The next transition is posted at once, and reports the ones not shown.
+    NotificationCoalescer.Notice notice = coalescer.offer(1, LocalGeofence.Change.EXITED,
+        "Exited", null, WINDOW + 1000);
+    assertNotNull(notice);
+    assertEquals(2, notice.suppressedCount);
+  }
+
+  @Test
+  public void suppressedCountIsKeptUntilNextNotice() {
+    NotificationCoalescer coalescer = new NotificationCoalescer(WINDOW);
+    assertNotNull(coalescer.offer(1, LocalGeofence.Change.ENTERED, "Entered", null, 0));
+    assertNull(coalescer.offer(1, LocalGeofence.Change.EXITED, "Exited", null, 1000));
+    assertNull(coalescer.offer(1, LocalGeofence.Change.ENTERED, "Entered", null, 2000));
+    assertTrue(coalescer.takeDue(WINDOW).isEmpty());
+
+    // Later batches with no transitions for the fence do not lose the count.
+    assertTrue(coalescer.takeDue(WINDOW + 1000).isEmpty());
+    assertTrue(coalescer.takeDue(3 * WINDOW).isEmpty());
+    NotificationCoalescer.Notice notice = coalescer.offer(1, LocalGeofence.Change.EXITED,
+        "Exited", null, 3 * WINDOW + 1000);
+    assertNotNull(notice);
+    assertEquals(2, notice.suppressedCount);
+
+    // Once reported, the fence is forgotten when nothing more happens.
+    assertTrue(coalescer.takeDue(5 * WINDOW).isEmpty());
+    notice = coalescer.offer(1, LocalGeofence.Change.ENTERED, "Entered", null, 5 * WINDOW + 1000);
+    assertNotNull(notice);
+    assertEquals(0, notice.suppressedCount);
+  }
+}
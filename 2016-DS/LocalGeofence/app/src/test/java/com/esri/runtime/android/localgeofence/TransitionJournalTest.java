@@ -0,0 +1,128 @@
+package com.esri.runtime.android.localgeofence;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that transitions written to the journal can be read back, that the
+ * journal rotates its segments, and that appending keeps up with thousands of
+ * transitions a second without blocking.
+ */
+public class TransitionJournalTest {
+
+  private File mDirectory;
+
+  @Before
+  public void setUp() throws Exception {
+    mDirectory = File.createTempFile("journal", "");
+    mDirectory.delete();
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = mDirectory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    mDirectory.delete();
+  }
+
+  @Test
+  public void transitionsCanBeReadBack() {
+    TransitionJournal journal = new TransitionJournal(mDirectory, 1000, 100);
+    for (int i = 0; i < 5000; i++) {
+      assertTrue(journal.append(i, i % 10, statusOf(i), changeOf(i), i * 0.001, -i * 0.001));
+    }
+    journal.close();
+
+    // Reopen, and carry on appending after the existing transitions.
+    journal = new TransitionJournal(mDirectory, 1000, 100);
+    journal.append(5000, 3, LocalGeofence.Status.INSIDE, LocalGeofence.Change.ENTERED, 1, 2);
+
+    List<TransitionJournal.Entry> entries = journal.query(1000, 2000, 3);
+    assertEquals(100, entries.size());
+    for (TransitionJournal.Entry entry : entries) {
+      assertEquals(3, entry.featureOid);
+      assertEquals(statusOf((int) entry.time), entry.status);
+      assertEquals(changeOf((int) entry.time), entry.change);
+      assertEquals(entry.time * 0.001, entry.longitude, 0);
+      assertEquals(-entry.time * 0.001, entry.latitude, 0);
+    }
+    assertEquals(5001, journal.query(Long.MIN_VALUE, Long.MAX_VALUE, -1).size());
+
+    List<TransitionJournal.Entry> recent = journal.getRecent(3);
+    assertEquals(3, recent.size());
+    assertEquals(4998, recent.get(0).time);
+    assertEquals(5000, recent.get(2).time);
+    journal.close();
+  }
+
+  @Test
+  public void oldSegmentsAreDeleted() {
+    TransitionJournal journal = new TransitionJournal(mDirectory, 100, 3);
+    for (int i = 0; i < 1000; i++) {
+      journal.append(i, 1, LocalGeofence.Status.INSIDE, LocalGeofence.Change.ENTERED, 0, 0);
+      if (i % 100 == 50) {
+        journal.sync();
+      }
+    }
+    journal.sync();
+
+    List<TransitionJournal.Entry> entries = journal.query(Long.MIN_VALUE, Long.MAX_VALUE, -1);
+    assertEquals(300, entries.size());
+    assertEquals(700, entries.get(0).time);
+    assertEquals(999, entries.get(299).time);
+    assertEquals(3, mDirectory.list().length);
+    journal.close();
+  }
+
+  @Test
+  public void appendingDoesNotBlock() throws Exception {
+    TransitionJournal journal = new TransitionJournal(mDirectory, 16384, 8);
+
+    // 20000 transitions a second, in bursts, for a second.
+    int bursts = 20;
+    int burst = 1000;
+    long maxAppendNanos = 0;
+    long totalAppendNanos = 0;
+    for (int b = 0; b < bursts; b++) {
+      for (int i = 0; i < burst; i++) {
+        int n = b * burst + i;
+        long start = System.nanoTime();
+        journal.append(n, n % 50, LocalGeofence.Status.INSIDE, LocalGeofence.Change.ENTERED, 0, 0);
+        long elapsed = System.nanoTime() - start;
+        totalAppendNanos += elapsed;
+        maxAppendNanos = Math.max(maxAppendNanos, elapsed);
+      }
+      Thread.sleep(50);
+    }
+    long count = bursts * burst;
+    System.out.println(String.format("appended: %d  dropped: %d  mean: %.2f us  max: %.1f us",
+        journal.getAppendedCount(), journal.getDroppedCount(),
+        totalAppendNanos / 1000.0 / count, maxAppendNanos / 1000.0));
+
+    assertEquals(0, journal.getDroppedCount());
+    assertTrue(totalAppendNanos / count < 50000);
+    journal.close();
+
+    journal = new TransitionJournal(mDirectory, 16384, 8);
+    assertEquals(count, journal.query(Long.MIN_VALUE, Long.MAX_VALUE, -1).size());
+    journal.close();
+  }
+
+  private static LocalGeofence.Status statusOf(int i) {
+    return (i % 2 == 0) ? LocalGeofence.Status.INSIDE : LocalGeofence.Status.CLOSE;
+  }
+
+  private static LocalGeofence.Change changeOf(int i) {
+    return (i % 2 == 0) ? LocalGeofence.Change.ENTERED : LocalGeofence.Change.EXITED;
+  }
+}